@@ -0,0 +1,182 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Indoor air quality score from gas resistance and humidity.
+ * <p>
+ * The gas baseline is a high percentile of humidity compensated gas resistance, tracked over a long
+ * time constant with a stochastic quantile estimator in log space. Each update costs O(1) time and memory.
+ * Until the warm-up period has passed the baseline follows the running maximum and the state is
+ * {@link #STATE_WARM_UP}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AirQualityEngine {
+
+    /**
+     * Engine state.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_WARM_UP, STATE_READY})
+    public @interface State {
+    }
+
+    public static final int STATE_WARM_UP = 0;
+    public static final int STATE_READY = 1;
+
+    // Set the humidity baseline to 40%, an optimal indoor humidity.
+    public static final float DEFAULT_HUMIDITY_BASELINE = 40.0f;
+    // This sets the balance between humidity and gas reading in the calculation of airQualityScore (25:75, humidity:gas)
+    public static final float DEFAULT_HUMIDITY_WEIGHTING = 0.25f;
+    // Relative change of gas resistance per %RH away from the humidity baseline
+    public static final float DEFAULT_HUMIDITY_COEFFICIENT = 0.01f;
+    // Heater burn-in before the baseline is trusted
+    public static final long DEFAULT_WARM_UP_MILLISECONDS = 5 * 60 * 1000L;
+    // Baseline moves at most one e-fold per time constant
+    public static final long DEFAULT_BASELINE_TIME_CONSTANT_MILLISECONDS = 24 * 60 * 60 * 1000L;
+    // Percentile of gas resistance considered clean air
+    public static final float DEFAULT_BASELINE_PERCENTILE = 0.95f;
+
+    // Longest gap between samples that still moves the baseline by its full duration
+    private static final long MAX_SAMPLE_GAP_MILLISECONDS = 60 * 1000L;
+
+    private final float humidityBaseline;
+    private final float humidityWeighting;
+    private final float humidityCoefficient;
+    private final long warmUpDuration;
+    private final long baselineTimeConstant;
+    private final float baselinePercentile;
+
+    @State
+    private int state = STATE_WARM_UP;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private boolean started = false;
+    // Natural logarithm of the gas baseline in Ohms
+    private double logBaseline;
+    private float score = 0.0f;
+
+    public AirQualityEngine() {
+        this(DEFAULT_HUMIDITY_BASELINE, DEFAULT_HUMIDITY_WEIGHTING, DEFAULT_HUMIDITY_COEFFICIENT, DEFAULT_WARM_UP_MILLISECONDS, DEFAULT_BASELINE_TIME_CONSTANT_MILLISECONDS, DEFAULT_BASELINE_PERCENTILE);
+    }
+
+    /**
+     * Create a new air quality engine.
+     *
+     * @param humidityBaseline     Optimal relative humidity in percent.
+     * @param humidityWeighting    Share of the score given to humidity, between 0 and 1.
+     * @param humidityCoefficient  Relative change of gas resistance per %RH, used to compensate gas resistance for humidity.
+     * @param warmUpDuration       Time in milliseconds before the baseline is trusted.
+     * @param baselineTimeConstant Time constant of the baseline in milliseconds.
+     * @param baselinePercentile   Percentile of compensated gas resistance used as baseline, between 0 and 1.
+     */
+    public AirQualityEngine(final float humidityBaseline, final float humidityWeighting, final float humidityCoefficient,
+                            final long warmUpDuration, final long baselineTimeConstant, final float baselinePercentile) {
+        if (humidityBaseline <= 0.0f || humidityBaseline >= 100.0f) {
+            throw new IllegalArgumentException("Humidity baseline should be between 0 and 100");
+        }
+        if (humidityWeighting < 0.0f || humidityWeighting > 1.0f) {
+            throw new IllegalArgumentException("Humidity weighting should be between 0 and 1");
+        }
+        if (baselinePercentile <= 0.0f || baselinePercentile >= 1.0f) {
+            throw new IllegalArgumentException("Baseline percentile should be between 0 and 1");
+        }
+        if (warmUpDuration < 0 || baselineTimeConstant <= 0) {
+            throw new IllegalArgumentException("Durations should be positive");
+        }
+        this.humidityBaseline = humidityBaseline;
+        this.humidityWeighting = humidityWeighting;
+        this.humidityCoefficient = humidityCoefficient;
+        this.warmUpDuration = warmUpDuration;
+        this.baselineTimeConstant = baselineTimeConstant;
+        this.baselinePercentile = baselinePercentile;
+    }
+
+    /**
+     * Feed a new sample and calculate the air quality score.
+     *
+     * @param timestamp     Monotonic sample time in milliseconds.
+     * @param gasResistance Compensated gas resistance in Ohms.
+     * @param humidity      Relative humidity in percent.
+     * @return Air quality score between 0 and 100, higher is better.
+     */
+    public float update(final long timestamp, final long gasResistance, final float humidity) {
+        if (gasResistance <= 0) {
+            return score;
+        }
+
+        final double logGas = Math.log(gasResistance) + humidityCoefficient * (humidity - humidityBaseline);
+
+        if (!started) {
+            started = true;
+            firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+            logBaseline = logGas;
+        }
+
+        final long elapsed = Math.min(Math.max(timestamp - lastTimestamp, 0), MAX_SAMPLE_GAP_MILLISECONDS);
+        lastTimestamp = timestamp;
+
+        if (state == STATE_WARM_UP) {
+            logBaseline = Math.max(logBaseline, logGas);
+            if (timestamp - firstTimestamp >= warmUpDuration) {
+                state = STATE_READY;
+            }
+        } else {
+            // Stochastic approximation of the percentile: settles where P(gas > baseline) = 1 - percentile
+            final double step = (double) elapsed / baselineTimeConstant;
+            if (logGas > logBaseline) {
+                logBaseline += step * baselinePercentile;
+            } else {
+                logBaseline -= step * (1.0 - baselinePercentile);
+            }
+        }
+
+        score = calculateHumidityScore(humidity) + calculateGasScore(logGas);
+        return score;
+    }
+
+    // Reset to the warm-up state, discarding the baseline
+    public void reset() {
+        state = STATE_WARM_UP;
+        started = false;
+        logBaseline = 0.0;
+        score = 0.0f;
+    }
+
+    @State
+    public int getState() {
+        return state;
+    }
+
+    // Last calculated air quality score
+    public float getScore() {
+        return score;
+    }
+
+    // Humidity compensated gas resistance baseline in Ohms, 0 before the first sample
+    public float getGasBaseline() {
+        return started ? (float) Math.exp(logBaseline) : 0.0f;
+    }
+
+    // Calculate humidityScore as the distance from the humidityBaseline
+    private float calculateHumidityScore(final float humidity) {
+        final float humidityOffset = humidity - humidityBaseline;
+
+        if (humidityOffset > 0) {
+            return Math.max(100.0f - humidityBaseline - humidityOffset, 0.0f) / (100.0f - humidityBaseline) * (humidityWeighting * 100.0f);
+        } else {
+            return Math.max(humidityBaseline + humidityOffset, 0.0f) / humidityBaseline * (humidityWeighting * 100.0f);
+        }
+    }
+
+    // Calculate gasScore as the ratio to the gasBaseline
+    private float calculateGasScore(final double logGas) {
+        final double ratio = Math.exp(Math.min(logGas - logBaseline, 0.0));
+
+        return (float) ratio * (100.0f - (humidityWeighting * 100.0f));
+    }
+}
@@ -0,0 +1,136 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Streaming anomaly detection over every channel of a {@link Data} reading.
+ * <p>
+ * Each channel has its own {@link ChannelMonitor}. Gas resistance is monitored as its natural logarithm, so its
+ * thresholds are relative and a sudden change of air quality shows up as a spike or shift whatever the baseline.
+ * Readings without anomalies only update the monitors; anomalies are handed to the callback on the calling
+ * thread, so only they need to leave the device. Not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AnomalyDetector {
+
+    private static final int CHANNELS = 4;
+    private static final int ANOMALIES = 4;
+
+    // Weight of a new reading in the control charts, about the last hundred readings
+    public static final float DEFAULT_ALPHA = 0.01f;
+    public static final float DEFAULT_SPIKE_THRESHOLD = 6.0f;
+    public static final float DEFAULT_SHIFT_SLACK = 0.5f;
+    public static final float DEFAULT_SHIFT_THRESHOLD = 10.0f;
+    public static final int DEFAULT_STUCK_RUN = 200;
+
+    /**
+     * Receives the anomalies of a channel.
+     */
+    public interface Callback {
+        /**
+         * @param channel   Channel of the reading.
+         * @param anomalies Bitwise or of {@link ChannelMonitor#SPIKE}, {@link ChannelMonitor#SHIFT},
+         *                  {@link ChannelMonitor#STUCK} and {@link ChannelMonitor#RATE}.
+         * @param timestamp Time of the reading in milliseconds.
+         * @param value     Value of the channel, gas resistance in Ohms rather than its logarithm.
+         */
+        void onAnomaly(@RollupStore.Channel final int channel, final int anomalies, final long timestamp, final float value);
+    }
+
+    private final Callback callback;
+    private final ChannelMonitor[] monitors = new ChannelMonitor[CHANNELS];
+    private final long[] counts = new long[CHANNELS * ANOMALIES];
+
+    /**
+     * Create a new detector with default limits for indoor use.
+     *
+     * @param callback Receiver of anomalies.
+     */
+    public AnomalyDetector(@NonNull final Callback callback) {
+        this(callback,
+            new ChannelMonitor(DEFAULT_ALPHA, DEFAULT_SPIKE_THRESHOLD, DEFAULT_SHIFT_SLACK, DEFAULT_SHIFT_THRESHOLD, 0.02f, 0.5f, DEFAULT_STUCK_RUN),
+            new ChannelMonitor(DEFAULT_ALPHA, DEFAULT_SPIKE_THRESHOLD, DEFAULT_SHIFT_SLACK, DEFAULT_SHIFT_THRESHOLD, 0.1f, 2.0f, DEFAULT_STUCK_RUN),
+            new ChannelMonitor(DEFAULT_ALPHA, DEFAULT_SPIKE_THRESHOLD, DEFAULT_SHIFT_SLACK, DEFAULT_SHIFT_THRESHOLD, 0.02f, 0.5f, DEFAULT_STUCK_RUN),
+            new ChannelMonitor(DEFAULT_ALPHA, DEFAULT_SPIKE_THRESHOLD, DEFAULT_SHIFT_SLACK, DEFAULT_SHIFT_THRESHOLD, 0.01f, 0.2f, DEFAULT_STUCK_RUN));
+    }
+
+    /**
+     * Create a new detector with the given monitors.
+     *
+     * @param callback      Receiver of anomalies.
+     * @param temperature   Monitor of temperature in degree celsius.
+     * @param humidity      Monitor of humidity in % relative humidity.
+     * @param pressure      Monitor of pressure in hPa.
+     * @param gasResistance Monitor of the natural logarithm of gas resistance in Ohms.
+     */
+    public AnomalyDetector(@NonNull final Callback callback, @NonNull final ChannelMonitor temperature, @NonNull final ChannelMonitor humidity,
+                           @NonNull final ChannelMonitor pressure, @NonNull final ChannelMonitor gasResistance) {
+        this.callback = callback;
+        monitors[RollupStore.CHANNEL_TEMPERATURE] = temperature;
+        monitors[RollupStore.CHANNEL_HUMIDITY] = humidity;
+        monitors[RollupStore.CHANNEL_PRESSURE] = pressure;
+        monitors[RollupStore.CHANNEL_GAS_RESISTANCE] = gasResistance;
+    }
+
+    /**
+     * Check a reading on every channel. Gas resistance is skipped unless the reading has a valid, heater-stable gas measurement.
+     *
+     * @param timestamp Time of the reading in milliseconds, from a monotonic clock.
+     * @param data      Reading to check.
+     */
+    public void update(final long timestamp, @NonNull final Data data) {
+        update(timestamp, data, true);
+    }
+
+    /**
+     * Check a reading, optionally leaving out gas resistance.
+     *
+     * @param timestamp Time of the reading in milliseconds, from a monotonic clock.
+     * @param data      Reading to check.
+     * @param gas       Whether to check gas resistance, false for readings at another heater temperature than the monitored one.
+     */
+    public void update(final long timestamp, @NonNull final Data data, final boolean gas) {
+        check(RollupStore.CHANNEL_TEMPERATURE, timestamp, data.temperature, data.temperature);
+        check(RollupStore.CHANNEL_HUMIDITY, timestamp, data.humidity, data.humidity);
+        check(RollupStore.CHANNEL_PRESSURE, timestamp, data.pressure, data.pressure);
+        if (gas && data.isGasValid() && data.gasResistance > 0) {
+            check(RollupStore.CHANNEL_GAS_RESISTANCE, timestamp, (float) Math.log(data.gasResistance), data.gasResistance);
+        }
+    }
+
+    @NonNull
+    public ChannelMonitor getMonitor(@RollupStore.Channel final int channel) {
+        return monitors[channel];
+    }
+
+    /**
+     * Number of times an anomaly was flagged on a channel.
+     *
+     * @param channel Channel to count.
+     * @param anomaly One of {@link ChannelMonitor#SPIKE}, {@link ChannelMonitor#SHIFT}, {@link ChannelMonitor#STUCK} or {@link ChannelMonitor#RATE}.
+     * @return Number of readings the anomaly was flagged on.
+     */
+    public long getCount(@RollupStore.Channel final int channel, final int anomaly) {
+        return counts[channel * ANOMALIES + Integer.numberOfTrailingZeros(anomaly)];
+    }
+
+    // Forget every chart and start a new warm-up
+    public void reset() {
+        for (final ChannelMonitor monitor : monitors) {
+            monitor.reset();
+        }
+    }
+
+    private void check(final int channel, final long timestamp, final float monitored, final float value) {
+        final int anomalies = monitors[channel].update(timestamp, monitored);
+        if (anomalies == 0) {
+            return;
+        }
+        for (int anomaly = 0; anomaly < ANOMALIES; anomaly++) {
+            if ((anomalies & (1 << anomaly)) != 0) {
+                counts[channel * ANOMALIES + anomaly]++;
+            }
+        }
+        callback.onAnomaly(channel, anomalies, timestamp, value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Reads bits most significant bit first from a byte array written by {@link BitWriter}. Reused after {@link #reset(byte[], int)}.
+ */
+final class BitReader {
+
+    private byte[] buffer = new byte[0];
+    private int bitLength = 0;
+    private int position = 0;
+
+    // Read from the first length bytes of a buffer
+    void reset(@NonNull final byte[] buffer, final int length) {
+        this.buffer = buffer;
+        this.bitLength = length * 8;
+        this.position = 0;
+    }
+
+    // Read a value of between 1 and 64 bits
+    long read(int bits) throws IOException {
+        if (position + bits > bitLength) {
+            throw new IOException("Truncated block");
+        }
+
+        long value = 0;
+        while (bits > 0) {
+            final int available = 8 - (position & 7);
+            final int n = Math.min(available, bits);
+            final int chunk = (buffer[position >>> 3] >>> (available - n)) & ((1 << n) - 1);
+            value = (value << n) | chunk;
+            position += n;
+            bits -= n;
+        }
+        return value;
+    }
+
+    boolean readBit() throws IOException {
+        return read(1) != 0;
+    }
+}
@@ -0,0 +1,58 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of bits written most significant bit first. Reused after {@link #reset()}.
+ */
+final class BitWriter {
+
+    private byte[] buffer;
+    private int bitLength = 0;
+
+    BitWriter(final int capacity) {
+        buffer = new byte[Math.max(capacity, 8)];
+    }
+
+    void reset() {
+        Arrays.fill(buffer, 0, getByteLength(), (byte) 0);
+        bitLength = 0;
+    }
+
+    // Write the lowest bits of a value, between 1 and 64
+    void write(final long value, int bits) {
+        final int end = bitLength + bits;
+        if ((end + 7) >>> 3 > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, (end + 7) >>> 3));
+        }
+
+        while (bits > 0) {
+            final int free = 8 - (bitLength & 7);
+            final int n = Math.min(free, bits);
+            final int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+            buffer[bitLength >>> 3] |= chunk << (free - n);
+            bitLength += n;
+            bits -= n;
+        }
+    }
+
+    void writeBit(final boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    int getBitLength() {
+        return bitLength;
+    }
+
+    int getByteLength() {
+        return (bitLength + 7) >>> 3;
+    }
+
+    // Backing array, valid up to the byte length
+    @NonNull
+    byte[] getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,173 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Streaming control chart for one channel, flagging spikes, level shifts, stuck values and excessive rates of change.
+ * <p>
+ * An exponentially weighted mean and variance track the normal level and noise of the channel. A value further
+ * than the spike threshold from the mean, in standard deviations, is a spike and is kept out of the mean. A
+ * two-sided CUSUM of the standardised deviations accumulates small persistent offsets and flags a shift or drift
+ * once either sum passes its threshold, after which the chart warms up again at the new level. A run of
+ * identical values flags a stuck sensor and a change faster than the rate limit flags a jump. State is a
+ * handful of primitives, so every update is O(1) and never allocates. Not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ChannelMonitor {
+
+    // Anomaly bits returned by update
+    public static final int SPIKE = 1;
+    public static final int SHIFT = 1 << 1;
+    public static final int STUCK = 1 << 2;
+    public static final int RATE = 1 << 3;
+
+    private final float alpha;
+    private final float spikeThreshold;
+    private final float shiftSlack;
+    private final float shiftThreshold;
+    private final float resolution;
+    private final float maxRate;
+    private final int stuckRun;
+    private final int warmUpSamples;
+
+    private long sampleCount;
+    private double mean;
+    private double variance;
+    private double upperSum;
+    private double lowerSum;
+    private float lastValue;
+    private long lastTimestamp;
+    private int run;
+
+    /**
+     * Create a new channel monitor.
+     *
+     * @param alpha          Weight of a new value in the mean and variance, between 0 and 1. The first 1 / alpha values warm up the chart.
+     * @param spikeThreshold Deviation from the mean in standard deviations flagged as a spike, 0 to disable.
+     * @param shiftSlack     Deviation in standard deviations the CUSUM tolerates per value.
+     * @param shiftThreshold CUSUM in standard deviations flagged as a shift, 0 to disable.
+     * @param resolution     Smallest standard deviation in the channel's unit, the noise floor of a quiet channel.
+     * @param maxRate        Largest change per second in the channel's unit, 0 to disable.
+     * @param stuckRun       Number of identical consecutive values flagged as stuck, 0 to disable.
+     */
+    public ChannelMonitor(final float alpha, final float spikeThreshold, final float shiftSlack, final float shiftThreshold,
+                          final float resolution, final float maxRate, final int stuckRun) {
+        if (!(alpha > 0.0f) || alpha > 1.0f) {
+            throw new IllegalArgumentException("Alpha should be between 0 and 1");
+        }
+        if (!(spikeThreshold >= 0) || !(shiftSlack >= 0) || !(shiftThreshold >= 0) || !(resolution > 0) || !(maxRate >= 0) || stuckRun < 0) {
+            throw new IllegalArgumentException("Thresholds should not be negative and resolution should be positive");
+        }
+        this.alpha = alpha;
+        this.spikeThreshold = spikeThreshold;
+        this.shiftSlack = shiftSlack;
+        this.shiftThreshold = shiftThreshold;
+        this.resolution = resolution;
+        this.maxRate = maxRate;
+        this.stuckRun = stuckRun;
+        this.warmUpSamples = Math.round(1.0f / alpha);
+    }
+
+    /**
+     * Check a new value and fold it into the chart.
+     *
+     * @param timestamp Time of the value in milliseconds, from a monotonic clock.
+     * @param value     New value of the channel.
+     * @return Bitwise or of the anomalies flagged, 0 if none.
+     */
+    public int update(final long timestamp, final float value) {
+        if (Float.isNaN(value)) {
+            return 0;
+        }
+        if (sampleCount == 0) {
+            start(timestamp, value);
+            return 0;
+        }
+
+        int anomalies = 0;
+
+        run = value == lastValue ? run + 1 : 1;
+        if (stuckRun > 0 && run == stuckRun) {
+            anomalies |= STUCK;
+        }
+
+        final long elapsed = timestamp - lastTimestamp;
+        if (maxRate > 0 && elapsed > 0 && Math.abs(value - lastValue) * 1000.0f / elapsed > maxRate) {
+            anomalies |= RATE;
+        }
+        lastValue = value;
+        lastTimestamp = timestamp;
+
+        final double deviation = value - mean;
+        final double z = deviation / getDeviation();
+        final boolean warm = sampleCount >= warmUpSamples;
+        final boolean spike = warm && spikeThreshold > 0 && Math.abs(z) > spikeThreshold;
+        if (spike) {
+            anomalies |= SPIKE;
+        }
+
+        if (warm && shiftThreshold > 0) {
+            // A spike adds at most the spike threshold, so a lone outlier does not pass for a shift
+            final double bounded = spikeThreshold > 0 ? Math.max(-spikeThreshold, Math.min(z, spikeThreshold)) : z;
+            upperSum = Math.max(0.0, upperSum + bounded - shiftSlack);
+            lowerSum = Math.max(0.0, lowerSum - bounded - shiftSlack);
+            if (upperSum > shiftThreshold || lowerSum > shiftThreshold) {
+                // Warm up again from the new level, starting from the noise estimate
+                mean = value;
+                upperSum = 0.0;
+                lowerSum = 0.0;
+                sampleCount = 1;
+                return anomalies | SHIFT;
+            }
+        }
+
+        if (spike) {
+            sampleCount++;
+            return anomalies;
+        }
+
+        // Plain running mean and variance while warming up, so the chart starts unbiased
+        final double weight = Math.max(alpha, 1.0 / (sampleCount + 1));
+        mean += weight * deviation;
+        variance = (1.0 - weight) * (variance + weight * deviation * deviation);
+        sampleCount++;
+        return anomalies;
+    }
+
+    // Forget the chart and start a new warm-up
+    public void reset() {
+        sampleCount = 0;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public boolean isWarmedUp() {
+        return sampleCount >= warmUpSamples;
+    }
+
+    // Exponentially weighted mean of the channel
+    public float getMean() {
+        return (float) mean;
+    }
+
+    // Exponentially weighted standard deviation of the channel, at least its resolution
+    public float getDeviation() {
+        return (float) Math.max(Math.sqrt(variance), resolution);
+    }
+
+    // Number of identical consecutive values up to the last one
+    public int getRun() {
+        return run;
+    }
+
+    private void start(final long timestamp, final float value) {
+        mean = value;
+        variance = 0.0;
+        upperSum = 0.0;
+        lowerSum = 0.0;
+        lastValue = value;
+        lastTimestamp = timestamp;
+        run = 1;
+        sampleCount = 1;
+    }
+}
@@ -0,0 +1,21 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Source of monotonic time and waiting for the driver.
+ * The driver uses it wherever it timestamps a reading or waits for the chip,
+ * so a {@link VirtualClock} can run long schedules off-device in a fraction of real time.
+ *
+ * @see DeviceClock
+ * @see VirtualClock
+ */
+public interface Clock {
+
+    // Milliseconds since an arbitrary fixed point, never going backwards
+    long elapsedRealtime();
+
+    // Nanoseconds since an arbitrary fixed point, never going backwards
+    long elapsedRealtimeNanos();
+
+    // Wait for the given number of milliseconds
+    void sleep(long milliseconds);
+}
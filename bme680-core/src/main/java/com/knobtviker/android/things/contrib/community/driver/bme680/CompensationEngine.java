@@ -0,0 +1,407 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.IntDef;
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Calibration parsing and compensation maths of the BME680, free of any platform dependency.
+ * <p>
+ * Built from the raw calibration registers of one chip, it turns raw ADC values and data fields into
+ * compensated readings and heater set points into register values. It is the engine behind the
+ * Android Things driver and can be used on its own wherever raw readings are available, eg. on a server.
+ * <p>
+ * Compensating temperature updates the fine temperature used by pressure and humidity compensation,
+ * so an instance holds the state of one chip and is not thread safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class CompensationEngine {
+
+    /**
+     * Chip variant, read from the variant ID register.
+     * The BME688 shares the register map of the BME680 but measures gas on a higher range.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({VARIANT_BME680, VARIANT_BME688})
+    public @interface Variant {
+    }
+
+    public static final int VARIANT_BME680 = 0;
+    public static final int VARIANT_BME688 = 1;
+
+    // Length of the calibration coefficients at 0x89 and 0xE1, read as one array
+    public static final int COEFFICIENT_LENGTH_1 = 25;
+    public static final int COEFFICIENT_LENGTH_2 = 16;
+    public static final int COEFFICIENT_LENGTH = COEFFICIENT_LENGTH_1 + COEFFICIENT_LENGTH_2;
+
+    // Length of a data field, starting with its status register
+    public static final int FIELD_LENGTH = 15;
+    // The BME688 moves the gas registers two bytes further
+    public static final int FIELD_LENGTH_BME688 = 17;
+    // Distance between the three data fields
+    public static final int FIELD_OFFSET = 17;
+
+    // Mask definitions
+    private static final int RHRANGE_MASK = 0x30;
+    private static final int RSERROR_MASK = 0xf0;
+    private static final int NEW_DATA_MASK = 0x80;
+    private static final int GAS_INDEX_MASK = 0x0f;
+    private static final int GAS_RANGE_MASK = 0x0f;
+    private static final int GASM_VALID_MASK = 0x20;
+    private static final int HEAT_STABLE_MASK = 0x10;
+    private static final int BIT_H1_DATA_MASK = 0x0F;
+
+    // Array Index to Field data mapping for Calibration Data
+    private static final int T2_LSB_REGISTER = 1;
+    private static final int T2_MSB_REGISTER = 2;
+    private static final int T3_REGISTER = 3;
+    private static final int P1_LSB_REGISTER = 5;
+    private static final int P1_MSB_REGISTER = 6;
+    private static final int P2_LSB_REGISTER = 7;
+    private static final int P2_MSB_REGISTER = 8;
+    private static final int P3_REGISTER = 9;
+    private static final int P4_LSB_REGISTER = 11;
+    private static final int P4_MSB_REGISTER = 12;
+    private static final int P5_LSB_REGISTER = 13;
+    private static final int P5_MSB_REGISTER = 14;
+    private static final int P7_REGISTER = 15;
+    private static final int P6_REGISTER = 16;
+    private static final int P8_LSB_REGISTER = 19;
+    private static final int P8_MSB_REGISTER = 20;
+    private static final int P9_LSB_REGISTER = 21;
+    private static final int P9_MSB_REGISTER = 22;
+    private static final int P10_REGISTER = 23;
+    private static final int H2_MSB_REGISTER = 25;
+    private static final int H2_LSB_REGISTER = 26;
+    private static final int H1_LSB_REGISTER = 26;
+    private static final int H1_MSB_REGISTER = 27;
+    private static final int H3_REGISTER = 28;
+    private static final int H4_REGISTER = 29;
+    private static final int H5_REGISTER = 30;
+    private static final int H6_REGISTER = 31;
+    private static final int H7_REGISTER = 32;
+    private static final int T1_LSB_REGISTER = 33;
+    private static final int T1_MSB_REGISTER = 34;
+    private static final int GH2_LSB_REGISTER = 35;
+    private static final int GH2_MSB_REGISTER = 36;
+    private static final int GH1_REGISTER = 37;
+    private static final int GH3_REGISTER = 38;
+
+    private static final int HUMIDITY_REGISTER_SHIFT_VALUE = 4;
+
+    // Measurement cycles per oversampling setting, 0 when skipped
+    private static final int[] OVERSAMPLING_TO_CYCLES = {0, 1, 2, 4, 8, 16};
+
+    // Look up tables for the possible gas range values
+    private static final long GAS_RANGE_LOOKUP_TABLE_1[] = {
+        2147483647L, 2147483647L, 2147483647L, 2147483647L, 2147483647L, 2126008810L, 2147483647L,
+        2130303777L, 2147483647L, 2147483647L, 2143188679L, 2136746228L, 2147483647L, 2126008810L,
+        2147483647L, 2147483647L
+    };
+
+    private static final long GAS_RANGE_LOOKUP_TABLE_2[] = {
+        4096000000L, 2048000000L, 1024000000L, 512000000L, 255744255L, 127110228L, 64000000L,
+        32258064L, 16016016L, 8000000L, 4000000L, 2000000L, 1000000L, 500000L, 250000L, 125000L
+    };
+
+    private final int variant;
+    private final Calibration calibration = new Calibration();
+    private final int heaterResistanceRange;
+    private final int heaterResistanceValue;
+    private final int errorRange;
+
+    private int temperatureFine;
+    private long ambientTemperature;
+    private int offsetTemperature;
+    // Scratch reading the float compensation is converted from
+    private final FixedPointData fixedPoint = new FixedPointData();
+
+    /**
+     * Create a new compensation engine from the raw calibration registers of a chip.
+     *
+     * @param coefficients          Coefficients at 0x89 followed by those at 0xE1, {@link #COEFFICIENT_LENGTH} bytes.
+     * @param heaterResistanceRange Register 0x02 holding res_heat_range.
+     * @param heaterResistanceValue Register 0x00 holding res_heat_val.
+     * @param errorRange            Register 0x04 holding range_sw_err.
+     */
+    public CompensationEngine(@NonNull final byte[] coefficients, final byte heaterResistanceRange, final byte heaterResistanceValue, final byte errorRange) {
+        this(VARIANT_BME680, coefficients, heaterResistanceRange, heaterResistanceValue, errorRange);
+    }
+
+    /**
+     * Create a new compensation engine from the raw calibration registers of a chip variant.
+     *
+     * @param variant               Chip variant, selecting the data field layout and gas compensation.
+     * @param coefficients          Coefficients at 0x89 followed by those at 0xE1, {@link #COEFFICIENT_LENGTH} bytes.
+     * @param heaterResistanceRange Register 0x02 holding res_heat_range.
+     * @param heaterResistanceValue Register 0x00 holding res_heat_val.
+     * @param errorRange            Register 0x04 holding range_sw_err.
+     */
+    public CompensationEngine(@Variant final int variant, @NonNull final byte[] coefficients, final byte heaterResistanceRange, final byte heaterResistanceValue, final byte errorRange) {
+        this.variant = variant;
+        if (coefficients.length < COEFFICIENT_LENGTH) {
+            throw new IllegalArgumentException("Calibration coefficients should be " + COEFFICIENT_LENGTH + " bytes");
+        }
+
+        // Read temperature calibration data (3 words)
+        calibration.temperature[0] = concatBytes(coefficients[T1_MSB_REGISTER], coefficients[T1_LSB_REGISTER], false);
+        calibration.temperature[1] = concatBytes(coefficients[T2_MSB_REGISTER], coefficients[T2_LSB_REGISTER], true);
+        calibration.temperature[2] = coefficients[T3_REGISTER];
+
+        // Read pressure calibration data (10 words)
+        calibration.pressure[0] = concatBytes(coefficients[P1_MSB_REGISTER], coefficients[P1_LSB_REGISTER], false);
+        calibration.pressure[1] = concatBytes(coefficients[P2_MSB_REGISTER], coefficients[P2_LSB_REGISTER], true);
+        calibration.pressure[2] = coefficients[P3_REGISTER];
+        calibration.pressure[3] = concatBytes(coefficients[P4_MSB_REGISTER], coefficients[P4_LSB_REGISTER], true);
+        calibration.pressure[4] = concatBytes(coefficients[P5_MSB_REGISTER], coefficients[P5_LSB_REGISTER], true);
+        calibration.pressure[5] = coefficients[P6_REGISTER];
+        calibration.pressure[6] = coefficients[P7_REGISTER];
+        calibration.pressure[7] = concatBytes(coefficients[P8_MSB_REGISTER], coefficients[P8_LSB_REGISTER], true);
+        calibration.pressure[8] = concatBytes(coefficients[P9_MSB_REGISTER], coefficients[P9_LSB_REGISTER], true);
+        calibration.pressure[9] = coefficients[P10_REGISTER] & 0xFF;
+
+        // Read humidity calibration data (7 words)
+        calibration.humidity[0] = (((coefficients[H1_MSB_REGISTER] & 0xffff) << HUMIDITY_REGISTER_SHIFT_VALUE) | (coefficients[H1_LSB_REGISTER] & BIT_H1_DATA_MASK)) & 0xffff;
+        calibration.humidity[1] = (((coefficients[H2_MSB_REGISTER] & 0xffff) << HUMIDITY_REGISTER_SHIFT_VALUE) | (coefficients[H2_LSB_REGISTER] >> HUMIDITY_REGISTER_SHIFT_VALUE)) & 0xffff;
+        calibration.humidity[2] = coefficients[H3_REGISTER];
+        calibration.humidity[3] = coefficients[H4_REGISTER];
+        calibration.humidity[4] = coefficients[H5_REGISTER];
+        calibration.humidity[5] = coefficients[H6_REGISTER] & 0xFF;
+        calibration.humidity[6] = coefficients[H7_REGISTER];
+
+        // Read gas heater calibration data (3 words)
+        calibration.gasHeater[0] = coefficients[GH1_REGISTER];
+        calibration.gasHeater[1] = concatBytes(coefficients[GH2_MSB_REGISTER], coefficients[GH2_LSB_REGISTER], true);
+        calibration.gasHeater[2] = coefficients[GH3_REGISTER];
+
+        // Read other heater calibration data
+        this.heaterResistanceRange = ((heaterResistanceRange & RHRANGE_MASK) & 0xFF) / 16;
+        this.heaterResistanceValue = heaterResistanceValue;
+        this.errorRange = ((errorRange & 0xFF) & (RSERROR_MASK & 0xFF)) / 16;
+    }
+
+    @Variant
+    public int getVariant() {
+        return variant;
+    }
+
+    // Length of a data field of this variant
+    public int getFieldLength() {
+        return variant == VARIANT_BME688 ? FIELD_LENGTH_BME688 : FIELD_LENGTH;
+    }
+
+    // Parsed calibration coefficients
+    @NonNull
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    // Set temperature offset in celsius
+    // If set, the temperature t_fine will be increased by given value in celsius.
+    public void setTemperatureOffset(final int value) {
+        if (value == 0) {
+            this.offsetTemperature = 0;
+        } else {
+            this.offsetTemperature = (int) (Math.copySign(((Math.abs(value) * 100 << 8) - 128) / 5, value));
+        }
+    }
+
+    /**
+     * Decode and compensate a data field read from the chip.
+     * Air quality is left for the caller, as it depends on the history of readings.
+     *
+     * @param field Data field of {@link #getFieldLength()} bytes, starting with its status register.
+     * @param data  Reading to fill.
+     */
+    public void compensate(@NonNull final byte[] field, @NonNull final Data data) {
+        compensate(field, 0, data);
+    }
+
+    /**
+     * Decode and compensate a data field within a burst read of several fields.
+     *
+     * @param buffer Burst read holding the field.
+     * @param offset Index of the field's status register in the buffer.
+     * @param data   Reading to fill.
+     */
+    public void compensate(@NonNull final byte[] buffer, final int offset, @NonNull final Data data) {
+        compensate(buffer, offset, fixedPoint);
+
+        data.status = fixedPoint.status;
+        data.heaterStable = fixedPoint.heaterStable;
+        data.gasIndex = fixedPoint.gasIndex;
+        data.measureIndex = fixedPoint.measureIndex;
+        data.temperature = fixedPoint.temperature / 100.0f;
+        data.pressure = fixedPoint.pressure / 100.0f;
+        data.humidity = fixedPoint.humidity / 1000.0f;
+        data.gasResistance = fixedPoint.gasResistance;
+    }
+
+    /**
+     * Decode and compensate a data field within a burst read of several fields, in integer arithmetic only.
+     *
+     * @param buffer Burst read holding the field.
+     * @param offset Index of the field's status register in the buffer.
+     * @param data   Reading to fill with scaled integers.
+     */
+    public void compensate(@NonNull final byte[] buffer, final int offset, @NonNull final FixedPointData data) {
+        data.status = (byte) (buffer[offset] & NEW_DATA_MASK);
+        data.gasIndex = (buffer[offset] & GAS_INDEX_MASK);
+        data.measureIndex = buffer[offset + 1];
+
+        // read the raw data from the sensor
+        final int temperature = ((buffer[offset + 5] & 0xff) << 12) | ((buffer[offset + 6] & 0xff) << 4) | ((buffer[offset + 7] & 0xff) >> 4);
+        final int pressure = ((buffer[offset + 2] & 0xff) << 12) | ((buffer[offset + 3] & 0xff) << 4) | ((buffer[offset + 4] & 0xff) >> 4);
+        final int humidity = (buffer[offset + 8] << 8) | (buffer[offset + 9] & 0xff);
+        final int gas = offset + (variant == VARIANT_BME688 ? 15 : 13);
+        final int gas_resistance = ((buffer[gas] & 0xff) << 2) | ((buffer[gas + 1] & 0xff) >> 6);
+        final int gas_range = buffer[gas + 1] & GAS_RANGE_MASK;
+
+        ambientTemperature = temperature;
+
+        data.status |= buffer[gas + 1] & GASM_VALID_MASK;
+        data.status |= buffer[gas + 1] & HEAT_STABLE_MASK;
+
+        data.heaterStable = (data.status & HEAT_STABLE_MASK) > 0;
+
+        data.temperature = compensateTemperature(temperature);
+        data.pressure = compensatePressure(pressure);
+        data.humidity = (int) compensateHumidity(humidity);
+        data.gasResistance = variant == VARIANT_BME688
+            ? compensateGasResistanceHigh(gas_resistance, gas_range)
+            : compensateGasResistance(gas_resistance, gas_range);
+    }
+
+    // Temperature in centi-degrees Celsius from its 20 bit ADC value
+    public int compensateTemperature(final int temperature) {
+        int var1 = (temperature >> 3) - (calibration.temperature[0] << 1);
+        int var2 = (var1 * calibration.temperature[1]) >> 11;
+        int var3 = ((var1 >> 1) * (var1 >> 1)) >> 12;
+        var3 = ((var3) * (calibration.temperature[2] << 4)) >> 14;
+        temperatureFine = (var2 + var3) + offsetTemperature;
+        return ((temperatureFine * 5) + 128) >> 8;
+    }
+
+    // Pressure in Pascal from its 20 bit ADC value, using the last compensated temperature
+    @SuppressWarnings({"ConstantConditions", "NumericOverflow"})
+    public int compensatePressure(final int pressure) {
+        int var1 = (temperatureFine >> 1) - 64000;
+        int var2 = ((((var1 >> 2) * (var1 >> 2)) >> 11) * calibration.pressure[5]) >> 2;
+        var2 = var2 + ((var1 * calibration.pressure[4]) << 1);
+        var2 = (var2 >> 2) + (calibration.pressure[3] << 16);
+        var1 = (((((var1 >> 2) * (var1 >> 2)) >> 13) * (calibration.pressure[2] << 5)) >> 3) + ((calibration.pressure[1] * var1) >> 1);
+        var1 = var1 >> 18;
+        var1 = ((32768 + var1) * calibration.pressure[0]) >> 15;
+        int pressure_comp = 1048576 - pressure;
+        pressure_comp = (pressure_comp - (var2 >> 12)) * 3125;
+        final int var4 = (1 << 31);
+        if (pressure_comp >= var4) {
+            pressure_comp = ((pressure_comp / var1) << 1);
+        } else {
+            pressure_comp = ((pressure_comp << 1) / var1);
+        }
+        var1 = (calibration.pressure[8] * (((pressure_comp >> 3) * (pressure_comp >> 3)) >> 13)) >> 12;
+        var2 = ((pressure_comp >> 2) * calibration.pressure[7]) >> 13;
+        final int var3 = ((pressure_comp >> 8) * (pressure_comp >> 8) * (pressure_comp >> 8) * calibration.pressure[9]) >> 17;
+
+        pressure_comp = pressure_comp + ((var1 + var2 + var3 + (calibration.pressure[6] << 7)) >> 4);
+
+        return pressure_comp;
+    }
+
+    // Humidity in milli-percent from its 16 bit ADC value, using the last compensated temperature
+    @SuppressWarnings("PointlessArithmeticExpression")
+    public long compensateHumidity(final int humidity) {
+        final int temp_scaled = ((temperatureFine * 5) + 128) >> 8;
+        final int var1 = humidity - calibration.humidity[0] * 16 - (((temp_scaled * calibration.humidity[2]) / 100) >> 1);
+        final int var2 = (calibration.humidity[1] * (((temp_scaled * calibration.humidity[3]) / 100) + (((temp_scaled * ((temp_scaled * calibration.humidity[4]) / 100)) >> 6) / 100) + (1 << 14))) >> 10;
+        final int var3 = var1 * var2;
+        int var4 = calibration.humidity[5] << 7;
+        var4 = (var4 + ((temp_scaled * calibration.humidity[6]) / 100)) >> 4;
+        final int var5 = ((var3 >> 14) * (var3 >> 14)) >> 10;
+        final int var6 = (var4 * var5) >> 1;
+        final int calc_hum = (((var3 + var6) >> 10) * 1000) >> 12;
+
+        // Cap at 100%rH
+        return Math.min(Math.max(calc_hum, 0), 100000);
+    }
+
+    // Gas resistance in Ohms from its 10 bit ADC value and range
+    public int compensateGasResistance(final int gas_resistance, final int gas_range) {
+        final long var1 = (1340 + (5 * (long) errorRange)) * GAS_RANGE_LOOKUP_TABLE_1[gas_range] >> 16;
+        final long var2 = ((((long) gas_resistance << 15) - (long) (16777216)) + var1);
+        final long var3 = ((GAS_RANGE_LOOKUP_TABLE_2[gas_range] * var1) >> 9);
+
+        return (int) ((var3 + (var2 >> 1)) / var2);
+    }
+
+    // Gas resistance in Ohms from its 10 bit ADC value and range, for the BME688
+    public static int compensateGasResistanceHigh(final int gas_resistance, final int gas_range) {
+        final long var1 = 262144L >> gas_range;
+        final long var2 = 4096 + (gas_resistance - 512) * 3;
+
+        // multiplying 10000 then dividing then multiplying by 100 instead of multiplying by 1000000 to prevent overflow
+        return (int) ((10000L * var1) / var2 * 100);
+    }
+
+    // Heater resistance register value for a target temperature in degrees celsius, between 200 and 400
+    public int calculateHeaterResistance(final int temperature) {
+        final int normalizedTemperature = Math.min(Math.max(temperature, 200), 400);
+
+        final long var1 = ((ambientTemperature * calibration.gasHeater[2]) / 1000) * 256;
+        final int var2 = (calibration.gasHeater[0] + 784) * (((((calibration.gasHeater[1] + 154009) * normalizedTemperature * 5) / 100) + 3276800) / 10);
+        final long var3 = var1 + (var2 / 2);
+        final long var4 = (var3 / (heaterResistanceRange + 4));
+        final int var5 = (131 * heaterResistanceValue) + 65536;
+        final long heater_res_x100 = ((var4 / var5) - 250) * 34;
+        return (short) ((heater_res_x100 + 50) / 100);
+    }
+
+    // Duration of the temperature, pressure, humidity and gas measurements in milliseconds, without heating
+    public static int measurementDuration(final int oversamplingTemperature, final int oversamplingPressure, final int oversamplingHumidity) {
+        final int cycles = OVERSAMPLING_TO_CYCLES[oversamplingTemperature] + OVERSAMPLING_TO_CYCLES[oversamplingPressure] + OVERSAMPLING_TO_CYCLES[oversamplingHumidity];
+
+        /// Temperature, pressure and humidity measurement duration calculated in microseconds [us]
+        int duration = cycles * 1963;
+        duration += (477 * 4); // Temperature, pressure and humidity switching duration
+        duration += (477 * 5); // Gas measurement duration
+        duration += (500); // Get it to the closest whole number
+        duration /= (1000); // Convert to milisecond [ms]
+        duration += (1); // Wake up duration of 1ms
+
+        return duration;
+    }
+
+    // Duration of a forced conversion in milliseconds, including heating when the gas measurement runs
+    public static int profileDuration(final int oversamplingTemperature, final int oversamplingPressure, final int oversamplingHumidity, final boolean runGas, final int heaterDuration) {
+        final int duration = measurementDuration(oversamplingTemperature, oversamplingPressure, oversamplingHumidity);
+
+        // The remaining time should be used for heating
+        return runGas ? duration + heaterDuration : duration;
+    }
+
+    // gas_wait_shared register value for a duration in milliseconds, in steps of 0.477 ms with a multiplier of 1, 4, 16 or 64
+    public static int encodeSharedHeaterDuration(final int duration) {
+        if (duration >= 0x783) {
+            return 0xff;
+        }
+
+        int steps = duration * 1000 / 477;
+        int factor = 0;
+        while (steps > 0x3F) {
+            steps >>= 2;
+            factor++;
+        }
+        return steps + factor * 64;
+    }
+
+    static int concatBytes(final int msb, final int lsb, final boolean isSigned) {
+        if (isSigned) {
+            return (msb << 8) | (lsb & 0xff); // keep the sign of msb but not of lsb
+        } else {
+            return ((msb & 0xff) << 8) | (lsb & 0xff);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Created by bojan on 27/11/2017.
+ */
+
+public class Data {
+
+    // Mean sea level pressure of the standard atmosphere in hPa
+    public static final float STANDARD_SEA_LEVEL_PRESSURE = 1013.25f;
+
+    // Magnus formula coefficients over water, valid from -45 to 60 degree celsius
+    private static final double MAGNUS_A = 17.62;
+    private static final double MAGNUS_B = 243.12;
+    private static final double MAGNUS_C = 6.112;
+    // Water vapour gas constant in J/(g K) and absolute zero in degree celsius
+    private static final double WATER_VAPOUR_CONSTANT = 0.4615;
+    private static final double KELVIN = 273.15;
+    // Barometric formula of the international standard atmosphere
+    private static final double ALTITUDE_SCALE = 44330.0;
+    private static final double ALTITUDE_EXPONENT = 1.0 / 5.255;
+    // Gas measurement valid bit of the status
+    private static final int GASM_VALID_MASK = 0x20;
+
+    // Contains new_data, gasm_valid & heat_stab
+    public byte status;
+
+    public boolean heaterStable = false;
+
+    // The index of the heater profile used
+    public int gasIndex = -1;
+
+    // Measurement index to track order
+    public byte measureIndex = -1;
+
+    // Temperature in degree celsius x100
+    public float temperature;
+
+    // Pressure in Pascal
+    public float pressure;
+
+    // Humidity in % relative humidity x1000
+    public float humidity;
+
+    // Gas resistance in Ohms
+    public int gasResistance = 0;
+
+    // Gas resistance in Ohms corrected for temperature and humidity, equal to gasResistance without a GasCorrection
+    public int correctedGasResistance = 0;
+
+    // Indoor air quality score index
+    public float airQualityScore = 0.0f;
+
+    // Previous reading returned while the sensor is recovering from a fault
+    public boolean stale = false;
+
+    // Inputs the memoised derived quantities were computed from, NaN when nothing is memoised
+    private float derivedTemperature = Float.NaN;
+    private float derivedPressure = Float.NaN;
+    private float derivedHumidity = Float.NaN;
+
+    private float dewPoint = Float.NaN;
+    private float absoluteHumidity = Float.NaN;
+    private float altitude = Float.NaN;
+    private float altitudeReference = Float.NaN;
+    private float seaLevelPressure = Float.NaN;
+    private float seaLevelAltitude = Float.NaN;
+
+    // Whether the gas resistance is a valid measurement taken with a stable heater
+    public boolean isGasValid() {
+        return (status & GASM_VALID_MASK) != 0 && heaterStable;
+    }
+
+    // Dew point in degree celsius, computed on first access
+    public float getDewPoint() {
+        invalidate();
+        if (Float.isNaN(dewPoint)) {
+            final double gamma = Math.log(humidity / 100.0) + MAGNUS_A * temperature / (MAGNUS_B + temperature);
+            dewPoint = (float) (MAGNUS_B * gamma / (MAGNUS_A - gamma));
+        }
+        return dewPoint;
+    }
+
+    // Absolute humidity in grams of water vapour per cubic meter, computed on first access
+    public float getAbsoluteHumidity() {
+        invalidate();
+        if (Float.isNaN(absoluteHumidity)) {
+            // Saturation vapour pressure in hPa scaled by relative humidity gives the partial pressure
+            final double vapourPressure = humidity / 100.0 * MAGNUS_C * Math.exp(MAGNUS_A * temperature / (MAGNUS_B + temperature));
+            absoluteHumidity = (float) (vapourPressure * 100.0 / (WATER_VAPOUR_CONSTANT * (KELVIN + temperature)));
+        }
+        return absoluteHumidity;
+    }
+
+    // Barometric altitude in meters above the standard sea level pressure
+    public float getAltitude() {
+        return getAltitude(STANDARD_SEA_LEVEL_PRESSURE);
+    }
+
+    // Barometric altitude in meters for a sea level pressure in hPa, memoised for the last reference
+    public float getAltitude(final float seaLevelPressure) {
+        invalidate();
+        if (Float.isNaN(altitude) || altitudeReference != seaLevelPressure) {
+            altitude = (float) (ALTITUDE_SCALE * (1.0 - Math.pow(pressure / seaLevelPressure, ALTITUDE_EXPONENT)));
+            altitudeReference = seaLevelPressure;
+        }
+        return altitude;
+    }
+
+    // Pressure reduced to sea level in hPa for an altitude in meters, memoised for the last altitude
+    public float getSeaLevelPressure(final float altitude) {
+        invalidate();
+        if (Float.isNaN(seaLevelPressure) || seaLevelAltitude != altitude) {
+            seaLevelPressure = (float) (pressure / Math.pow(1.0 - altitude / ALTITUDE_SCALE, 1.0 / ALTITUDE_EXPONENT));
+            seaLevelAltitude = altitude;
+        }
+        return seaLevelPressure;
+    }
+
+    // Dew points of readings into an array of the same length
+    public static void getDewPoints(@NonNull final Data[] readings, @NonNull final float[] output) {
+        checkLength(readings, output);
+        for (int i = 0; i < readings.length; i++) {
+            output[i] = readings[i].getDewPoint();
+        }
+    }
+
+    // Absolute humidities of readings into an array of the same length
+    public static void getAbsoluteHumidities(@NonNull final Data[] readings, @NonNull final float[] output) {
+        checkLength(readings, output);
+        for (int i = 0; i < readings.length; i++) {
+            output[i] = readings[i].getAbsoluteHumidity();
+        }
+    }
+
+    // Barometric altitudes of readings for a sea level pressure in hPa into an array of the same length
+    public static void getAltitudes(@NonNull final Data[] readings, final float seaLevelPressure, @NonNull final float[] output) {
+        checkLength(readings, output);
+        for (int i = 0; i < readings.length; i++) {
+            output[i] = readings[i].getAltitude(seaLevelPressure);
+        }
+    }
+
+    // Sea level pressures of readings for an altitude in meters into an array of the same length
+    public static void getSeaLevelPressures(@NonNull final Data[] readings, final float altitude, @NonNull final float[] output) {
+        checkLength(readings, output);
+        for (int i = 0; i < readings.length; i++) {
+            output[i] = readings[i].getSeaLevelPressure(altitude);
+        }
+    }
+
+    private static void checkLength(@NonNull final Data[] readings, @NonNull final float[] output) {
+        if (output.length < readings.length) {
+            throw new IllegalArgumentException("Output should hold a value for every reading");
+        }
+    }
+
+    // Drop memoised quantities if the public fields changed since they were computed
+    private void invalidate() {
+        if (derivedTemperature == temperature && derivedPressure == pressure && derivedHumidity == humidity) {
+            return;
+        }
+        derivedTemperature = temperature;
+        derivedPressure = pressure;
+        derivedHumidity = humidity;
+        dewPoint = Float.NaN;
+        absoluteHumidity = Float.NaN;
+        altitude = Float.NaN;
+        seaLevelPressure = Float.NaN;
+    }
+
+    void set(final Data other) {
+        status = other.status;
+        heaterStable = other.heaterStable;
+        gasIndex = other.gasIndex;
+        measureIndex = other.measureIndex;
+        temperature = other.temperature;
+        pressure = other.pressure;
+        humidity = other.humidity;
+        gasResistance = other.gasResistance;
+        correctedGasResistance = other.correctedGasResistance;
+        airQualityScore = other.airQualityScore;
+        stale = other.stale;
+        derivedTemperature = other.derivedTemperature;
+        derivedPressure = other.derivedPressure;
+        derivedHumidity = other.derivedHumidity;
+        dewPoint = other.dewPoint;
+        absoluteHumidity = other.absoluteHumidity;
+        altitude = other.altitude;
+        altitudeReference = other.altitudeReference;
+        seaLevelPressure = other.seaLevelPressure;
+        seaLevelAltitude = other.seaLevelAltitude;
+    }
+}
@@ -0,0 +1,83 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Change-driven publishing filter for one channel.
+ * <p>
+ * A value is published when it moves further than the deadband from the last published value, or when
+ * the heartbeat interval has passed since the last publication. The deadband is the wider of an absolute
+ * band and a band relative to the last published value. Evaluation only compares primitives, so
+ * suppressed values cost nothing beyond the check.
+ * <p>
+ * Not thread-safe, each channel should be filtered from one thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Deadband {
+
+    private final float absolute;
+    private final float relative;
+    private final long heartbeat;
+
+    private boolean published = false;
+    private float lastValue;
+    private long lastTimestamp;
+    private long publishedCount;
+    private long suppressedCount;
+
+    /**
+     * Create a new deadband filter.
+     *
+     * @param absolute  Absolute band in the channel's unit, 0 to disable.
+     * @param relative  Band as a fraction of the last published value, eg. 0.01 for 1%, 0 to disable.
+     * @param heartbeat Longest interval between publications in milliseconds, 0 to disable.
+     */
+    public Deadband(final float absolute, final float relative, final long heartbeat) {
+        if (!(absolute >= 0) || !(relative >= 0) || heartbeat < 0) {
+            throw new IllegalArgumentException("Deadband and heartbeat should not be negative");
+        }
+        this.absolute = absolute;
+        this.relative = relative;
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Check a new value, and record it as the last published value if it should be published.
+     *
+     * @param value     New value of the channel.
+     * @param timestamp Time of the value in milliseconds, from a monotonic clock.
+     * @return Whether the value should be published.
+     */
+    public boolean update(final float value, final long timestamp) {
+        if (published
+            && Math.abs(value - lastValue) <= Math.max(absolute, relative * Math.abs(lastValue))
+            && (heartbeat == 0 || timestamp - lastTimestamp < heartbeat)) {
+            suppressedCount++;
+            return false;
+        }
+
+        published = true;
+        lastValue = value;
+        lastTimestamp = timestamp;
+        publishedCount++;
+        return true;
+    }
+
+    // Publish the next value whatever it is
+    public void reset() {
+        published = false;
+    }
+
+    // Last published value, NaN before the first one and after a reset
+    public float getLastValue() {
+        return published ? lastValue : Float.NaN;
+    }
+
+    // Number of values published
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    // Number of values suppressed
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+}
@@ -0,0 +1,45 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Compensated reading as the scaled integers the compensation formulas produce.
+ * <p>
+ * Filled in place by {@link CompensationEngine#compensate(byte[], int, FixedPointData)} without any floating
+ * point arithmetic, so values can go to a wire protocol or storage format without a float round trip.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FixedPointData {
+
+    // Contains new_data, gasm_valid & heat_stab
+    public byte status;
+
+    public boolean heaterStable = false;
+
+    // The index of the heater profile used
+    public int gasIndex = -1;
+
+    // Measurement index to track order
+    public byte measureIndex = -1;
+
+    // Temperature in centi-degrees Celsius
+    public int temperature;
+
+    // Pressure in Pascal
+    public int pressure;
+
+    // Humidity in milli-percent relative humidity
+    public int humidity;
+
+    // Gas resistance in Ohms
+    public int gasResistance = 0;
+
+    public void set(final FixedPointData other) {
+        status = other.status;
+        heaterStable = other.heaterStable;
+        gasIndex = other.gasIndex;
+        measureIndex = other.measureIndex;
+        temperature = other.temperature;
+        pressure = other.pressure;
+        humidity = other.humidity;
+        gasResistance = other.gasResistance;
+    }
+}
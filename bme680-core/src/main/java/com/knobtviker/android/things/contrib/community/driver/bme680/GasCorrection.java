@@ -0,0 +1,169 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Online correction of gas resistance for its temperature and humidity cross-sensitivity.
+ * <p>
+ * The logarithm of gas resistance is fitted against temperature and humidity with recursive least squares:
+ * ln(R) = a + b (T - T0) + c (H - H0). Every sample updates the three coefficients and their 3x3 covariance
+ * in O(1) time and fixed memory, and a forgetting factor lets the fit follow sensor ageing and seasonal drift.
+ * The corrected resistance is the measured one moved to the reference temperature and humidity along the
+ * fitted slopes, so swings explained by the climate are removed and swings caused by gases remain.
+ * <p>
+ * Until the warm-up sample count is reached the resistance is returned uncorrected. Not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GasCorrection {
+
+    // Reference climate the resistance is corrected to
+    public static final float DEFAULT_REFERENCE_TEMPERATURE = 25.0f;
+    public static final float DEFAULT_REFERENCE_HUMIDITY = AirQualityEngine.DEFAULT_HUMIDITY_BASELINE;
+    // Samples a coefficient is remembered over, about a day at one sample every 3 seconds
+    public static final int DEFAULT_MEMORY = 30000;
+    // Samples before the fit is trusted
+    public static final int DEFAULT_WARM_UP_SAMPLES = 200;
+
+    private static final int PARAMETERS = 3;
+    // Initial covariance, large so the first samples dominate the fit
+    private static final double INITIAL_COVARIANCE = 1e4;
+    // Forgetting is paused while the covariance is this large, so it does not wind up without excitation
+    private static final double MAX_COVARIANCE = 1e6;
+
+    private final float referenceTemperature;
+    private final float referenceHumidity;
+    private final double forgetting;
+    private final int warmUpSamples;
+
+    private final double[] coefficients = new double[PARAMETERS];
+    // Covariance, row major
+    private final double[] covariance = new double[PARAMETERS * PARAMETERS];
+    private final double[] regressors = new double[PARAMETERS];
+    private final double[] gain = new double[PARAMETERS];
+
+    private long sampleCount;
+
+    public GasCorrection() {
+        this(DEFAULT_REFERENCE_TEMPERATURE, DEFAULT_REFERENCE_HUMIDITY, DEFAULT_MEMORY, DEFAULT_WARM_UP_SAMPLES);
+    }
+
+    /**
+     * Create a new gas resistance correction.
+     *
+     * @param referenceTemperature Temperature in degree celsius the resistance is corrected to.
+     * @param referenceHumidity    Relative humidity in percent the resistance is corrected to.
+     * @param memory               Number of samples the fit effectively remembers.
+     * @param warmUpSamples        Number of samples before the resistance is corrected.
+     */
+    public GasCorrection(final float referenceTemperature, final float referenceHumidity, final int memory, final int warmUpSamples) {
+        if (memory < 1 || warmUpSamples < 0) {
+            throw new IllegalArgumentException("Memory should be positive and warm-up should not be negative");
+        }
+        this.referenceTemperature = referenceTemperature;
+        this.referenceHumidity = referenceHumidity;
+        this.forgetting = 1.0 - 1.0 / memory;
+        this.warmUpSamples = warmUpSamples;
+        reset();
+    }
+
+    /**
+     * Fit a new sample and correct its gas resistance.
+     *
+     * @param gasResistance Gas resistance in Ohms.
+     * @param temperature   Temperature in degree celsius.
+     * @param humidity      Relative humidity in percent.
+     * @return Gas resistance in Ohms at the reference climate, or the given resistance during warm-up or if it is not positive.
+     */
+    public float update(final float gasResistance, final float temperature, final float humidity) {
+        if (!(gasResistance > 0)) {
+            return gasResistance;
+        }
+        regressors[0] = 1.0;
+        regressors[1] = temperature - referenceTemperature;
+        regressors[2] = humidity - referenceHumidity;
+
+        final double lambda = covariance[0] + covariance[4] + covariance[8] > MAX_COVARIANCE ? 1.0 : forgetting;
+
+        // Gain k = P x / (lambda + x' P x)
+        double denominator = lambda;
+        for (int row = 0; row < PARAMETERS; row++) {
+            double sum = 0.0;
+            for (int column = 0; column < PARAMETERS; column++) {
+                sum += covariance[row * PARAMETERS + column] * regressors[column];
+            }
+            gain[row] = sum;
+            denominator += regressors[row] * sum;
+        }
+        for (int row = 0; row < PARAMETERS; row++) {
+            gain[row] /= denominator;
+        }
+
+        final double error = Math.log(gasResistance) - predict(regressors[1], regressors[2]);
+        for (int row = 0; row < PARAMETERS; row++) {
+            coefficients[row] += gain[row] * error;
+        }
+
+        // P = (P - k x' P) / lambda, and x' P = k' (lambda + x' P x) since P is symmetric
+        for (int row = 0; row < PARAMETERS; row++) {
+            for (int column = 0; column < PARAMETERS; column++) {
+                final int index = row * PARAMETERS + column;
+                covariance[index] = (covariance[index] - gain[row] * gain[column] * denominator) / lambda;
+            }
+        }
+        sampleCount++;
+
+        return correct(gasResistance, temperature, humidity);
+    }
+
+    /**
+     * Correct a gas resistance with the current fit, without fitting it.
+     *
+     * @param gasResistance Gas resistance in Ohms.
+     * @param temperature   Temperature in degree celsius.
+     * @param humidity      Relative humidity in percent.
+     * @return Gas resistance in Ohms at the reference climate, or the given resistance during warm-up.
+     */
+    public float correct(final float gasResistance, final float temperature, final float humidity) {
+        if (sampleCount < warmUpSamples || !(gasResistance > 0)) {
+            return gasResistance;
+        }
+        return (float) (gasResistance * Math.exp(-coefficients[1] * (temperature - referenceTemperature)
+            - coefficients[2] * (humidity - referenceHumidity)));
+    }
+
+    // Forget the fit and start a new warm-up
+    public void reset() {
+        for (int i = 0; i < PARAMETERS; i++) {
+            coefficients[i] = 0.0;
+        }
+        for (int i = 0; i < covariance.length; i++) {
+            covariance[i] = i % (PARAMETERS + 1) == 0 ? INITIAL_COVARIANCE : 0.0;
+        }
+        sampleCount = 0;
+    }
+
+    public boolean isWarmedUp() {
+        return sampleCount >= warmUpSamples;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    // Fitted gas resistance in Ohms at the reference climate
+    public float getReferenceResistance() {
+        return (float) Math.exp(coefficients[0]);
+    }
+
+    // Fitted relative change of gas resistance per degree celsius
+    public float getTemperatureCoefficient() {
+        return (float) coefficients[1];
+    }
+
+    // Fitted relative change of gas resistance per %RH
+    public float getHumidityCoefficient() {
+        return (float) coefficients[2];
+    }
+
+    private double predict(final double temperatureOffset, final double humidityOffset) {
+        return coefficients[0] + coefficients[1] * temperatureOffset + coefficients[2] * humidityOffset;
+    }
+}
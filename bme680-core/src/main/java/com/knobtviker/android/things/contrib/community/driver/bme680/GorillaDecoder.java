@@ -0,0 +1,212 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads {@link Data} readings written by {@link GorillaEncoder}.
+ * Every block is verified against its checksum before any of its readings are returned.
+ * The block buffer grows to the largest block seen and is reused afterwards.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GorillaDecoder implements AutoCloseable {
+
+    private final InputStream in;
+    private final CRC32 crc = new CRC32();
+    private final BitReader bits = new BitReader();
+    private final byte[] checksum = new byte[ReadingEncoder.CHECKSUM_LENGTH];
+
+    private final int[] values = new int[GorillaEncoder.CHANNELS];
+    private final int[] leading = new int[GorillaEncoder.CHANNELS];
+    private final int[] trailing = new int[GorillaEncoder.CHANNELS];
+
+    private byte[] payload = new byte[GorillaEncoder.DEFAULT_BLOCK_SIZE * 8];
+    private int count = 0;
+    private int remaining = 0;
+    private long timestamp;
+    private long delta;
+
+    public GorillaDecoder(@NonNull final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Decode the next reading.
+     *
+     * @param data Reading to fill.
+     * @return false at the end of the stream.
+     * @throws IOException if the stream is truncated or a block is corrupt.
+     */
+    public boolean read(@NonNull final Data data) throws IOException {
+        if (!next()) {
+            return false;
+        }
+        data.temperature = getTemperature();
+        data.humidity = getHumidity();
+        data.pressure = getPressure();
+        data.gasResistance = getGasResistance();
+        return true;
+    }
+
+    /**
+     * Decode the next reading, exposing its values through the getters.
+     *
+     * @return false at the end of the stream.
+     * @throws IOException if the stream is truncated or a block is corrupt.
+     */
+    public boolean next() throws IOException {
+        // Empty blocks are skipped in a loop, however many follow each other
+        while (remaining == 0) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+
+        final boolean first = remaining == count;
+        if (first) {
+            timestamp = bits.read(64);
+            delta = 0;
+        } else {
+            delta += readDeltaOfDelta();
+            timestamp += delta;
+        }
+        for (int channel = 0; channel < values.length; channel++) {
+            readChannel(channel, first);
+        }
+        remaining--;
+        return true;
+    }
+
+    // Time of the last decoded reading in milliseconds
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // Temperature of the last decoded reading in degree celsius
+    public float getTemperature() {
+        return Float.intBitsToFloat(values[0]);
+    }
+
+    // Humidity of the last decoded reading in % relative humidity
+    public float getHumidity() {
+        return Float.intBitsToFloat(values[1]);
+    }
+
+    // Pressure of the last decoded reading in hPa
+    public float getPressure() {
+        return Float.intBitsToFloat(values[2]);
+    }
+
+    // Gas resistance of the last decoded reading in Ohms
+    public int getGasResistance() {
+        return values[3];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long readDeltaOfDelta() throws IOException {
+        int prefix = 0;
+        while (prefix < 4 && bits.readBit()) {
+            prefix++;
+        }
+        if (prefix == 0) {
+            return 0;
+        }
+        if (prefix == 4) {
+            return bits.read(64);
+        }
+        final int width = GorillaEncoder.DELTA_BITS[prefix - 1];
+        return bits.read(width) - (1L << (width - 1)) + 1;
+    }
+
+    private void readChannel(final int channel, final boolean first) throws IOException {
+        if (first) {
+            values[channel] = (int) bits.read(32);
+            return;
+        }
+        if (!bits.readBit()) {
+            return;
+        }
+
+        if (bits.readBit()) {
+            leading[channel] = (int) bits.read(GorillaEncoder.LEADING_BITS);
+            final int length = (int) bits.read(GorillaEncoder.LENGTH_BITS) + 1;
+            trailing[channel] = 32 - leading[channel] - length;
+            if (trailing[channel] < 0) {
+                throw new IOException("Corrupt block");
+            }
+        }
+        final int xor = (int) bits.read(32 - leading[channel] - trailing[channel]) << trailing[channel];
+        values[channel] ^= xor;
+    }
+
+    private boolean readBlock() throws IOException {
+        final int magic = in.read();
+        if (magic == -1) {
+            return false;
+        }
+        if ((byte) magic != GorillaEncoder.MAGIC) {
+            throw new IOException("Not a reading block");
+        }
+        final int version = in.read();
+        if (version != GorillaEncoder.VERSION) {
+            throw new IOException("Unsupported block version " + version);
+        }
+
+        final int blockCount = (int) readStreamVarint();
+        final int length = (int) readStreamVarint();
+        if (blockCount < 0 || blockCount > GorillaEncoder.MAX_BLOCK_SIZE || length < 0 || length > (long) blockCount * GorillaEncoder.MAX_READING_LENGTH) {
+            throw new IOException("Corrupt block header");
+        }
+        if (payload.length < length) {
+            payload = new byte[length];
+        }
+        readFully(payload, length);
+        readFully(checksum, checksum.length);
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        final long expected = ((checksum[0] & 0xFFL) << 24) | ((checksum[1] & 0xFFL) << 16) | ((checksum[2] & 0xFFL) << 8) | (checksum[3] & 0xFFL);
+        if (crc.getValue() != expected) {
+            throw new IOException("Block checksum mismatch");
+        }
+
+        bits.reset(payload, length);
+        count = blockCount;
+        remaining = blockCount;
+        return true;
+    }
+
+    private long readStreamVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated block header");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void readFully(final byte[] buffer, final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(buffer, read, length - read);
+            if (n == -1) {
+                throw new EOFException("Truncated block");
+            }
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes {@link Data} readings compressed in the style of Facebook's Gorilla time series store.
+ * <p>
+ * Timestamps are stored as the delta of their delta with the previous reading, taking a single bit when
+ * readings are evenly spaced. Each channel is stored as the XOR of its 32 bits with the previous value: an
+ * unchanged value takes one bit, and a changed one only its meaningful bits, reusing the previous leading
+ * and trailing zero counts when they fit. Temperature, humidity and pressure are float bits, so values round
+ * trip exactly; gas resistance is its integer value.
+ * <p>
+ * Readings are framed in blocks like {@link ReadingEncoder}: magic, version, varint reading count, varint
+ * payload length, payload and CRC32 (big endian). Every block starts from a full first reading and can be
+ * decoded on its own. The bit buffer is allocated once and reused for every block.
+ *
+ * @see GorillaDecoder
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GorillaEncoder implements Flushable, AutoCloseable {
+
+    static final byte MAGIC = (byte) 0xB7;
+    static final byte VERSION = 1;
+    static final int CHANNELS = 4;
+
+    // Delta of delta ranges by prefix: 0, 10, 110, 1110, then 1111 with the full 64 bits
+    static final int[] DELTA_BITS = {7, 9, 12};
+
+    // Bits of the leading zero count and of the meaningful bit count minus one
+    static final int LEADING_BITS = 5;
+    static final int LENGTH_BITS = 5;
+    // Longest reading in bytes, a full 64 bit delta of delta and a new window on every channel
+    static final int MAX_READING_LENGTH = (4 + 64 + CHANNELS * (2 + LEADING_BITS + LENGTH_BITS + 32) + 7) / 8;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    // Largest block, bounding the payload a decoder allocates for a block header
+    public static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final BitWriter bits;
+    private final byte[] frame = new byte[ReadingEncoder.MAX_HEADER_LENGTH];
+    private final CRC32 crc = new CRC32();
+
+    private final int[] previous = new int[CHANNELS];
+    // Leading and trailing zeros of the previous stored XOR, -1 before the first
+    private final int[] leading = new int[CHANNELS];
+    private final int[] trailing = new int[CHANNELS];
+
+    private int count = 0;
+    private long previousTimestamp;
+    private long previousDelta;
+
+    public GorillaEncoder(@NonNull final OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new encoder.
+     *
+     * @param out       Stream receiving complete blocks.
+     * @param blockSize Number of readings per block.
+     */
+    public GorillaEncoder(@NonNull final OutputStream out, final int blockSize) {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size should be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        // A few bytes per reading for slowly changing channels, the writer grows if needed
+        this.bits = new BitWriter(blockSize * 8);
+    }
+
+    /**
+     * Append a reading, writing the block once it is full.
+     *
+     * @param timestamp Time of the reading in milliseconds.
+     * @param data      Reading to encode.
+     * @throws IOException if the block could not be written.
+     */
+    public void write(final long timestamp, @NonNull final Data data) throws IOException {
+        write(timestamp, Float.floatToRawIntBits(data.temperature), Float.floatToRawIntBits(data.humidity),
+            Float.floatToRawIntBits(data.pressure), data.gasResistance);
+    }
+
+    // Append a reading of raw channel bits: float bits of temperature, humidity and pressure and the gas resistance
+    void write(final long timestamp, final int temperature, final int humidity, final int pressure, final int gasResistance) throws IOException {
+        if (count == 0) {
+            bits.write(timestamp, 64);
+            previousDelta = 0;
+        } else {
+            final long delta = timestamp - previousTimestamp;
+            writeDeltaOfDelta(delta - previousDelta);
+            previousDelta = delta;
+        }
+        previousTimestamp = timestamp;
+
+        writeChannel(0, temperature);
+        writeChannel(1, humidity);
+        writeChannel(2, pressure);
+        writeChannel(3, gasResistance);
+        count++;
+
+        if (count == blockSize) {
+            writeBlock();
+        }
+    }
+
+    // Write the pending readings as a partial block and flush the stream
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    // Flush pending readings and close the stream
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Number of readings waiting for the current block to fill
+    public int getPendingCount() {
+        return count;
+    }
+
+    private void writeDeltaOfDelta(final long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            bits.write(0, 1);
+            return;
+        }
+        for (int i = 0; i < DELTA_BITS.length; i++) {
+            final long half = 1L << (DELTA_BITS[i] - 1);
+            if (deltaOfDelta >= -half + 1 && deltaOfDelta <= half) {
+                // Prefix of i + 1 ones and a zero, then the value offset to be positive
+                bits.write((1L << (i + 2)) - 2, i + 2);
+                bits.write(deltaOfDelta + half - 1, DELTA_BITS[i]);
+                return;
+            }
+        }
+        bits.write(0x0F, 4);
+        bits.write(deltaOfDelta, 64);
+    }
+
+    private void writeChannel(final int channel, final int value) {
+        if (count == 0) {
+            bits.write(value, 32);
+            previous[channel] = value;
+            leading[channel] = -1;
+            return;
+        }
+
+        final int xor = value ^ previous[channel];
+        previous[channel] = value;
+        if (xor == 0) {
+            bits.write(0, 1);
+            return;
+        }
+
+        // Leading zeros are capped to fit their field
+        final int leadingZeros = Math.min(Integer.numberOfLeadingZeros(xor), (1 << LEADING_BITS) - 1);
+        final int trailingZeros = Integer.numberOfTrailingZeros(xor);
+        if (leading[channel] >= 0 && leadingZeros >= leading[channel] && trailingZeros >= trailing[channel]) {
+            // Fits the previous window
+            bits.write(2, 2);
+            bits.write(xor >>> trailing[channel], 32 - leading[channel] - trailing[channel]);
+            return;
+        }
+
+        final int length = 32 - leadingZeros - trailingZeros;
+        bits.write(3, 2);
+        bits.write(leadingZeros, LEADING_BITS);
+        bits.write(length - 1, LENGTH_BITS);
+        bits.write(xor >>> trailingZeros, length);
+        leading[channel] = leadingZeros;
+        trailing[channel] = trailingZeros;
+    }
+
+    private void writeBlock() throws IOException {
+        final int length = bits.getByteLength();
+        int header = 0;
+        frame[header++] = MAGIC;
+        frame[header++] = VERSION;
+        header = Varints.write(frame, header, count);
+        header = Varints.write(frame, header, length);
+        out.write(frame, 0, header);
+
+        out.write(bits.getBuffer(), 0, length);
+
+        crc.reset();
+        crc.update(bits.getBuffer(), 0, length);
+        final long checksum = crc.getValue();
+        frame[0] = (byte) (checksum >>> 24);
+        frame[1] = (byte) (checksum >>> 16);
+        frame[2] = (byte) (checksum >>> 8);
+        frame[3] = (byte) checksum;
+        out.write(frame, 0, ReadingEncoder.CHECKSUM_LENGTH);
+
+        bits.reset();
+        count = 0;
+    }
+}
@@ -0,0 +1,200 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.IntDef;
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Per-sample timestamps of every stage between a read request and its result, kept in a preallocated ring buffer.
+ * <p>
+ * The sampling thread opens a record with {@link #begin(long)}, marks each stage with a monotonic nanosecond
+ * timestamp and commits the record with {@link #end(boolean)}. Marks go to a scratch record that is copied into
+ * the ring on commit, so tracing never allocates and readers never see a record being written. Once the ring is
+ * full the oldest records are overwritten. Records can be dumped, copied out or aggregated per stage from any thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LatencyTrace {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_REQUESTED, STAGE_TRIGGERED, STAGE_CONVERTED, STAGE_READ_OUT, STAGE_COMPENSATED, STAGE_AIR_QUALITY})
+    public @interface Stage {
+    }
+
+    // Read requested
+    public static final int STAGE_REQUESTED = 0;
+    // Forced mode written, conversion started
+    public static final int STAGE_TRIGGERED = 1;
+    // Conversion wait over
+    public static final int STAGE_CONVERTED = 2;
+    // Data registers read out, including any polls for a late conversion
+    public static final int STAGE_READ_OUT = 3;
+    // Raw values compensated
+    public static final int STAGE_COMPENSATED = 4;
+    // Air quality score updated, reading complete
+    public static final int STAGE_AIR_QUALITY = 5;
+
+    public static final int STAGE_COUNT = 6;
+
+    // Timestamp of a stage the sample never reached
+    public static final long MISSING = -1;
+
+    private static final String[] STAGE_NAMES = {"requested", "triggered", "converted", "read out", "compensated", "air quality"};
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final int[] readouts;
+    private final boolean[] failures;
+
+    private final long[] pending = new long[STAGE_COUNT];
+    private int pendingReadouts;
+
+    // Slot of the next record and number of records ever committed
+    private int head = 0;
+    private long count = 0;
+
+    /**
+     * Create a new trace.
+     *
+     * @param capacity Number of most recent records kept.
+     */
+    public LatencyTrace(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity should be positive");
+        }
+        this.capacity = capacity;
+        this.timestamps = new long[capacity * STAGE_COUNT];
+        this.readouts = new int[capacity];
+        this.failures = new boolean[capacity];
+    }
+
+    // Open a record at the time of the read request, in nanoseconds
+    public void begin(final long timestamp) {
+        Arrays.fill(pending, MISSING);
+        pending[STAGE_REQUESTED] = timestamp;
+        pendingReadouts = 0;
+    }
+
+    // Mark the end of a stage of the open record, in nanoseconds
+    public void mark(@Stage final int stage, final long timestamp) {
+        pending[stage] = timestamp;
+    }
+
+    // Count a burst read of the data registers of the open record
+    public void readout() {
+        pendingReadouts++;
+    }
+
+    // Commit the open record, failed if the read threw
+    public synchronized void end(final boolean failed) {
+        System.arraycopy(pending, 0, timestamps, head * STAGE_COUNT, STAGE_COUNT);
+        readouts[head] = pendingReadouts;
+        failures[head] = failed;
+        head = (head + 1) % capacity;
+        count++;
+    }
+
+    // Number of records kept
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    // Number of records committed since the trace was created or cleared
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Copy the kept records oldest first, {@link #STAGE_COUNT} timestamps per record.
+     *
+     * @param output Array to copy into, should hold {@link #size()} times {@link #STAGE_COUNT} values.
+     * @return Number of records copied.
+     */
+    public synchronized int copyTo(@NonNull final long[] output) {
+        final int records = Math.min(size(), output.length / STAGE_COUNT);
+        for (int i = 0; i < records; i++) {
+            System.arraycopy(timestamps, slot(i) * STAGE_COUNT, output, i * STAGE_COUNT, STAGE_COUNT);
+        }
+        return records;
+    }
+
+    /**
+     * Add the durations of a stage over the kept records to the given statistics, skipping records that did not reach it.
+     *
+     * @param stage      Stage whose duration since the previous stage is added,
+     *                   or {@link #STAGE_REQUESTED} for the time from request to the last stage reached.
+     * @param statistics Statistics of durations in nanoseconds.
+     */
+    public synchronized void aggregate(@Stage final int stage, @NonNull final RunningStatistics statistics) {
+        for (int i = 0; i < size(); i++) {
+            final long duration = duration(slot(i) * STAGE_COUNT, stage);
+            if (duration != MISSING) {
+                statistics.add(duration);
+            }
+        }
+    }
+
+    /**
+     * Append one line per kept record, oldest first, with the duration of each stage in microseconds.
+     *
+     * @param builder Builder to append to.
+     * @return The given builder.
+     */
+    @NonNull
+    public synchronized StringBuilder dump(@NonNull final StringBuilder builder) {
+        for (int i = 0; i < size(); i++) {
+            final int slot = slot(i);
+            final int offset = slot * STAGE_COUNT;
+            builder.append(timestamps[offset + STAGE_REQUESTED]);
+            for (int stage = STAGE_TRIGGERED; stage < STAGE_COUNT; stage++) {
+                final long duration = duration(offset, stage);
+                builder.append(' ').append(STAGE_NAMES[stage]).append('=');
+                if (duration == MISSING) {
+                    builder.append('-');
+                } else {
+                    builder.append(String.format(Locale.US, "%.1f", duration / 1000.0));
+                }
+            }
+            builder.append(" total=").append(String.format(Locale.US, "%.1f", duration(offset, STAGE_REQUESTED) / 1000.0))
+                .append(" readouts=").append(readouts[slot]);
+            if (failures[slot]) {
+                builder.append(" failed");
+            }
+            builder.append('\n');
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return dump(new StringBuilder()).toString();
+    }
+
+    // Ring slot of the i-th oldest kept record
+    private int slot(final int index) {
+        return count < capacity ? index : (head + index) % capacity;
+    }
+
+    private long duration(final int offset, final int stage) {
+        if (stage == STAGE_REQUESTED) {
+            for (int last = STAGE_COUNT - 1; last > STAGE_REQUESTED; last--) {
+                if (timestamps[offset + last] != MISSING) {
+                    return timestamps[offset + last] - timestamps[offset];
+                }
+            }
+            return MISSING;
+        }
+
+        final long end = timestamps[offset + stage];
+        final long start = timestamps[offset + stage - 1];
+        return end == MISSING || start == MISSING ? MISSING : end - start;
+    }
+}
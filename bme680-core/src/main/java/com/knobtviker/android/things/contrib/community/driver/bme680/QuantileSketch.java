@@ -0,0 +1,196 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimator using the extended P-square algorithm.
+ * <p>
+ * Tracks a fixed set of markers: the minimum, the maximum, every requested quantile and the
+ * midpoints between them. Marker heights are adjusted with piecewise-parabolic interpolation,
+ * so each update costs O(markers) and no values are kept.
+ * Until there are as many values as markers the values themselves are stored and quantiles are exact.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class QuantileSketch {
+
+    private final double[] probabilities;
+    private final double[] heights;
+    private final double[] positions;
+    private final double[] desired;
+    private final int markers;
+
+    private long count = 0;
+
+    /**
+     * Create a new sketch.
+     *
+     * @param quantiles Quantiles to track, between 0 and 1 exclusive, eg. 0.5 and 0.95.
+     */
+    public QuantileSketch(@NonNull final double... quantiles) {
+        final double[] sorted = quantiles.clone();
+        Arrays.sort(sorted);
+        for (final double quantile : sorted) {
+            if (quantile <= 0.0 || quantile >= 1.0) {
+                throw new IllegalArgumentException("Quantiles should be between 0 and 1");
+            }
+        }
+
+        // 0, p1 / 2, p1, (p1 + p2) / 2, p2, ..., (pn + 1) / 2, 1
+        markers = 2 * sorted.length + 3;
+        probabilities = new double[markers];
+        double previous = 0.0;
+        for (int i = 0; i < sorted.length; i++) {
+            probabilities[2 * i + 1] = (previous + sorted[i]) / 2.0;
+            probabilities[2 * i + 2] = sorted[i];
+            previous = sorted[i];
+        }
+        probabilities[markers - 2] = (previous + 1.0) / 2.0;
+        probabilities[markers - 1] = 1.0;
+
+        heights = new double[markers];
+        positions = new double[markers];
+        desired = new double[markers];
+    }
+
+    public void add(final double value) {
+        if (count < markers) {
+            // Insertion sort of the first values
+            int i = (int) count;
+            while (i > 0 && heights[i - 1] > value) {
+                heights[i] = heights[i - 1];
+                i--;
+            }
+            heights[i] = value;
+            count++;
+            if (count == markers) {
+                for (int j = 0; j < markers; j++) {
+                    positions[j] = j + 1;
+                }
+            }
+            return;
+        }
+
+        // Find the cell containing the value, extending the extremes if needed
+        final int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[markers - 1]) {
+            heights[markers - 1] = value;
+            cell = markers - 2;
+        } else {
+            int k = 0;
+            while (value >= heights[k + 1]) {
+                k++;
+            }
+            cell = k;
+        }
+
+        for (int i = cell + 1; i < markers; i++) {
+            positions[i]++;
+        }
+        count++;
+        for (int i = 0; i < markers; i++) {
+            desired[i] = 1.0 + (count - 1) * probabilities[i];
+        }
+
+        // Move interior markers towards their desired positions
+        for (int i = 1; i < markers - 1; i++) {
+            final double offset = desired[i] - positions[i];
+            if ((offset >= 1.0 && positions[i + 1] - positions[i] > 1.0) || (offset <= -1.0 && positions[i - 1] - positions[i] < -1.0)) {
+                final int direction = offset > 0 ? 1 : -1;
+                final double parabolic = parabolic(i, direction);
+                if (heights[i - 1] < parabolic && parabolic < heights[i + 1]) {
+                    heights[i] = parabolic;
+                } else {
+                    heights[i] = linear(i, direction);
+                }
+                positions[i] += direction;
+            }
+        }
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Estimate a quantile between 0 and 1, NaN when empty
+    public double getQuantile(final double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        final int used = usedMarkers();
+        final double rank = 1.0 + quantile * (count - 1);
+        if (rank <= position(0)) {
+            return heights[0];
+        }
+        for (int i = 1; i < used; i++) {
+            final double position = position(i);
+            if (rank <= position) {
+                final double previous = position(i - 1);
+                return heights[i - 1] + (heights[i] - heights[i - 1]) * (rank - previous) / (position - previous);
+            }
+        }
+        return heights[used - 1];
+    }
+
+    // Estimated number of values lower than or equal to the given one
+    public double getRank(final double value) {
+        if (count == 0) {
+            return 0.0;
+        }
+
+        final int used = usedMarkers();
+        if (value < heights[0]) {
+            return 0.0;
+        }
+        if (value >= heights[used - 1]) {
+            return count;
+        }
+        int k = 0;
+        while (value >= heights[k + 1]) {
+            k++;
+        }
+        final double lower = position(k);
+        final double upper = position(k + 1);
+        return lower + (upper - lower) * (value - heights[k]) / (heights[k + 1] - heights[k]);
+    }
+
+    // Smallest value, NaN when empty
+    public double getMin() {
+        return count == 0 ? Double.NaN : heights[0];
+    }
+
+    // Largest value, NaN when empty
+    public double getMax() {
+        return count == 0 ? Double.NaN : heights[usedMarkers() - 1];
+    }
+
+    private int usedMarkers() {
+        return (int) Math.min(count, markers);
+    }
+
+    private double position(final int marker) {
+        return count < markers ? marker + 1 : positions[marker];
+    }
+
+    private double parabolic(final int i, final int direction) {
+        final double previous = positions[i - 1];
+        final double current = positions[i];
+        final double next = positions[i + 1];
+        return heights[i] + direction / (next - previous)
+            * ((current - previous + direction) * (heights[i + 1] - heights[i]) / (next - current)
+            + (next - current - direction) * (heights[i] - heights[i - 1]) / (current - previous));
+    }
+
+    private double linear(final int i, final int direction) {
+        return heights[i] + direction * (heights[i + direction] - heights[i]) / (positions[i + direction] - positions[i]);
+    }
+}
@@ -0,0 +1,184 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads {@link Data} readings written by {@link ReadingEncoder}.
+ * Every block is verified against its checksum before any of its readings are returned.
+ * The block buffer grows to the largest block seen and is reused afterwards.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ReadingDecoder implements AutoCloseable {
+
+    private final InputStream in;
+    private final CRC32 crc = new CRC32();
+    private final long[] values = new long[ReadingEncoder.CHANNELS];
+    private final byte[] checksum = new byte[ReadingEncoder.CHECKSUM_LENGTH];
+
+    private byte[] payload = new byte[ReadingEncoder.DEFAULT_BLOCK_SIZE * ReadingEncoder.MAX_READING_LENGTH];
+    private int length = 0;
+    private int position = 0;
+    private int remaining = 0;
+    private long timestamp = 0;
+
+    public ReadingDecoder(@NonNull final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Decode the next reading.
+     *
+     * @param data Reading to fill.
+     * @return false at the end of the stream.
+     * @throws IOException if the stream is truncated or a block is corrupt.
+     */
+    public boolean read(@NonNull final Data data) throws IOException {
+        if (!next()) {
+            return false;
+        }
+        data.temperature = getTemperature() / 100.0f;
+        data.humidity = getHumidity() / 1000.0f;
+        data.pressure = getPressure() / 100.0f;
+        data.gasResistance = getGasResistance();
+        return true;
+    }
+
+    /**
+     * Decode the next reading, exposing its fixed-point values through the getters.
+     *
+     * @return false at the end of the stream.
+     * @throws IOException if the stream is truncated or a block is corrupt.
+     */
+    public boolean next() throws IOException {
+        // Empty blocks are skipped in a loop, however many follow each other
+        while (remaining == 0) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+
+        timestamp += readSigned();
+        for (int i = 0; i < values.length; i++) {
+            values[i] += readSigned();
+        }
+        remaining--;
+        return true;
+    }
+
+    // Time of the last decoded reading in milliseconds
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // Temperature of the last decoded reading in centi-degrees Celsius
+    public int getTemperature() {
+        return (int) values[0];
+    }
+
+    // Humidity of the last decoded reading in milli-percent
+    public int getHumidity() {
+        return (int) values[1];
+    }
+
+    // Pressure of the last decoded reading in Pascal
+    public int getPressure() {
+        return (int) values[2];
+    }
+
+    // Gas resistance of the last decoded reading in Ohms
+    public int getGasResistance() {
+        return (int) values[3];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Read the next block header and payload, false at the end of the stream
+    private boolean readBlock() throws IOException {
+        final int magic = in.read();
+        if (magic == -1) {
+            return false;
+        }
+        if ((byte) magic != ReadingEncoder.MAGIC) {
+            throw new IOException("Not a reading block");
+        }
+        final int version = in.read();
+        if (version != ReadingEncoder.VERSION) {
+            throw new IOException("Unsupported block version " + version);
+        }
+
+        final int count = (int) readStreamVarint();
+        length = (int) readStreamVarint();
+        if (count < 0 || count > ReadingEncoder.MAX_BLOCK_SIZE || length < 0 || length > (long) count * ReadingEncoder.MAX_READING_LENGTH) {
+            throw new IOException("Corrupt block header");
+        }
+        if (payload.length < length) {
+            payload = new byte[length];
+        }
+        readFully(payload, length);
+        readFully(checksum, checksum.length);
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        final long expected = ((checksum[0] & 0xFFL) << 24) | ((checksum[1] & 0xFFL) << 16) | ((checksum[2] & 0xFFL) << 8) | (checksum[3] & 0xFFL);
+        if (crc.getValue() != expected) {
+            throw new IOException("Block checksum mismatch");
+        }
+
+        position = 0;
+        remaining = count;
+        timestamp = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0;
+        }
+        return true;
+    }
+
+    private long readSigned() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= length) {
+                throw new IOException("Truncated block");
+            }
+            final byte b = payload[position++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return Varints.unZigZag(result);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readStreamVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated block header");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void readFully(final byte[] buffer, final int count) throws IOException {
+        int read = 0;
+        while (read < count) {
+            final int n = in.read(buffer, read, count - read);
+            if (n == -1) {
+                throw new EOFException("Truncated block");
+            }
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes {@link Data} readings in a compact block framed binary format.
+ * <p>
+ * Channels are stored as fixed-point integers: temperature in centi-degrees Celsius, humidity in
+ * milli-percent, pressure in Pascal and gas resistance in Ohms. Within a block, the timestamp and
+ * every channel are written as the zig-zag varint delta from the previous reading, so a slowly
+ * changing reading takes a few bytes. Each block starts from zero and ends with a CRC32 of its
+ * payload, so blocks can be decoded and verified independently.
+ * <p>
+ * Block layout: magic, version, varint reading count, varint payload length, payload, CRC32 (big endian).
+ * Buffers are allocated once and reused for every block.
+ *
+ * @see ReadingDecoder
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ReadingEncoder implements Flushable, AutoCloseable {
+
+    static final byte MAGIC = (byte) 0xB6;
+    static final byte VERSION = 1;
+    static final int CHANNELS = 4;
+    // Magic, version, two varints and CRC32
+    static final int MAX_HEADER_LENGTH = 2 + 2 * 5;
+    static final int CHECKSUM_LENGTH = 4;
+    // Timestamp and channels
+    static final int MAX_READING_LENGTH = (1 + CHANNELS) * Varints.MAX_LENGTH;
+
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+    // Largest block, bounding the payload a decoder allocates for a block header
+    public static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final byte[] payload;
+    private final byte[] frame;
+    private final CRC32 crc = new CRC32();
+    private final long[] previous = new long[CHANNELS];
+
+    private int length = 0;
+    private int count = 0;
+    private long previousTimestamp = 0;
+
+    public ReadingEncoder(@NonNull final OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new encoder.
+     *
+     * @param out       Stream receiving complete blocks.
+     * @param blockSize Number of readings per block.
+     */
+    public ReadingEncoder(@NonNull final OutputStream out, final int blockSize) {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size should be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.payload = new byte[blockSize * MAX_READING_LENGTH];
+        this.frame = new byte[MAX_HEADER_LENGTH];
+    }
+
+    /**
+     * Append a reading, writing the block once it is full.
+     *
+     * @param timestamp Time of the reading in milliseconds.
+     * @param data      Reading to encode.
+     * @throws IOException if the block could not be written.
+     */
+    public void write(final long timestamp, @NonNull final Data data) throws IOException {
+        write(timestamp, toTemperature(data.temperature), toHumidity(data.humidity), toPressure(data.pressure), data.gasResistance);
+    }
+
+    /**
+     * Append a fixed-point reading as is, writing the block once it is full.
+     *
+     * @param timestamp Time of the reading in milliseconds.
+     * @param data      Reading to encode.
+     * @throws IOException if the block could not be written.
+     */
+    public void write(final long timestamp, @NonNull final FixedPointData data) throws IOException {
+        write(timestamp, data.temperature, data.humidity, data.pressure, data.gasResistance);
+    }
+
+    /**
+     * Append a reading of fixed-point values, writing the block once it is full.
+     *
+     * @param timestamp     Time of the reading in milliseconds.
+     * @param temperature   Temperature in centi-degrees Celsius.
+     * @param humidity      Humidity in milli-percent.
+     * @param pressure      Pressure in Pascal.
+     * @param gasResistance Gas resistance in Ohms.
+     * @throws IOException if the block could not be written.
+     */
+    public void write(final long timestamp, final int temperature, final int humidity, final int pressure, final int gasResistance) throws IOException {
+        length = Varints.writeSigned(payload, length, timestamp - previousTimestamp);
+        length = writeChannel(0, temperature);
+        length = writeChannel(1, humidity);
+        length = writeChannel(2, pressure);
+        length = writeChannel(3, gasResistance);
+        previousTimestamp = timestamp;
+        count++;
+
+        if (count == blockSize) {
+            writeBlock();
+        }
+    }
+
+    // Write the pending readings as a partial block and flush the stream
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    // Flush pending readings and close the stream
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Number of readings waiting for the current block to fill
+    public int getPendingCount() {
+        return count;
+    }
+
+    private int writeChannel(final int channel, final long value) {
+        final int offset = Varints.writeSigned(payload, length, value - previous[channel]);
+        previous[channel] = value;
+        return offset;
+    }
+
+    private void writeBlock() throws IOException {
+        int header = 0;
+        frame[header++] = MAGIC;
+        frame[header++] = VERSION;
+        header = Varints.write(frame, header, count);
+        header = Varints.write(frame, header, length);
+        out.write(frame, 0, header);
+
+        out.write(payload, 0, length);
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        final long checksum = crc.getValue();
+        frame[0] = (byte) (checksum >>> 24);
+        frame[1] = (byte) (checksum >>> 16);
+        frame[2] = (byte) (checksum >>> 8);
+        frame[3] = (byte) checksum;
+        out.write(frame, 0, CHECKSUM_LENGTH);
+
+        length = 0;
+        count = 0;
+        previousTimestamp = 0;
+        for (int i = 0; i < CHANNELS; i++) {
+            previous[i] = 0;
+        }
+    }
+
+    static int toTemperature(final float temperature) {
+        return Math.round(temperature * 100.0f);
+    }
+
+    static int toHumidity(final float humidity) {
+        return Math.round(humidity * 1000.0f);
+    }
+
+    // Data.pressure is in hecto-Pascal
+    static int toPressure(final float pressure) {
+        return Math.round(pressure * 100.0f);
+    }
+}
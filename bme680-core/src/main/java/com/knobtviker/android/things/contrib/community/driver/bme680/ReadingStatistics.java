@@ -0,0 +1,63 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Windowed statistics for every channel of a {@link Data} reading stream.
+ * Each channel tracks count, mean, variance, min, max and the requested quantiles in fixed memory.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ReadingStatistics {
+
+    public static final double[] DEFAULT_QUANTILES = {0.5, 0.95};
+
+    public final WindowedStatistics temperature;
+    public final WindowedStatistics humidity;
+    public final WindowedStatistics pressure;
+    public final WindowedStatistics gasResistance;
+
+    /**
+     * Create a tumbling window over all channels tracking the median and 95th percentile.
+     *
+     * @param windowDuration Duration of the window in the same unit as the timestamps.
+     */
+    public ReadingStatistics(final long windowDuration) {
+        this(windowDuration, 1, DEFAULT_QUANTILES);
+    }
+
+    /**
+     * Create a window over all channels.
+     *
+     * @param windowDuration Duration of the window in the same unit as the timestamps.
+     * @param panes          Number of panes, 1 for a tumbling window.
+     * @param quantiles      Quantiles to track, between 0 and 1 exclusive.
+     */
+    public ReadingStatistics(final long windowDuration, final int panes, @NonNull final double... quantiles) {
+        temperature = new WindowedStatistics(windowDuration, panes, quantiles);
+        humidity = new WindowedStatistics(windowDuration, panes, quantiles);
+        pressure = new WindowedStatistics(windowDuration, panes, quantiles);
+        gasResistance = new WindowedStatistics(windowDuration, panes, quantiles);
+    }
+
+    /**
+     * Add a reading to every channel.
+     *
+     * @param timestamp Monotonic time of the reading.
+     * @param data      Reading to add.
+     */
+    public void add(final long timestamp, @NonNull final Data data) {
+        temperature.add(timestamp, data.temperature);
+        humidity.add(timestamp, data.humidity);
+        pressure.add(timestamp, data.pressure);
+        if (data.gasResistance > 0) {
+            gasResistance.add(timestamp, data.gasResistance);
+        }
+    }
+
+    public void clear() {
+        temperature.clear();
+        humidity.clear();
+        pressure.clear();
+        gasResistance.clear();
+    }
+}
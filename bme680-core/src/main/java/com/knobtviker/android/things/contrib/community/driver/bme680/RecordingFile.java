@@ -0,0 +1,307 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped view of a recording written by {@link RecordingWriter}.
+ * <p>
+ * Queries binary search the footer index for the first block of a time range and decode only the blocks
+ * that overlap it. Value predicates also skip blocks whose minimum and maximum rule them out, and aggregates
+ * over blocks wholly inside the range are answered from the block summaries without decoding. Files are
+ * limited to 2 GiB, the size of a single mapping.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RecordingFile implements AutoCloseable {
+
+    // Fixed-point scale of each channel, as written by ReadingEncoder
+    private static final float[] SCALES = {100.0f, 1000.0f, 100.0f, 1.0f};
+
+    // Offsets within an index entry
+    private static final int ENTRY_OFFSET = 0;
+    private static final int ENTRY_LENGTH = 8;
+    private static final int ENTRY_COUNT = 12;
+    private static final int ENTRY_FIRST = 16;
+    private static final int ENTRY_LAST = 24;
+    private static final int ENTRY_CHANNELS = 32;
+    private static final int CHANNEL_SUMMARY_LENGTH = 16;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final int footerOffset;
+    private final int blockCount;
+    private final Data data = new Data();
+
+    /**
+     * Open and map a recording.
+     *
+     * @param file Recording to read.
+     * @throws IOException if the file could not be mapped or is not a complete recording.
+     */
+    public RecordingFile(@NonNull final File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = this.file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Recording larger than 2 GiB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            final int size = buffer.capacity();
+            if (size < RecordingWriter.HEADER_LENGTH + RecordingWriter.TRAILER_LENGTH
+                || buffer.getInt(0) != RecordingWriter.MAGIC
+                || buffer.getInt(size - 4) != RecordingWriter.MAGIC) {
+                throw new IOException("Not a complete recording");
+            }
+            if (buffer.get(4) != RecordingWriter.VERSION) {
+                throw new IOException("Unsupported recording version " + buffer.get(4));
+            }
+            final long footer = buffer.getLong(size - RecordingWriter.TRAILER_LENGTH);
+            blockCount = buffer.getInt(size - RecordingWriter.TRAILER_LENGTH + 8);
+            if (blockCount < 0 || footer + (long) blockCount * RecordingWriter.INDEX_ENTRY_LENGTH != size - RecordingWriter.TRAILER_LENGTH) {
+                throw new IOException("Corrupt recording footer");
+            }
+            footerOffset = (int) footer;
+        } catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    // Total number of readings, from the index
+    public long getReadingCount() {
+        long count = 0;
+        for (int block = 0; block < blockCount; block++) {
+            count += buffer.getInt(entry(block) + ENTRY_COUNT);
+        }
+        return count;
+    }
+
+    // Time of the first reading in milliseconds, Long.MAX_VALUE when empty
+    public long getFirstTimestamp() {
+        return blockCount == 0 ? Long.MAX_VALUE : buffer.getLong(entry(0) + ENTRY_FIRST);
+    }
+
+    // Time of the last reading in milliseconds, Long.MIN_VALUE when empty
+    public long getLastTimestamp() {
+        return blockCount == 0 ? Long.MIN_VALUE : buffer.getLong(entry(blockCount - 1) + ENTRY_LAST);
+    }
+
+    /**
+     * Copy the readings in a time range, oldest first.
+     *
+     * @param from          Start of the range in milliseconds, inclusive.
+     * @param to            End of the range in milliseconds, exclusive.
+     * @param timestamps    Receives the time of each reading in milliseconds.
+     * @param temperature   Receives the temperature of each reading.
+     * @param humidity      Receives the humidity of each reading.
+     * @param pressure      Receives the pressure of each reading.
+     * @param gasResistance Receives the gas resistance of each reading.
+     * @return Number of readings copied, limited by the length of the arrays.
+     * @throws IOException if a block is corrupt.
+     */
+    public int read(final long from, final long to, @NonNull final long[] timestamps, @NonNull final float[] temperature,
+                    @NonNull final float[] humidity, @NonNull final float[] pressure, @NonNull final float[] gasResistance) throws IOException {
+        return scan(RollupStore.CHANNEL_TEMPERATURE, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, from, to,
+            timestamps, temperature, humidity, pressure, gasResistance);
+    }
+
+    /**
+     * Copy the readings in a time range whose channel value lies within bounds, oldest first.
+     * Blocks whose summary lies outside the bounds are skipped without decoding.
+     *
+     * @param channel       Channel the bounds apply to.
+     * @param min           Lowest accepted value, inclusive.
+     * @param max           Highest accepted value, inclusive.
+     * @param from          Start of the range in milliseconds, inclusive.
+     * @param to            End of the range in milliseconds, exclusive.
+     * @param timestamps    Receives the time of each reading in milliseconds.
+     * @param temperature   Receives the temperature of each reading.
+     * @param humidity      Receives the humidity of each reading.
+     * @param pressure      Receives the pressure of each reading.
+     * @param gasResistance Receives the gas resistance of each reading.
+     * @return Number of readings copied, limited by the length of the arrays.
+     * @throws IOException if a block is corrupt.
+     */
+    public synchronized int scan(@RollupStore.Channel final int channel, final float min, final float max, final long from, final long to,
+                                 @NonNull final long[] timestamps, @NonNull final float[] temperature, @NonNull final float[] humidity,
+                                 @NonNull final float[] pressure, @NonNull final float[] gasResistance) throws IOException {
+        final int limit = Math.min(Math.min(timestamps.length, temperature.length), Math.min(Math.min(humidity.length, pressure.length), gasResistance.length));
+
+        int written = 0;
+        for (int block = firstBlock(from); block < blockCount && written < limit; block++) {
+            final int entry = entry(block);
+            if (buffer.getLong(entry + ENTRY_FIRST) >= to) {
+                break;
+            }
+            if (getSummaryMax(entry, channel) < min || getSummaryMin(entry, channel) > max) {
+                continue;
+            }
+
+            final ReadingDecoder decoder = decoder(entry);
+            while (written < limit && decoder.read(data)) {
+                final long timestamp = decoder.getTimestamp();
+                if (timestamp >= to) {
+                    return written;
+                }
+                final float value = value(data, channel);
+                if (timestamp < from || value < min || value > max) {
+                    continue;
+                }
+                timestamps[written] = timestamp;
+                temperature[written] = data.temperature;
+                humidity[written] = data.humidity;
+                pressure[written] = data.pressure;
+                gasResistance[written] = data.gasResistance;
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Aggregate a channel over a time range. Blocks wholly inside the range are answered from their summary.
+     *
+     * @param channel   Channel to aggregate.
+     * @param from      Start of the range in milliseconds, inclusive.
+     * @param to        End of the range in milliseconds, exclusive.
+     * @param aggregate Holder to fill, reused between calls.
+     * @return The given holder, with a count of 0 if no readings matched.
+     * @throws IOException if a block is corrupt.
+     */
+    @NonNull
+    public synchronized RollupStore.Aggregate query(@RollupStore.Channel final int channel, final long from, final long to,
+                                                    @NonNull final RollupStore.Aggregate aggregate) throws IOException {
+        aggregate.clear();
+
+        for (int block = firstBlock(from); block < blockCount; block++) {
+            final int entry = entry(block);
+            final long first = buffer.getLong(entry + ENTRY_FIRST);
+            if (first >= to) {
+                break;
+            }
+
+            if (first >= from && buffer.getLong(entry + ENTRY_LAST) < to) {
+                final int summary = entry + ENTRY_CHANNELS + channel * CHANNEL_SUMMARY_LENGTH;
+                add(aggregate, getSummaryMin(entry, channel), getSummaryMax(entry, channel),
+                    buffer.getLong(summary + 8) / (double) SCALES[channel], buffer.getInt(entry + ENTRY_COUNT));
+                continue;
+            }
+
+            final ReadingDecoder decoder = decoder(entry);
+            while (decoder.read(data)) {
+                final long timestamp = decoder.getTimestamp();
+                if (timestamp >= to) {
+                    break;
+                }
+                if (timestamp >= from) {
+                    final float value = value(data, channel);
+                    add(aggregate, value, value, value, 1);
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // Index of the first block that may hold readings at or after the given time
+    private int firstBlock(final long from) {
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (buffer.getLong(entry(middle) + ENTRY_LAST) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int entry(final int block) {
+        return footerOffset + block * RecordingWriter.INDEX_ENTRY_LENGTH;
+    }
+
+    private float getSummaryMin(final int entry, final int channel) {
+        return buffer.getInt(entry + ENTRY_CHANNELS + channel * CHANNEL_SUMMARY_LENGTH) / SCALES[channel];
+    }
+
+    private float getSummaryMax(final int entry, final int channel) {
+        return buffer.getInt(entry + ENTRY_CHANNELS + channel * CHANNEL_SUMMARY_LENGTH + 4) / SCALES[channel];
+    }
+
+    @NonNull
+    private ReadingDecoder decoder(final int entry) {
+        final ByteBuffer block = buffer.duplicate();
+        final int offset = (int) buffer.getLong(entry + ENTRY_OFFSET);
+        block.limit(offset + buffer.getInt(entry + ENTRY_LENGTH));
+        block.position(offset);
+        return new ReadingDecoder(new ByteBufferInputStream(block));
+    }
+
+    private static float value(@NonNull final Data data, final int channel) {
+        switch (channel) {
+            case RollupStore.CHANNEL_TEMPERATURE:
+                return data.temperature;
+            case RollupStore.CHANNEL_HUMIDITY:
+                return data.humidity;
+            case RollupStore.CHANNEL_PRESSURE:
+                return data.pressure;
+            default:
+                return data.gasResistance;
+        }
+    }
+
+    private static void add(@NonNull final RollupStore.Aggregate aggregate, final float min, final float max, final double sum, final long count) {
+        if (aggregate.count == 0) {
+            aggregate.min = min;
+            aggregate.max = max;
+        } else {
+            aggregate.min = Math.min(aggregate.min, min);
+            aggregate.max = Math.max(aggregate.max, max);
+        }
+        aggregate.sum += sum;
+        aggregate.count += count;
+    }
+
+    /**
+     * Stream over the remaining bytes of a buffer, to decode a mapped block in place.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(@NonNull final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull final byte[] b, final int off, final int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
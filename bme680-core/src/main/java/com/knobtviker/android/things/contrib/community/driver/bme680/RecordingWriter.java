@@ -0,0 +1,205 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes {@link Data} readings to a block indexed recording file.
+ * <p>
+ * Readings are grouped into blocks of a fixed number of readings, each encoded as a {@link ReadingEncoder}
+ * block. For every block the footer keeps its file offset, its time span and the minimum, maximum and sum of
+ * every channel, so {@link RecordingFile} can find the blocks of a time range by binary search and answer
+ * aggregates of whole blocks without decoding them. The footer is written on {@link #close()}.
+ * <p>
+ * File layout: header magic and version, blocks, footer entries of {@link #INDEX_ENTRY_LENGTH} bytes,
+ * footer offset, block count and trailer magic. Integers are big endian.
+ *
+ * @see RecordingFile
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RecordingWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x42363830;
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 4 + 1;
+    // Offset, length, count, first and last timestamp, then min, max and sum per channel
+    static final int INDEX_ENTRY_LENGTH = 8 + 4 + 4 + 8 + 8 + ReadingEncoder.CHANNELS * (4 + 4 + 8);
+    // Footer offset, block count and magic
+    static final int TRAILER_LENGTH = 8 + 4 + 4;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final CountingOutputStream out;
+    private final ReadingEncoder encoder;
+    private final int blockSize;
+    private final int[] values = new int[ReadingEncoder.CHANNELS];
+
+    // Index entries of written blocks, grown as needed
+    private ByteBuffer index;
+    private int blockCount = 0;
+
+    // Summary of the current block
+    private int count = 0;
+    private long blockOffset;
+    private long firstTimestamp;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private final int[] minimums = new int[ReadingEncoder.CHANNELS];
+    private final int[] maximums = new int[ReadingEncoder.CHANNELS];
+    private final long[] sums = new long[ReadingEncoder.CHANNELS];
+
+    public RecordingWriter(@NonNull final File file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a new recording, replacing any existing file.
+     *
+     * @param file      File to write.
+     * @param blockSize Number of readings per block.
+     * @throws IOException if the file could not be created.
+     */
+    public RecordingWriter(@NonNull final File file, final int blockSize) throws IOException {
+        if (blockSize < 1 || blockSize > ReadingEncoder.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size should be between 1 and " + ReadingEncoder.MAX_BLOCK_SIZE);
+        }
+        this.blockSize = blockSize;
+        this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.encoder = new ReadingEncoder(out, blockSize);
+        this.index = ByteBuffer.allocate(64 * INDEX_ENTRY_LENGTH);
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).put(VERSION);
+        out.write(header.array(), 0, HEADER_LENGTH);
+        blockOffset = out.count;
+    }
+
+    /**
+     * Append a reading.
+     *
+     * @param timestamp Time of the reading in milliseconds, not older than the previous reading.
+     * @param data      Reading to append.
+     * @throws IOException if a full block could not be written.
+     */
+    public void write(final long timestamp, @NonNull final Data data) throws IOException {
+        write(timestamp, ReadingEncoder.toTemperature(data.temperature), ReadingEncoder.toHumidity(data.humidity),
+            ReadingEncoder.toPressure(data.pressure), data.gasResistance);
+    }
+
+    /**
+     * Append a reading of fixed-point values.
+     *
+     * @param timestamp     Time of the reading in milliseconds, not older than the previous reading.
+     * @param temperature   Temperature in centi-degrees Celsius.
+     * @param humidity      Humidity in milli-percent.
+     * @param pressure      Pressure in Pascal.
+     * @param gasResistance Gas resistance in Ohms.
+     * @throws IOException if a full block could not be written.
+     */
+    public void write(final long timestamp, final int temperature, final int humidity, final int pressure, final int gasResistance) throws IOException {
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("Readings should be written in time order");
+        }
+        values[0] = temperature;
+        values[1] = humidity;
+        values[2] = pressure;
+        values[3] = gasResistance;
+
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            for (int channel = 0; channel < ReadingEncoder.CHANNELS; channel++) {
+                minimums[channel] = values[channel];
+                maximums[channel] = values[channel];
+                sums[channel] = 0;
+            }
+        }
+        for (int channel = 0; channel < ReadingEncoder.CHANNELS; channel++) {
+            minimums[channel] = Math.min(minimums[channel], values[channel]);
+            maximums[channel] = Math.max(maximums[channel], values[channel]);
+            sums[channel] += values[channel];
+        }
+        lastTimestamp = timestamp;
+        count++;
+
+        // The encoder writes the block itself once it holds blockSize readings
+        encoder.write(timestamp, temperature, humidity, pressure, gasResistance);
+        if (count == blockSize) {
+            indexBlock();
+        }
+    }
+
+    // Number of blocks written so far
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    // Write the pending readings as a partial block, then the footer, and close the file
+    @Override
+    public void close() throws IOException {
+        try {
+            if (count > 0) {
+                encoder.flush();
+                indexBlock();
+            }
+
+            final long footerOffset = out.count;
+            out.write(index.array(), 0, index.position());
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+            trailer.putLong(footerOffset).putInt(blockCount).putInt(MAGIC);
+            out.write(trailer.array(), 0, TRAILER_LENGTH);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void indexBlock() {
+        if (index.remaining() < INDEX_ENTRY_LENGTH) {
+            final ByteBuffer grown = ByteBuffer.allocate(index.capacity() * 2);
+            index.flip();
+            grown.put(index);
+            index = grown;
+        }
+
+        index.putLong(blockOffset)
+            .putInt((int) (out.count - blockOffset))
+            .putInt(count)
+            .putLong(firstTimestamp)
+            .putLong(lastTimestamp);
+        for (int channel = 0; channel < ReadingEncoder.CHANNELS; channel++) {
+            index.putInt(minimums[channel]).putInt(maximums[channel]).putLong(sums[channel]);
+        }
+
+        blockCount++;
+        blockOffset = out.count;
+        count = 0;
+    }
+
+    /**
+     * Stream counting the bytes written through it, to record block offsets.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(@NonNull final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
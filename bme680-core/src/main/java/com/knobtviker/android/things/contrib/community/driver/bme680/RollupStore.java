@@ -0,0 +1,292 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.IntDef;
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Recent history of {@link Data} readings at second, minute and hour resolution.
+ * <p>
+ * Every level is a fixed-size ring of buckets stored in primitive arrays, holding min, max, sum and count
+ * per channel. Each reading is folded into the current bucket of every level, so memory stays constant
+ * however long the store runs. Queries fill caller-provided holders and arrays and do not allocate.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RollupStore {
+
+    /**
+     * Resolution level.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({LEVEL_SECOND, LEVEL_MINUTE, LEVEL_HOUR})
+    public @interface Level {
+    }
+
+    public static final int LEVEL_SECOND = 0;
+    public static final int LEVEL_MINUTE = 1;
+    public static final int LEVEL_HOUR = 2;
+
+    /**
+     * Reading channel.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({CHANNEL_TEMPERATURE, CHANNEL_HUMIDITY, CHANNEL_PRESSURE, CHANNEL_GAS_RESISTANCE})
+    public @interface Channel {
+    }
+
+    public static final int CHANNEL_TEMPERATURE = 0;
+    public static final int CHANNEL_HUMIDITY = 1;
+    public static final int CHANNEL_PRESSURE = 2;
+    public static final int CHANNEL_GAS_RESISTANCE = 3;
+
+    private static final int CHANNELS = 4;
+    private static final int LEVELS = 3;
+    private static final long[] RESOLUTIONS = {1000L, 60 * 1000L, 60 * 60 * 1000L};
+
+    // One hour of seconds, one day of minutes and one week of hours
+    public static final int DEFAULT_SECONDS = 3600;
+    public static final int DEFAULT_MINUTES = 1440;
+    public static final int DEFAULT_HOURS = 168;
+
+    private final int[] capacities = new int[LEVELS];
+    // Bucket number held by each slot, -1 when empty
+    private final long[][] buckets = new long[LEVELS][];
+    // Newest bucket number per level, -1 when empty
+    private final long[] newest = {-1, -1, -1};
+    // Per slot and channel, indexed by slot * CHANNELS + channel
+    private final float[][] minimums = new float[LEVELS][];
+    private final float[][] maximums = new float[LEVELS][];
+    private final double[][] sums = new double[LEVELS][];
+    private final int[][] counts = new int[LEVELS][];
+
+    public RollupStore() {
+        this(DEFAULT_SECONDS, DEFAULT_MINUTES, DEFAULT_HOURS);
+    }
+
+    /**
+     * Create a new rollup store.
+     *
+     * @param seconds Number of one second buckets to keep.
+     * @param minutes Number of one minute buckets to keep.
+     * @param hours   Number of one hour buckets to keep.
+     */
+    public RollupStore(final int seconds, final int minutes, final int hours) {
+        if (seconds < 1 || minutes < 1 || hours < 1) {
+            throw new IllegalArgumentException("Every level should keep at least one bucket");
+        }
+        capacities[LEVEL_SECOND] = seconds;
+        capacities[LEVEL_MINUTE] = minutes;
+        capacities[LEVEL_HOUR] = hours;
+
+        for (int level = 0; level < LEVELS; level++) {
+            final int capacity = capacities[level];
+            buckets[level] = new long[capacity];
+            minimums[level] = new float[capacity * CHANNELS];
+            maximums[level] = new float[capacity * CHANNELS];
+            sums[level] = new double[capacity * CHANNELS];
+            counts[level] = new int[capacity * CHANNELS];
+            for (int slot = 0; slot < capacity; slot++) {
+                buckets[level][slot] = -1;
+            }
+        }
+    }
+
+    /**
+     * Fold a reading into every level.
+     *
+     * @param timestamp Time of the reading in milliseconds, not negative.
+     * @param data      Reading to add.
+     */
+    public synchronized void add(final long timestamp, @NonNull final Data data) {
+        for (int level = 0; level < LEVELS; level++) {
+            final int slot = prepare(level, timestamp / RESOLUTIONS[level]);
+            if (slot < 0) {
+                continue;
+            }
+            fold(level, slot, CHANNEL_TEMPERATURE, data.temperature);
+            fold(level, slot, CHANNEL_HUMIDITY, data.humidity);
+            fold(level, slot, CHANNEL_PRESSURE, data.pressure);
+            if (data.gasResistance > 0) {
+                fold(level, slot, CHANNEL_GAS_RESISTANCE, data.gasResistance);
+            }
+        }
+    }
+
+    /**
+     * Aggregate a channel over a time range.
+     *
+     * @param level     Resolution level to read.
+     * @param channel   Channel to aggregate.
+     * @param from      Start of the range in milliseconds, inclusive.
+     * @param to        End of the range in milliseconds, exclusive.
+     * @param aggregate Holder to fill, reused between calls.
+     * @return The given holder, with a count of 0 if no buckets matched.
+     */
+    @NonNull
+    public synchronized Aggregate query(@Level final int level, @Channel final int channel, final long from, final long to, @NonNull final Aggregate aggregate) {
+        aggregate.clear();
+
+        final long resolution = RESOLUTIONS[level];
+        final long[] bucketIds = buckets[level];
+        final int capacity = capacities[level];
+        final long first = Math.max(from / resolution, newest[level] - capacity + 1);
+        final long last = Math.min(Math.floorDiv(to - 1, resolution), newest[level]);
+
+        for (long bucket = Math.max(first, 0); bucket <= last; bucket++) {
+            final int slot = (int) (bucket % capacity);
+            if (bucketIds[slot] != bucket) {
+                continue;
+            }
+            final int index = slot * CHANNELS + channel;
+            final int count = counts[level][index];
+            if (count == 0) {
+                continue;
+            }
+            if (aggregate.count == 0) {
+                aggregate.min = minimums[level][index];
+                aggregate.max = maximums[level][index];
+            } else {
+                aggregate.min = Math.min(aggregate.min, minimums[level][index]);
+                aggregate.max = Math.max(aggregate.max, maximums[level][index]);
+            }
+            aggregate.sum += sums[level][index];
+            aggregate.count += count;
+        }
+        return aggregate;
+    }
+
+    /**
+     * Copy the buckets of a channel in a time range, oldest first.
+     *
+     * @param level      Resolution level to read.
+     * @param channel    Channel to copy.
+     * @param from       Start of the range in milliseconds, inclusive.
+     * @param to         End of the range in milliseconds, exclusive.
+     * @param timestamps Receives the start time of each bucket in milliseconds.
+     * @param min        Receives the minimum of each bucket.
+     * @param max        Receives the maximum of each bucket.
+     * @param mean       Receives the mean of each bucket.
+     * @param count      Receives the number of readings in each bucket.
+     * @return Number of buckets copied, limited by the length of the arrays.
+     */
+    public synchronized int read(@Level final int level, @Channel final int channel, final long from, final long to,
+                                 @NonNull final long[] timestamps, @NonNull final float[] min, @NonNull final float[] max,
+                                 @NonNull final float[] mean, @NonNull final int[] count) {
+        final int limit = Math.min(Math.min(timestamps.length, min.length), Math.min(Math.min(max.length, mean.length), count.length));
+        final long resolution = RESOLUTIONS[level];
+        final long[] bucketIds = buckets[level];
+        final int capacity = capacities[level];
+        final long first = Math.max(from / resolution, newest[level] - capacity + 1);
+        final long last = Math.min(Math.floorDiv(to - 1, resolution), newest[level]);
+
+        int written = 0;
+        for (long bucket = Math.max(first, 0); bucket <= last && written < limit; bucket++) {
+            final int slot = (int) (bucket % capacity);
+            if (bucketIds[slot] != bucket) {
+                continue;
+            }
+            final int index = slot * CHANNELS + channel;
+            final int n = counts[level][index];
+            if (n == 0) {
+                continue;
+            }
+            timestamps[written] = bucket * resolution;
+            min[written] = minimums[level][index];
+            max[written] = maximums[level][index];
+            mean[written] = (float) (sums[level][index] / n);
+            count[written] = n;
+            written++;
+        }
+        return written;
+    }
+
+    // Number of buckets kept at the given level
+    public int getCapacity(@Level final int level) {
+        return capacities[level];
+    }
+
+    // Duration of one bucket at the given level in milliseconds
+    public static long getResolution(@Level final int level) {
+        return RESOLUTIONS[level];
+    }
+
+    public synchronized void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < capacities[level]; slot++) {
+                buckets[level][slot] = -1;
+            }
+            newest[level] = -1;
+        }
+    }
+
+    // Claim the slot of a bucket, resetting it if it held an older bucket
+    // Returns -1 if the bucket has already rolled out of the ring.
+    private int prepare(final int level, final long bucket) {
+        if (bucket <= newest[level] - capacities[level]) {
+            return -1;
+        }
+        final int slot = (int) (bucket % capacities[level]);
+        if (buckets[level][slot] != bucket) {
+            buckets[level][slot] = bucket;
+            newest[level] = Math.max(newest[level], bucket);
+            final int start = slot * CHANNELS;
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                counts[level][start + channel] = 0;
+                sums[level][start + channel] = 0.0;
+            }
+        }
+        return slot;
+    }
+
+    private void fold(final int level, final int slot, final int channel, final float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        final int index = slot * CHANNELS + channel;
+        if (counts[level][index] == 0) {
+            minimums[level][index] = value;
+            maximums[level][index] = value;
+        } else {
+            minimums[level][index] = Math.min(minimums[level][index], value);
+            maximums[level][index] = Math.max(maximums[level][index], value);
+        }
+        sums[level][index] += value;
+        counts[level][index]++;
+    }
+
+    /**
+     * Aggregate of a channel over a range of buckets.
+     */
+    public static class Aggregate {
+        float min;
+        float max;
+        double sum;
+        long count;
+
+        void clear() {
+            min = Float.NaN;
+            max = Float.NaN;
+            sum = 0.0;
+            count = 0;
+        }
+
+        public float getMin() {
+            return min;
+        }
+
+        public float getMax() {
+            return max;
+        }
+
+        // Mean of all readings, NaN when empty
+        public float getMean() {
+            return count == 0 ? Float.NaN : (float) (sum / count);
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
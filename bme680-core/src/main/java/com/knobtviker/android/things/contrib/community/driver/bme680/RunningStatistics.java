@@ -0,0 +1,96 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Count, mean, variance, minimum and maximum of a stream of values.
+ * Uses Welford's algorithm so each update costs O(1) and no values are kept.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RunningStatistics {
+
+    private long count = 0;
+    private double mean = 0.0;
+    // Sum of squared differences from the mean
+    private double m2 = 0.0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public void add(final double value) {
+        count++;
+        final double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        if (count == 1) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+
+    // Fold another summary into this one using the parallel variant of Welford's algorithm
+    public void merge(@NonNull final RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            set(other);
+            return;
+        }
+
+        final long total = count + other.count;
+        final double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * count * other.count / total;
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void set(@NonNull final RunningStatistics other) {
+        count = other.count;
+        mean = other.mean;
+        m2 = other.m2;
+        min = other.min;
+        max = other.max;
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Mean of all values, NaN when empty
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    // Sample variance, NaN with fewer than 2 values
+    public double getVariance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    // Smallest value, NaN when empty
+    public double getMin() {
+        return min;
+    }
+
+    // Largest value, NaN when empty
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,112 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Fixed-size first in, first out queue of timestamped samples of one or more values.
+ * <p>
+ * Samples are copied into preallocated primitive arrays, so queueing and draining never allocate. When the
+ * queue is full the oldest sample is dropped to make room, as a hardware sensor FIFO would. Not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SampleFifo {
+
+    private final int capacity;
+    private final int width;
+    private final long[] timestamps;
+    private final float[] values;
+
+    private int head = 0;
+    private int size = 0;
+    private long droppedCount = 0;
+
+    /**
+     * Create a new queue.
+     *
+     * @param capacity Number of samples held.
+     * @param width    Number of values per sample.
+     */
+    public SampleFifo(final int capacity, final int width) {
+        if (capacity < 1 || width < 1) {
+            throw new IllegalArgumentException("Capacity and width should be positive");
+        }
+        this.capacity = capacity;
+        this.width = width;
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * width];
+    }
+
+    /**
+     * Queue a sample, dropping the oldest one if full.
+     *
+     * @param timestamp Time of the sample.
+     * @param sample    Values of the sample, at least the queue's width.
+     * @return false if the oldest sample was dropped.
+     */
+    public boolean offer(final long timestamp, @NonNull final float[] sample) {
+        final boolean dropped = size == capacity;
+        if (dropped) {
+            head = (head + 1) % capacity;
+            size--;
+            droppedCount++;
+        }
+        final int slot = (head + size) % capacity;
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, 0, values, slot * width, width);
+        size++;
+        return !dropped;
+    }
+
+    /**
+     * Remove the oldest sample.
+     *
+     * @param sample Receives the values of the sample, at least the queue's width.
+     * @return Time of the sample.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public long poll(@NonNull final float[] sample) {
+        if (size == 0) {
+            throw new IllegalStateException("FIFO is empty");
+        }
+        final long timestamp = timestamps[head];
+        System.arraycopy(values, head * width, sample, 0, width);
+        head = (head + 1) % capacity;
+        size--;
+        return timestamp;
+    }
+
+    // Time of the oldest sample, Long.MAX_VALUE when empty
+    public long getOldestTimestamp() {
+        return size == 0 ? Long.MAX_VALUE : timestamps[head];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    // Number of samples dropped because the queue was full
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,102 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * First-order thermal model of the die warming from the gas heater.
+ * <p>
+ * Every forced conversion with gas enabled heats the hot plate to the heater temperature for the heater duration.
+ * Averaged over the sampling interval this is a duty cycle, and the heat reaching the temperature sensor is taken
+ * to be proportional to the duty cycle and to how far the heater is above ambient. The die then settles towards
+ * the matching temperature rise with the given time constant, so the estimate follows changes of sampling rate
+ * and heater profile as the die does. The estimated rise is subtracted from the measured temperature, and the
+ * relative humidity measured at the warmer die is moved back to ambient temperature.
+ * <p>
+ * Not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SelfHeatingModel {
+
+    // Temperature rise per degree of heater excess at full duty, about 0.7 degrees at 320 degrees every 3 seconds for 150 ms
+    public static final float DEFAULT_GAIN = 0.05f;
+    // Time constant of the die and package in milliseconds
+    public static final long DEFAULT_TIME_CONSTANT_MILLISECONDS = 2 * 60 * 1000L;
+
+    // Magnus formula coefficients over water, as used by Data
+    private static final double MAGNUS_A = 17.62;
+    private static final double MAGNUS_B = 243.12;
+
+    private final float gain;
+    private final long timeConstant;
+
+    private boolean started = false;
+    private long lastTimestamp;
+    private double rise;
+
+    public SelfHeatingModel() {
+        this(DEFAULT_GAIN, DEFAULT_TIME_CONSTANT_MILLISECONDS);
+    }
+
+    /**
+     * Create a new self-heating model.
+     *
+     * @param gain         Steady temperature rise per degree celsius of heater temperature above ambient, at a duty cycle of 1.
+     * @param timeConstant Time constant of the temperature rise in milliseconds.
+     */
+    public SelfHeatingModel(final float gain, final long timeConstant) {
+        if (!(gain >= 0) || timeConstant <= 0) {
+            throw new IllegalArgumentException("Gain should not be negative and time constant should be positive");
+        }
+        this.gain = gain;
+        this.timeConstant = timeConstant;
+    }
+
+    /**
+     * Account for the heating of a conversion and correct its temperature.
+     *
+     * @param timestamp         Time of the conversion in milliseconds, from a monotonic clock.
+     * @param temperature       Measured temperature in degree celsius.
+     * @param heaterTemperature Heater target temperature in degree celsius.
+     * @param heaterDuration    Heating time of the conversion in milliseconds, 0 if gas was not measured.
+     * @return Temperature in degree celsius without the estimated self-heating.
+     */
+    public float update(final long timestamp, final float temperature, final int heaterTemperature, final int heaterDuration) {
+        if (!started) {
+            started = true;
+            lastTimestamp = timestamp;
+            return temperature;
+        }
+
+        final long interval = timestamp - lastTimestamp;
+        if (interval > 0) {
+            lastTimestamp = timestamp;
+            final double duty = Math.min((double) Math.max(heaterDuration, 0) / interval, 1.0);
+            final double ambient = temperature - rise;
+            final double target = gain * duty * Math.max(heaterTemperature - ambient, 0.0);
+            rise = target + (rise - target) * Math.exp(-(double) interval / timeConstant);
+        }
+        return (float) (temperature - rise);
+    }
+
+    /**
+     * Move a relative humidity measured at the heated die to the corrected temperature, keeping the water vapour pressure.
+     *
+     * @param humidity    Measured relative humidity in percent.
+     * @param temperature Measured temperature in degree celsius.
+     * @param corrected   Corrected temperature in degree celsius.
+     * @return Relative humidity in percent at the corrected temperature, at most 100.
+     */
+    public static float correctHumidity(final float humidity, final float temperature, final float corrected) {
+        final double ratio = Math.exp(MAGNUS_A * temperature / (MAGNUS_B + temperature) - MAGNUS_A * corrected / (MAGNUS_B + corrected));
+        return (float) Math.min(humidity * ratio, 100.0);
+    }
+
+    // Estimated temperature rise in degree celsius after the last conversion
+    public float getRise() {
+        return (float) rise;
+    }
+
+    // Forget the heating history, eg. after the sensor was powered down
+    public void reset() {
+        started = false;
+        rise = 0.0;
+    }
+}
@@ -0,0 +1,272 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Readings of one sensor in time order, stored in fixed-size chunks of primitive columns.
+ * <p>
+ * A single thread appends readings. Each reading is written to the columns of the newest chunk before the
+ * chunk's size is published, so any number of threads can query without locks and only ever see complete
+ * readings. Queries find the first chunk by binary search over the chunk start times and then the first
+ * reading by binary search within the chunk. Chunks whose newest reading is older than the retention are
+ * evicted whole, so memory is bounded by the retention and the sample rate.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TimeSeries {
+
+    private static final int CHANNELS = 4;
+
+    private final int chunkSize;
+    private final long retention;
+    private final AtomicReference<Chunk[]> chunks = new AtomicReference<>(new Chunk[0]);
+
+    // Written by the appending thread only
+    private Chunk current;
+    private long newest = Long.MIN_VALUE;
+
+    /**
+     * Create a new time series.
+     *
+     * @param chunkSize Number of readings per chunk.
+     * @param retention Age in milliseconds after which readings are evicted, relative to the newest reading.
+     */
+    public TimeSeries(final int chunkSize, final long retention) {
+        if (chunkSize < 1 || retention < 1) {
+            throw new IllegalArgumentException("Chunk size and retention should be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.retention = retention;
+    }
+
+    /**
+     * Append a reading. Must only be called from one thread at a time.
+     *
+     * @param timestamp Time of the reading in milliseconds, not older than the previous reading.
+     * @param data      Reading to append.
+     */
+    public void append(final long timestamp, @NonNull final Data data) {
+        append(timestamp, data.temperature, data.humidity, data.pressure, data.gasResistance);
+    }
+
+    /**
+     * Append a reading. Must only be called from one thread at a time.
+     *
+     * @param timestamp     Time of the reading in milliseconds, not older than the previous reading.
+     * @param temperature   Temperature in degree celsius.
+     * @param humidity      Humidity in % relative humidity.
+     * @param pressure      Pressure in hPa.
+     * @param gasResistance Gas resistance in Ohms.
+     */
+    public void append(final long timestamp, final float temperature, final float humidity, final float pressure, final float gasResistance) {
+        if (timestamp < newest) {
+            throw new IllegalArgumentException("Readings should be appended in time order");
+        }
+
+        if (current == null || current.size == chunkSize) {
+            current = new Chunk(chunkSize);
+            Chunk[] previous;
+            Chunk[] next;
+            do {
+                previous = chunks.get();
+                next = Arrays.copyOf(previous, previous.length + 1);
+                next[previous.length] = current;
+            } while (!chunks.compareAndSet(previous, next));
+        }
+
+        final Chunk chunk = current;
+        final int index = chunk.size;
+        chunk.timestamps[index] = timestamp;
+        chunk.values[RollupStore.CHANNEL_TEMPERATURE][index] = temperature;
+        chunk.values[RollupStore.CHANNEL_HUMIDITY][index] = humidity;
+        chunk.values[RollupStore.CHANNEL_PRESSURE][index] = pressure;
+        chunk.values[RollupStore.CHANNEL_GAS_RESISTANCE][index] = gasResistance;
+        // Publishes the columns written above to readers
+        chunk.size = index + 1;
+        newest = timestamp;
+
+        if (index == 0) {
+            evict(timestamp - retention);
+        }
+    }
+
+    /**
+     * Evict full chunks whose readings are all older than the given time. Safe to call from any thread.
+     *
+     * @param before Time in milliseconds, readings before it may be evicted.
+     * @return Number of chunks evicted.
+     */
+    public int evict(final long before) {
+        Chunk[] previous;
+        Chunk[] next;
+        int expired;
+        do {
+            previous = chunks.get();
+            expired = 0;
+            // The newest chunk is never evicted, the writer may still be filling it
+            while (expired < previous.length - 1 && previous[expired].newest() < before) {
+                expired++;
+            }
+            if (expired == 0) {
+                return 0;
+            }
+            next = Arrays.copyOfRange(previous, expired, previous.length);
+        } while (!chunks.compareAndSet(previous, next));
+        return expired;
+    }
+
+    /**
+     * Copy the readings in a time range, oldest first.
+     *
+     * @param from          Start of the range in milliseconds, inclusive.
+     * @param to            End of the range in milliseconds, exclusive.
+     * @param timestamps    Receives the time of each reading in milliseconds.
+     * @param temperature   Receives the temperature of each reading.
+     * @param humidity      Receives the humidity of each reading.
+     * @param pressure      Receives the pressure of each reading.
+     * @param gasResistance Receives the gas resistance of each reading.
+     * @return Number of readings copied, limited by the length of the arrays.
+     */
+    public int read(final long from, final long to, @NonNull final long[] timestamps, @NonNull final float[] temperature,
+                    @NonNull final float[] humidity, @NonNull final float[] pressure, @NonNull final float[] gasResistance) {
+        final int limit = Math.min(Math.min(timestamps.length, temperature.length), Math.min(Math.min(humidity.length, pressure.length), gasResistance.length));
+        final Chunk[] snapshot = chunks.get();
+
+        int written = 0;
+        for (int c = firstChunk(snapshot, from); c < snapshot.length && written < limit; c++) {
+            final Chunk chunk = snapshot[c];
+            final int size = chunk.size;
+            for (int i = chunk.search(from, size); i < size && written < limit; i++) {
+                final long timestamp = chunk.timestamps[i];
+                if (timestamp >= to) {
+                    return written;
+                }
+                timestamps[written] = timestamp;
+                temperature[written] = chunk.values[RollupStore.CHANNEL_TEMPERATURE][i];
+                humidity[written] = chunk.values[RollupStore.CHANNEL_HUMIDITY][i];
+                pressure[written] = chunk.values[RollupStore.CHANNEL_PRESSURE][i];
+                gasResistance[written] = chunk.values[RollupStore.CHANNEL_GAS_RESISTANCE][i];
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Aggregate a channel over a time range.
+     *
+     * @param channel   Channel to aggregate.
+     * @param from      Start of the range in milliseconds, inclusive.
+     * @param to        End of the range in milliseconds, exclusive.
+     * @param aggregate Holder to fill, reused between calls.
+     * @return The given holder, with a count of 0 if no readings matched.
+     */
+    @NonNull
+    public RollupStore.Aggregate query(@RollupStore.Channel final int channel, final long from, final long to, @NonNull final RollupStore.Aggregate aggregate) {
+        aggregate.clear();
+        final Chunk[] snapshot = chunks.get();
+
+        for (int c = firstChunk(snapshot, from); c < snapshot.length; c++) {
+            final Chunk chunk = snapshot[c];
+            final int size = chunk.size;
+            final float[] values = chunk.values[channel];
+            for (int i = chunk.search(from, size); i < size; i++) {
+                if (chunk.timestamps[i] >= to) {
+                    return aggregate;
+                }
+                final float value = values[i];
+                if (Float.isNaN(value)) {
+                    continue;
+                }
+                if (aggregate.count == 0) {
+                    aggregate.min = value;
+                    aggregate.max = value;
+                } else {
+                    aggregate.min = Math.min(aggregate.min, value);
+                    aggregate.max = Math.max(aggregate.max, value);
+                }
+                aggregate.sum += value;
+                aggregate.count++;
+            }
+        }
+        return aggregate;
+    }
+
+    // Number of readings kept
+    public int size() {
+        final Chunk[] snapshot = chunks.get();
+        int size = 0;
+        for (final Chunk chunk : snapshot) {
+            size += chunk.size;
+        }
+        return size;
+    }
+
+    // Number of chunks kept
+    public int getChunkCount() {
+        return chunks.get().length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    // Index of the last chunk starting before the given time, or 0
+    // A chunk starting exactly at the time may follow readings at that same time in the chunk before it.
+    private static int firstChunk(@NonNull final Chunk[] snapshot, final long from) {
+        int low = 0;
+        int high = snapshot.length - 1;
+        int found = 0;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (snapshot[middle].size > 0 && snapshot[middle].timestamps[0] < from) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Column chunk, filled by the appending thread and read by any thread up to its published size.
+     */
+    private static final class Chunk {
+        final long[] timestamps;
+        final float[][] values;
+        volatile int size = 0;
+
+        Chunk(final int capacity) {
+            timestamps = new long[capacity];
+            values = new float[CHANNELS][capacity];
+        }
+
+        // Time of the newest published reading
+        long newest() {
+            final int count = size;
+            return count == 0 ? Long.MIN_VALUE : timestamps[count - 1];
+        }
+
+        // Index of the first reading at or after the given time among the first size readings
+        int search(final long from, final int size) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (timestamps[middle] < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
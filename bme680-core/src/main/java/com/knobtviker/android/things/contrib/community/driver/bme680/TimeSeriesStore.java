@@ -0,0 +1,102 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.Nullable;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory {@link TimeSeries} of many sensors, keyed by name.
+ * <p>
+ * Each sensor gets its own series with a single writer, typically the thread sampling that sensor, so
+ * writers never contend. Series are created on first use and can be looked up and queried from any thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TimeSeriesStore {
+
+    // Five minutes of readings at one second
+    public static final int DEFAULT_CHUNK_SIZE = 300;
+    // One day
+    public static final long DEFAULT_RETENTION_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+    private final int chunkSize;
+    private final long retention;
+    private final ConcurrentMap<String, TimeSeries> series = new ConcurrentHashMap<>();
+
+    public TimeSeriesStore() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_RETENTION_MILLISECONDS);
+    }
+
+    /**
+     * Create a new store.
+     *
+     * @param chunkSize Number of readings per chunk of every series.
+     * @param retention Age in milliseconds after which readings are evicted.
+     */
+    public TimeSeriesStore(final int chunkSize, final long retention) {
+        if (chunkSize < 1 || retention < 1) {
+            throw new IllegalArgumentException("Chunk size and retention should be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.retention = retention;
+    }
+
+    // Series of the named sensor, created if needed. Only one thread should append to it.
+    @NonNull
+    public TimeSeries getSeries(@NonNull final String name) {
+        final TimeSeries existing = series.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final TimeSeries created = new TimeSeries(chunkSize, retention);
+        final TimeSeries raced = series.putIfAbsent(name, created);
+        return raced != null ? raced : created;
+    }
+
+    // Series of the named sensor, null if nothing was appended for it
+    @Nullable
+    public TimeSeries findSeries(@NonNull final String name) {
+        return series.get(name);
+    }
+
+    // Append a reading to the series of the named sensor
+    public void append(@NonNull final String name, final long timestamp, @NonNull final Data data) {
+        getSeries(name).append(timestamp, data);
+    }
+
+    @Nullable
+    public TimeSeries remove(@NonNull final String name) {
+        return series.remove(name);
+    }
+
+    // Names of the sensors with a series, a live view
+    @NonNull
+    public Set<String> getNames() {
+        return series.keySet();
+    }
+
+    /**
+     * Evict old chunks of every series, including series whose sensor stopped appending.
+     *
+     * @param now Current time in milliseconds, on the clock of the reading timestamps.
+     * @return Number of chunks evicted.
+     */
+    public int evict(final long now) {
+        int evicted = 0;
+        for (final TimeSeries timeSeries : series.values()) {
+            evicted += timeSeries.evict(now - retention);
+        }
+        return evicted;
+    }
+
+    // Number of readings kept over all series
+    public long size() {
+        long size = 0;
+        for (final TimeSeries timeSeries : series.values()) {
+            size += timeSeries.size();
+        }
+        return size;
+    }
+}
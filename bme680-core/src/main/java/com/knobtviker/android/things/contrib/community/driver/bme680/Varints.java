@@ -0,0 +1,35 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * Zig-zag variable length integer helpers shared by the binary reading formats.
+ */
+final class Varints {
+
+    // Longest encoding of a 64 bit value
+    static final int MAX_LENGTH = 10;
+
+    private Varints() {
+    }
+
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Write an unsigned varint, returning the new offset
+    static int write(final byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    static int writeSigned(final byte[] buffer, final int offset, final long value) {
+        return write(buffer, offset, zigZag(value));
+    }
+}
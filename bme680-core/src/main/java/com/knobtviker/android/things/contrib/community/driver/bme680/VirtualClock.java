@@ -0,0 +1,53 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+/**
+ * {@link Clock} whose time only moves when it is slept on or advanced.
+ * Sleeping returns immediately after moving the time forward, so a day of sampling against a
+ * fake bus runs deterministically in seconds.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VirtualClock implements Clock {
+
+    private long nanos;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Create a new virtual clock.
+     *
+     * @param start Initial time in milliseconds.
+     */
+    public VirtualClock(final long start) {
+        this.nanos = start * 1000000L;
+    }
+
+    @Override
+    public synchronized long elapsedRealtime() {
+        return nanos / 1000000L;
+    }
+
+    @Override
+    public synchronized long elapsedRealtimeNanos() {
+        return nanos;
+    }
+
+    @Override
+    public void sleep(final long milliseconds) {
+        advanceNanos(milliseconds * 1000000L);
+    }
+
+    // Move the time forward by the given number of milliseconds
+    public void advance(final long milliseconds) {
+        advanceNanos(milliseconds * 1000000L);
+    }
+
+    // Move the time forward by the given number of nanoseconds
+    public synchronized void advanceNanos(final long nanoseconds) {
+        if (nanoseconds < 0) {
+            throw new IllegalArgumentException("Time cannot go backwards");
+        }
+        nanos += nanoseconds;
+    }
+}
@@ -0,0 +1,226 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+/**
+ * Statistics of one channel over a time window, in fixed memory.
+ * <p>
+ * The window is split into panes, each holding a {@link RunningStatistics} and a {@link QuantileSketch}.
+ * With a single pane the window is tumbling: it is cleared whenever a value falls into the next window.
+ * With several panes the window slides one pane at a time and queries merge all live panes.
+ * Updates cost O(1), queries O(panes) and neither allocates.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class WindowedStatistics {
+
+    // Bisection steps used to merge quantile sketches
+    private static final int MERGE_ITERATIONS = 48;
+
+    private final long paneDuration;
+    private final double[] quantiles;
+    private final RunningStatistics[] statistics;
+    private final QuantileSketch[] sketches;
+    private final long[] paneIndices;
+
+    private long currentPane = Long.MIN_VALUE;
+
+    /**
+     * Create new windowed statistics.
+     *
+     * @param windowDuration Duration of the window in the same unit as the timestamps.
+     * @param panes          Number of panes, 1 for a tumbling window.
+     * @param quantiles      Quantiles to track, between 0 and 1 exclusive.
+     */
+    public WindowedStatistics(final long windowDuration, final int panes, @NonNull final double... quantiles) {
+        if (panes < 1 || windowDuration < panes) {
+            throw new IllegalArgumentException("Window should have at least one pane of positive duration");
+        }
+
+        this.paneDuration = windowDuration / panes;
+        this.quantiles = quantiles.clone();
+        this.statistics = new RunningStatistics[panes];
+        this.sketches = new QuantileSketch[panes];
+        this.paneIndices = new long[panes];
+        for (int i = 0; i < panes; i++) {
+            statistics[i] = new RunningStatistics();
+            sketches[i] = new QuantileSketch(quantiles);
+            paneIndices[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Add a value to the window.
+     *
+     * @param timestamp Monotonic time of the value.
+     * @param value     Value to add, NaN values are ignored.
+     */
+    public void add(final long timestamp, final double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        advance(timestamp);
+
+        final int slot = slot(currentPane);
+        statistics[slot].add(value);
+        sketches[slot].add(value);
+    }
+
+    /**
+     * Move the window to the given time, expiring panes that fell out of it.
+     *
+     * @param timestamp Monotonic time.
+     */
+    public void advance(final long timestamp) {
+        final long pane = Math.floorDiv(timestamp, paneDuration);
+        if (pane <= currentPane) {
+            return;
+        }
+
+        final int slot = slot(pane);
+        if (paneIndices[slot] != pane) {
+            statistics[slot].clear();
+            sketches[slot].clear();
+            paneIndices[slot] = pane;
+        }
+        currentPane = pane;
+    }
+
+    /**
+     * Merge all panes of the current window into the given summary.
+     *
+     * @param summary Summary to fill, reused between calls.
+     * @return The given summary.
+     */
+    @NonNull
+    public Summary getSummary(@NonNull final Summary summary) {
+        summary.statistics.clear();
+        for (int i = 0; i < statistics.length; i++) {
+            if (isLive(i)) {
+                summary.statistics.merge(statistics[i]);
+            }
+        }
+
+        final int size = Math.min(quantiles.length, summary.quantiles.length);
+        for (int q = 0; q < size; q++) {
+            summary.quantiles[q] = mergedQuantile(quantiles[q], summary.statistics);
+        }
+        return summary;
+    }
+
+    // Create a summary sized for this window's quantiles
+    @NonNull
+    public Summary newSummary() {
+        return new Summary(quantiles);
+    }
+
+    public void clear() {
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i].clear();
+            sketches[i].clear();
+            paneIndices[i] = Long.MIN_VALUE;
+        }
+        currentPane = Long.MIN_VALUE;
+    }
+
+    private boolean isLive(final int slot) {
+        return paneIndices[slot] != Long.MIN_VALUE && currentPane - paneIndices[slot] < paneIndices.length;
+    }
+
+    private int slot(final long pane) {
+        return (int) Math.floorMod(pane, (long) paneIndices.length);
+    }
+
+    // Find the value whose combined rank over all live panes matches the quantile
+    private double mergedQuantile(final double quantile, @NonNull final RunningStatistics merged) {
+        final long count = merged.getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        int single = -1;
+        int live = 0;
+        for (int i = 0; i < sketches.length; i++) {
+            if (isLive(i) && sketches[i].getCount() > 0) {
+                single = i;
+                live++;
+            }
+        }
+        if (live == 1) {
+            return sketches[single].getQuantile(quantile);
+        }
+
+        final double target = 1.0 + quantile * (count - 1);
+        double low = merged.getMin();
+        double high = merged.getMax();
+        for (int iteration = 0; iteration < MERGE_ITERATIONS && high > low; iteration++) {
+            final double middle = (low + high) / 2.0;
+            double rank = 0.0;
+            for (int i = 0; i < sketches.length; i++) {
+                if (isLive(i)) {
+                    rank += sketches[i].getRank(middle);
+                }
+            }
+            if (rank < target) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2.0;
+    }
+
+    /**
+     * Merged statistics of a window.
+     */
+    public static class Summary {
+
+        final RunningStatistics statistics = new RunningStatistics();
+        final double[] quantileLevels;
+        final double[] quantiles;
+
+        public Summary(@NonNull final double... quantileLevels) {
+            this.quantileLevels = quantileLevels.clone();
+            this.quantiles = new double[quantileLevels.length];
+        }
+
+        public long getCount() {
+            return statistics.getCount();
+        }
+
+        public double getMean() {
+            return statistics.getMean();
+        }
+
+        public double getVariance() {
+            return statistics.getVariance();
+        }
+
+        public double getStandardDeviation() {
+            return statistics.getStandardDeviation();
+        }
+
+        public double getMin() {
+            return statistics.getMin();
+        }
+
+        public double getMax() {
+            return statistics.getMax();
+        }
+
+        // Estimate of the quantile at the given index of the tracked quantiles
+        public double getQuantile(final int index) {
+            return quantiles[index];
+        }
+
+        // Estimate of a tracked quantile, NaN if it is not tracked
+        public double getQuantile(final double quantile) {
+            for (int i = 0; i < quantileLevels.length; i++) {
+                if (quantileLevels[i] == quantile) {
+                    return quantiles[i];
+                }
+            }
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The annotated annotation marks an int that only takes one of the listed constants.
+ * <p>
+ * Stands in for the Android support annotation, so the core module builds without any Android dependency.
+ * It documents the allowed values but is not checked by Android lint.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.ANNOTATION_TYPE)
+public @interface IntDef {
+    // Allowed constants
+    int[] value() default {};
+
+    // Whether the constants are flags that can be combined
+    boolean flag() default false;
+}
@@ -0,0 +1,18 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The annotated parameter, field or method return value is never null.
+ * <p>
+ * Stands in for the Android support annotation, so the core module builds without any Android dependency.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.METHOD, ElementType.PARAMETER, ElementType.FIELD, ElementType.LOCAL_VARIABLE})
+public @interface NonNull {
+}
@@ -0,0 +1,64 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class AirQualityEngineTest {
+
+    private static final long SECOND = 1000L;
+    private static final long HOUR = 60 * 60 * SECOND;
+
+    @Test
+    public void should_stay_in_warm_up_until_duration_passed() {
+        final AirQualityEngine engine = new AirQualityEngine();
+
+        engine.update(0, 100000, 40.0f);
+        assertThat(engine.getState(), CoreMatchers.equalTo(AirQualityEngine.STATE_WARM_UP));
+
+        engine.update(AirQualityEngine.DEFAULT_WARM_UP_MILLISECONDS, 100000, 40.0f);
+        assertThat(engine.getState(), CoreMatchers.equalTo(AirQualityEngine.STATE_READY));
+    }
+
+    @Test
+    public void should_score_fractional_gas_ratio() {
+        final AirQualityEngine engine = new AirQualityEngine();
+
+        engine.update(0, 100000, 40.0f);
+        final float score = engine.update(SECOND, 50000, 40.0f);
+
+        // Full humidity score plus half of the gas score
+        assertThat(Math.abs(score - (25.0f + 37.5f)) < 0.01f, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_track_high_percentile_baseline() {
+        final AirQualityEngine engine = new AirQualityEngine(40.0f, 0.25f, 0.0f, 0, 2 * HOUR, 0.9f);
+        final Random random = new Random(42);
+
+        // Uniform gas resistance between 50k and 150k, one sample per second for two days
+        long timestamp = 0;
+        for (int i = 0; i < 48 * 3600; i++) {
+            engine.update(timestamp, 50000 + random.nextInt(100000), 40.0f);
+            timestamp += SECOND;
+        }
+
+        final float baseline = engine.getGasBaseline();
+        assertThat(baseline > 130000 && baseline < 150000, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_compensate_humidity() {
+        final AirQualityEngine engine = new AirQualityEngine(40.0f, 0.0f, 0.01f, 0, HOUR, 0.95f);
+
+        engine.update(0, 100000, 40.0f);
+        // Humidity 10 %RH higher lowers the resistance by about 10 % for the same air
+        final float score = engine.update(SECOND, 90500, 50.0f);
+
+        assertThat(score > 99.0f, CoreMatchers.is(true));
+    }
+}
@@ -0,0 +1,121 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class AnomalyDetectorTest {
+
+    @Test
+    public void should_flag_a_spike_and_keep_it_out_of_the_mean() {
+        final ChannelMonitor monitor = new ChannelMonitor(0.05f, 6.0f, 0.5f, 0.0f, 0.01f, 0.0f, 0);
+        final Random random = new Random(3);
+
+        for (int i = 0; i < 200; i++) {
+            assertThat(monitor.update(i * 1000L, (float) (21.0 + 0.05 * random.nextGaussian())), CoreMatchers.equalTo(0));
+        }
+        assertThat(monitor.update(200000L, 25.0f), CoreMatchers.equalTo(ChannelMonitor.SPIKE));
+        assertThat(Math.abs(monitor.getMean() - 21.0f) < 0.05f, CoreMatchers.is(true));
+        assertThat(monitor.update(201000L, 21.0f), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_flag_a_slow_drift_with_the_cusum() {
+        final ChannelMonitor monitor = new ChannelMonitor(0.01f, 0.0f, 0.5f, 10.0f, 0.01f, 0.0f, 0);
+        final Random random = new Random(5);
+
+        int shiftedAt = -1;
+        for (int i = 0; i < 2000 && shiftedAt < 0; i++) {
+            // Flat for 500 readings, then drifting by 0.002 per reading, well inside the noise of each reading
+            final double drift = i < 500 ? 0.0 : 0.002 * (i - 500);
+            if ((monitor.update(i * 1000L, (float) (50.0 + drift + 0.1 * random.nextGaussian())) & ChannelMonitor.SHIFT) != 0) {
+                shiftedAt = i;
+            }
+        }
+        assertThat(shiftedAt > 500, CoreMatchers.is(true));
+        assertThat(shiftedAt < 1000, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_flag_stuck_values_and_excessive_rates() {
+        final ChannelMonitor monitor = new ChannelMonitor(0.1f, 0.0f, 0.5f, 0.0f, 0.01f, 1.0f, 5);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(monitor.update(i * 1000L, 1013.0f), CoreMatchers.equalTo(0));
+        }
+        assertThat(monitor.update(4000L, 1013.0f), CoreMatchers.equalTo(ChannelMonitor.STUCK));
+        assertThat(monitor.update(5000L, 1013.0f), CoreMatchers.equalTo(0));
+        assertThat(monitor.getRun(), CoreMatchers.equalTo(6));
+
+        // 3 hPa in half a second
+        assertThat(monitor.update(5500L, 1016.0f), CoreMatchers.equalTo(ChannelMonitor.RATE));
+        assertThat(monitor.update(8500L, 1017.0f), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_report_gas_events_to_the_callback() {
+        final int[] events = new int[2];
+        final float[] values = new float[1];
+        final AnomalyDetector detector = new AnomalyDetector(new AnomalyDetector.Callback() {
+            @Override
+            public void onAnomaly(final int channel, final int anomalies, final long timestamp, final float value) {
+                events[0]++;
+                events[1] = channel;
+                values[0] = value;
+            }
+        });
+        final Random random = new Random(9);
+        final Data data = new Data();
+        data.status = 0x30;
+        data.heaterStable = true;
+
+        for (int i = 0; i < 300; i++) {
+            data.temperature = (float) (22.0 + 0.05 * random.nextGaussian());
+            data.humidity = (float) (40.0 + 0.2 * random.nextGaussian());
+            data.pressure = (float) (1013.0 + 0.05 * random.nextGaussian());
+            data.gasResistance = (int) (100000 * (1.0 + 0.01 * random.nextGaussian()));
+            detector.update(i * 3000L, data);
+        }
+        assertThat(events[0], CoreMatchers.equalTo(0));
+
+        // Solvent vapour drops the resistance to a third
+        data.gasResistance = 33000;
+        detector.update(300 * 3000L, data);
+
+        assertThat(events[0], CoreMatchers.equalTo(1));
+        assertThat(events[1], CoreMatchers.equalTo(RollupStore.CHANNEL_GAS_RESISTANCE));
+        assertThat(values[0], CoreMatchers.equalTo(33000f));
+        assertThat(detector.getCount(RollupStore.CHANNEL_GAS_RESISTANCE, ChannelMonitor.SPIKE), CoreMatchers.equalTo(1L));
+        assertThat(detector.getCount(RollupStore.CHANNEL_GAS_RESISTANCE, ChannelMonitor.RATE), CoreMatchers.equalTo(1L));
+    }
+
+    @Test
+    public void should_skip_gas_readings_that_are_not_valid() {
+        final AnomalyDetector detector = new AnomalyDetector(new AnomalyDetector.Callback() {
+            @Override
+            public void onAnomaly(final int channel, final int anomalies, final long timestamp, final float value) {
+                // Counted by the detector
+            }
+        });
+        final Data data = new Data();
+        data.temperature = 22.0f;
+        data.humidity = 40.0f;
+        data.pressure = 1013.0f;
+        // Stale resistance left in the registers while gas measurement is disabled
+        data.gasResistance = 100000;
+        data.status = 0x10;
+        data.heaterStable = true;
+
+        for (int i = 0; i < 2 * AnomalyDetector.DEFAULT_STUCK_RUN; i++) {
+            detector.update(i * 3000L, data);
+        }
+
+        assertThat(detector.getMonitor(RollupStore.CHANNEL_GAS_RESISTANCE).getSampleCount(), CoreMatchers.equalTo(0L));
+        assertThat(detector.getCount(RollupStore.CHANNEL_GAS_RESISTANCE, ChannelMonitor.STUCK), CoreMatchers.equalTo(0L));
+        assertThat(detector.getCount(RollupStore.CHANNEL_TEMPERATURE, ChannelMonitor.STUCK) > 0, CoreMatchers.is(true));
+    }
+}
@@ -0,0 +1,108 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class CompensationEngineTest {
+
+    // Same as Bme680.OVERSAMPLING_1X, which lives in the Android module
+    private static final int OVERSAMPLING_1X = 1;
+
+    // Example calibration registers at 0x89 and 0xE1 from the Bosch C driver
+    private static final int[] COEFFICIENTS = {
+        0x00, 0x95, 0x66, 0x03, 0x00, 0x8C, 0x8D, 0x4F, 0xD7, 0x58, 0x00, 0x68, 0x18, 0xE4, 0xFF,
+        0x2D, 0x1E, 0x00, 0x00, 0x0C, 0xF4, 0x85, 0xF6, 0x1E, 0x00,
+        0x3E, 0x5E, 0x34, 0x00, 0x2D, 0x14, 0x78, 0x9C, 0xF1, 0x66, 0x77, 0xCC, 0xE1, 0x12, 0x00, 0x00
+    };
+
+    private static CompensationEngine engine() {
+        final byte[] coefficients = new byte[CompensationEngine.COEFFICIENT_LENGTH];
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] = (byte) COEFFICIENTS[i];
+        }
+        return new CompensationEngine(coefficients, (byte) 0x10, (byte) 49, (byte) 0);
+    }
+
+    @Test
+    public void should_parse_the_example_calibration() {
+        final Calibration calibration = engine().getCalibration();
+
+        assertThat(calibration.temperature, CoreMatchers.equalTo(new int[]{26353, 26261, 3}));
+        assertThat(calibration.pressure, CoreMatchers.equalTo(new int[]{36236, -10417, 88, 6248, -28, 30, 45, -3060, -2427, 30}));
+        assertThat(calibration.humidity, CoreMatchers.equalTo(new int[]{846, 997, 0, 45, 20, 120, -100}));
+        assertThat(calibration.gasHeater, CoreMatchers.equalTo(new int[]{-31, -13193, 18}));
+    }
+
+    @Test
+    public void should_compensate_a_data_field() {
+        final byte[] field = new byte[CompensationEngine.FIELD_LENGTH];
+        field[2] = 0x4F;
+        field[5] = 0x79;
+        field[8] = 0x60;
+        field[13] = (byte) (300 >> 2);
+        field[14] = (byte) 0x34;
+
+        final Data data = new Data();
+        engine().compensate(field, data);
+
+        assertThat(data.temperature, CoreMatchers.equalTo(23.16f));
+        assertThat(data.pressure, CoreMatchers.equalTo(1054.18f));
+        assertThat(data.humidity, CoreMatchers.equalTo(57.725f));
+        assertThat(data.gasResistance, CoreMatchers.equalTo(593378));
+        assertThat(data.heaterStable, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_compensate_a_data_field_to_fixed_point() {
+        final byte[] field = new byte[CompensationEngine.FIELD_LENGTH];
+        field[2] = 0x4F;
+        field[5] = 0x79;
+        field[8] = 0x60;
+        field[13] = (byte) (300 >> 2);
+        field[14] = (byte) 0x34;
+
+        final FixedPointData data = new FixedPointData();
+        engine().compensate(field, 0, data);
+
+        assertThat(data.temperature, CoreMatchers.equalTo(2316));
+        assertThat(data.pressure, CoreMatchers.equalTo(105418));
+        assertThat(data.humidity, CoreMatchers.equalTo(57725));
+        assertThat(data.gasResistance, CoreMatchers.equalTo(593378));
+        assertThat(data.heaterStable, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_apply_temperature_offset() {
+        final CompensationEngine engine = engine();
+        final int temperature = engine.compensateTemperature(0x79000);
+
+        engine.setTemperatureOffset(-2);
+
+        assertThat(temperature - engine.compensateTemperature(0x79000), CoreMatchers.equalTo(200));
+    }
+
+    @Test
+    public void should_add_heater_duration_only_when_gas_runs() {
+        final int measurement = CompensationEngine.measurementDuration(OVERSAMPLING_1X, OVERSAMPLING_1X, OVERSAMPLING_1X);
+
+        assertThat(measurement, CoreMatchers.equalTo(11));
+        assertThat(CompensationEngine.profileDuration(OVERSAMPLING_1X, OVERSAMPLING_1X, OVERSAMPLING_1X, true, 150), CoreMatchers.equalTo(161));
+        assertThat(CompensationEngine.profileDuration(OVERSAMPLING_1X, OVERSAMPLING_1X, OVERSAMPLING_1X, false, 150), CoreMatchers.equalTo(11));
+    }
+
+    @Test
+    public void should_compensate_bme688_gas_in_high_range() {
+        assertThat(CompensationEngine.compensateGasResistanceHigh(512, 4), CoreMatchers.equalTo(4000000));
+        assertThat(CompensationEngine.compensateGasResistanceHigh(512, 5), CoreMatchers.equalTo(2000000));
+    }
+
+    @Test
+    public void should_encode_shared_heater_duration() {
+        assertThat(CompensationEngine.encodeSharedHeaterDuration(10), CoreMatchers.equalTo(20));
+        assertThat(CompensationEngine.encodeSharedHeaterDuration(100), CoreMatchers.equalTo(64 + 52));
+        assertThat(CompensationEngine.encodeSharedHeaterDuration(5000), CoreMatchers.equalTo(0xff));
+    }
+}
@@ -0,0 +1,347 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.knobtviker.android.things.contrib.community.driver.bme680.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Compares a candidate compensation implementation against {@link CompensationEngine} over the raw ADC ranges.
+ * <p>
+ * Every generated calibration image is swept over the 20 bit temperature range, the 20 bit pressure and
+ * 16 bit humidity ranges at several temperatures, and every 10 bit gas value in all 16 ranges. Sweeps are
+ * split into chunks on a fork-join pool. The first image is the Bosch example calibration, the others are
+ * random. A stride of 1 covers every raw value; unit tests use a larger stride.
+ * <p>
+ * Run from the IDE to sweep the full range, it takes about 15 seconds for 64 images on a single core.
+ */
+public class CompensationEquivalence {
+
+    public static final int TEMPERATURE_RANGE = 1 << 20;
+    public static final int PRESSURE_RANGE = 1 << 20;
+    public static final int HUMIDITY_RANGE = 1 << 16;
+    public static final int GAS_RANGE = 1 << 10;
+    public static final int GAS_RANGES = 16;
+
+    // Temperatures the pressure and humidity sweeps are run at, as 20 bit ADC values
+    private static final int[] TEMPERATURE_POINTS = {0x40000, 0x60000, 0x70000, 0x79000, 0x80000, 0x90000, 0xA0000, 0xC0000};
+
+    // Raw values per fork-join leaf
+    private static final int CHUNK = 1 << 14;
+
+    // Result of a calibration the arithmetic divides by zero for
+    private static final long FAILED = Long.MIN_VALUE;
+
+    // Example calibration registers at 0x89 and 0xE1 from the Bosch C driver
+    private static final int[] EXAMPLE_COEFFICIENTS = {
+        0x00, 0x95, 0x66, 0x03, 0x00, 0x8C, 0x8D, 0x4F, 0xD7, 0x58, 0x00, 0x68, 0x18, 0xE4, 0xFF,
+        0x2D, 0x1E, 0x00, 0x00, 0x0C, 0xF4, 0x85, 0xF6, 0x1E, 0x00,
+        0x3E, 0x5E, 0x34, 0x00, 0x2D, 0x14, 0x78, 0x9C, 0xF1, 0x66, 0x77, 0xCC, 0xE1, 0x12, 0x00, 0x00
+    };
+
+    public static final int CHANNEL_TEMPERATURE = 0;
+    public static final int CHANNEL_PRESSURE = 1;
+    public static final int CHANNEL_HUMIDITY = 2;
+    public static final int CHANNEL_GAS = 3;
+    private static final String[] CHANNEL_NAMES = {"temperature", "pressure", "humidity", "gas"};
+
+    /**
+     * Implementation under test. Pressure and humidity use the last compensated temperature.
+     */
+    public interface Compensator {
+        int temperature(final int adc);
+
+        int pressure(final int adc);
+
+        long humidity(final int adc);
+
+        int gasResistance(final int adc, final int range);
+    }
+
+    /**
+     * Creates a compensator for a calibration image. Called once per chunk, compensators are not shared between threads.
+     */
+    public interface Factory {
+        @NonNull
+        Compensator create(@NonNull final byte[] coefficients, final byte errorRange);
+    }
+
+    // The reference implementation
+    public static final Factory REFERENCE = new Factory() {
+        @NonNull
+        @Override
+        public Compensator create(@NonNull final byte[] coefficients, final byte errorRange) {
+            return adapt(new CompensationEngine(coefficients, (byte) 0, (byte) 0, errorRange));
+        }
+    };
+
+    // Compensator calling through to an engine, eg. a subclass overriding the compensation methods
+    @NonNull
+    public static Compensator adapt(@NonNull final CompensationEngine engine) {
+        return new Compensator() {
+            @Override
+            public int temperature(final int adc) {
+                return engine.compensateTemperature(adc);
+            }
+
+            @Override
+            public int pressure(final int adc) {
+                return engine.compensatePressure(adc);
+            }
+
+            @Override
+            public long humidity(final int adc) {
+                return engine.compensateHumidity(adc);
+            }
+
+            @Override
+            public int gasResistance(final int adc, final int range) {
+                return engine.compensateGasResistance(adc, range);
+            }
+        };
+    }
+
+    private final Factory candidate;
+    private final int calibrations;
+    private final long seed;
+    private final int stride;
+    private final long[] tolerances = new long[CHANNEL_NAMES.length];
+
+    /**
+     * Create a new harness, bit exact on every channel until {@link #setTolerance(int, long)} is called.
+     *
+     * @param candidate    Factory of the implementation under test.
+     * @param calibrations Number of calibration images, including the Bosch example.
+     * @param seed         Seed of the random calibration images.
+     * @param stride       Step between swept raw values, 1 for every value.
+     */
+    public CompensationEquivalence(@NonNull final Factory candidate, final int calibrations, final long seed, final int stride) {
+        if (calibrations < 1 || stride < 1) {
+            throw new IllegalArgumentException("Calibrations and stride should be positive");
+        }
+        this.candidate = candidate;
+        this.calibrations = calibrations;
+        this.seed = seed;
+        this.stride = stride;
+    }
+
+    // Largest absolute difference from the reference accepted on a channel
+    public CompensationEquivalence setTolerance(final int channel, final long tolerance) {
+        tolerances[channel] = tolerance;
+        return this;
+    }
+
+    // Calibration image number index, the Bosch example for 0
+    @NonNull
+    public byte[] coefficients(final int index) {
+        final byte[] coefficients = new byte[CompensationEngine.COEFFICIENT_LENGTH];
+        if (index == 0) {
+            for (int i = 0; i < coefficients.length; i++) {
+                coefficients[i] = (byte) EXAMPLE_COEFFICIENTS[i];
+            }
+        } else {
+            new Random(seed * 31 + index).nextBytes(coefficients);
+        }
+        return coefficients;
+    }
+
+    // Error range register of calibration image number index
+    public byte errorRange(final int index) {
+        return index == 0 ? 0 : (byte) new Random(seed * 31 - index).nextInt(256);
+    }
+
+    /**
+     * Sweep all calibration images on the given pool.
+     *
+     * @param pool Pool to run the sweep on.
+     * @return Comparison counts and the largest differences per channel.
+     */
+    @NonNull
+    public Report run(@NonNull final ForkJoinPool pool) {
+        final List<Sweep> sweeps = new ArrayList<>();
+        for (int calibration = 0; calibration < calibrations; calibration++) {
+            sweeps.add(new Sweep(calibration, CHANNEL_TEMPERATURE, 0, 0, TEMPERATURE_RANGE));
+            for (final int temperature : TEMPERATURE_POINTS) {
+                sweeps.add(new Sweep(calibration, CHANNEL_PRESSURE, temperature, 0, PRESSURE_RANGE));
+                sweeps.add(new Sweep(calibration, CHANNEL_HUMIDITY, temperature, 0, HUMIDITY_RANGE));
+            }
+            sweeps.add(new Sweep(calibration, CHANNEL_GAS, 0, 0, GAS_RANGE * GAS_RANGES));
+        }
+
+        return pool.invoke(new RecursiveTask<Report>() {
+            @Override
+            protected Report compute() {
+                final Report report = new Report();
+                for (final Sweep sweep : invokeAll(sweeps)) {
+                    report.merge(sweep.join());
+                }
+                return report;
+            }
+        });
+    }
+
+    /**
+     * Sweep of one channel over a range of raw values for one calibration image.
+     */
+    private final class Sweep extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+
+        private final int calibration;
+        private final int channel;
+        private final int temperature;
+        private final int from;
+        private final int to;
+
+        Sweep(final int calibration, final int channel, final int temperature, final int from, final int to) {
+            this.calibration = calibration;
+            this.channel = channel;
+            this.temperature = temperature;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from > CHUNK * stride) {
+                final int middle = from + (to - from) / 2;
+                final Sweep left = new Sweep(calibration, channel, temperature, from, middle);
+                final Sweep right = new Sweep(calibration, channel, temperature, middle, to);
+                left.fork();
+                final Report report = right.compute();
+                report.merge(left.join());
+                return report;
+            }
+
+            final byte[] coefficients = coefficients(calibration);
+            final Compensator reference = REFERENCE.create(coefficients, errorRange(calibration));
+            final Compensator subject = candidate.create(coefficients, errorRange(calibration));
+            final Report report = new Report();
+
+            // First raw value on the global stride grid
+            final int start = from + Math.floorMod(-from, stride);
+            for (int raw = start; raw < to; raw += stride) {
+                final long expected = evaluate(reference, raw);
+                final long actual = evaluate(subject, raw);
+                report.record(channel, expected, actual, tolerances[channel], this, raw);
+            }
+            return report;
+        }
+
+        private long evaluate(@NonNull final Compensator compensator, final int raw) {
+            try {
+                switch (channel) {
+                    case CHANNEL_TEMPERATURE:
+                        return compensator.temperature(raw);
+                    case CHANNEL_PRESSURE:
+                        compensator.temperature(temperature);
+                        return compensator.pressure(raw);
+                    case CHANNEL_HUMIDITY:
+                        compensator.temperature(temperature);
+                        return compensator.humidity(raw);
+                    default:
+                        return compensator.gasResistance(raw % GAS_RANGE, raw / GAS_RANGE);
+                }
+            } catch (ArithmeticException e) {
+                return FAILED;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return channel == CHANNEL_PRESSURE || channel == CHANNEL_HUMIDITY
+                ? String.format(Locale.US, "calibration %d, %s at temperature 0x%05X", calibration, CHANNEL_NAMES[channel], temperature)
+                : String.format(Locale.US, "calibration %d, %s", calibration, CHANNEL_NAMES[channel]);
+        }
+    }
+
+    /**
+     * Comparison counts and largest differences per channel.
+     */
+    public static final class Report {
+        private final long[] compared = new long[CHANNEL_NAMES.length];
+        private final long[] mismatches = new long[CHANNEL_NAMES.length];
+        private final long[] maxErrors = new long[CHANNEL_NAMES.length];
+        private String firstMismatch;
+
+        // Number of raw values compared on a channel
+        public long getCompared(final int channel) {
+            return compared[channel];
+        }
+
+        // Number of raw values outside tolerance on a channel
+        public long getMismatches(final int channel) {
+            return mismatches[channel];
+        }
+
+        // Largest absolute difference from the reference on a channel, within tolerance or not
+        public long getMaxError(final int channel) {
+            return maxErrors[channel];
+        }
+
+        // Whether every compared value is within tolerance
+        public boolean isEquivalent() {
+            return firstMismatch == null;
+        }
+
+        // Description of a mismatch, null if none
+        public String getFirstMismatch() {
+            return firstMismatch;
+        }
+
+        void record(final int channel, final long expected, final long actual, final long tolerance, @NonNull final Object sweep, final int raw) {
+            compared[channel]++;
+            if (expected == actual) {
+                return;
+            }
+            final long error = expected == FAILED || actual == FAILED ? Long.MAX_VALUE : Math.abs(expected - actual);
+            maxErrors[channel] = Math.max(maxErrors[channel], error);
+            if (error > tolerance) {
+                mismatches[channel]++;
+                if (firstMismatch == null) {
+                    firstMismatch = String.format(Locale.US, "%s, raw 0x%X: expected %s, got %s", sweep, raw, describe(expected), describe(actual));
+                }
+            }
+        }
+
+        void merge(@NonNull final Report other) {
+            for (int channel = 0; channel < compared.length; channel++) {
+                compared[channel] += other.compared[channel];
+                mismatches[channel] += other.mismatches[channel];
+                maxErrors[channel] = Math.max(maxErrors[channel], other.maxErrors[channel]);
+            }
+            if (firstMismatch == null) {
+                firstMismatch = other.firstMismatch;
+            }
+        }
+
+        private static String describe(final long value) {
+            return value == FAILED ? "division by zero" : String.valueOf(value);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (int channel = 0; channel < compared.length; channel++) {
+                builder.append(String.format(Locale.US, "%s: %d compared, %d mismatches, max error %d%n",
+                    CHANNEL_NAMES[channel], compared[channel], mismatches[channel], maxErrors[channel]));
+            }
+            if (firstMismatch != null) {
+                builder.append("first mismatch: ").append(firstMismatch);
+            }
+            return builder.toString();
+        }
+    }
+
+    // Full sweep of the reference against itself, replace REFERENCE with the candidate under test
+    public static void main(String[] args) {
+        final CompensationEquivalence harness = new CompensationEquivalence(REFERENCE, 64, 42, 1);
+        final long start = System.nanoTime();
+        final Report report = harness.run(ForkJoinPool.commonPool());
+        System.out.println(report);
+        System.out.println(String.format(Locale.US, "%.1f s on %d threads", (System.nanoTime() - start) / 1e9, ForkJoinPool.commonPool().getParallelism()));
+    }
+}
@@ -0,0 +1,61 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class CompensationEquivalenceTest {
+
+    // Sample every 251st raw value to keep the sweep short
+    private static final int STRIDE = 251;
+    private static final int CALIBRATIONS = 8;
+
+    // Reference with temperatures above 25 degree celsius rounded up by one hundredth
+    private static final CompensationEquivalence.Factory OFF_BY_ONE = new CompensationEquivalence.Factory() {
+        @Override
+        public CompensationEquivalence.Compensator create(final byte[] coefficients, final byte errorRange) {
+            return CompensationEquivalence.adapt(new CompensationEngine(coefficients, (byte) 0, (byte) 0, errorRange) {
+                @Override
+                public int compensateTemperature(final int temperature) {
+                    final int value = super.compensateTemperature(temperature);
+                    return value > 2500 ? value + 1 : value;
+                }
+            });
+        }
+    };
+
+    @Test
+    public void should_find_the_reference_equivalent_to_itself() {
+        final CompensationEquivalence.Report report = new CompensationEquivalence(CompensationEquivalence.REFERENCE, CALIBRATIONS, 7, STRIDE)
+            .run(ForkJoinPool.commonPool());
+
+        assertThat(report.toString(), report.isEquivalent(), CoreMatchers.is(true));
+        assertThat(report.getCompared(CompensationEquivalence.CHANNEL_TEMPERATURE), CoreMatchers.equalTo((long) CALIBRATIONS * ((CompensationEquivalence.TEMPERATURE_RANGE + STRIDE - 1) / STRIDE)));
+        assertThat(report.getCompared(CompensationEquivalence.CHANNEL_GAS) > 0, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_report_differences_outside_tolerance() {
+        final CompensationEquivalence.Report report = new CompensationEquivalence(OFF_BY_ONE, CALIBRATIONS, 7, STRIDE)
+            .run(ForkJoinPool.commonPool());
+
+        assertThat(report.isEquivalent(), CoreMatchers.is(false));
+        assertThat(report.getMismatches(CompensationEquivalence.CHANNEL_TEMPERATURE) > 0, CoreMatchers.is(true));
+        assertThat(report.getMaxError(CompensationEquivalence.CHANNEL_TEMPERATURE), CoreMatchers.equalTo(1L));
+        assertThat(report.getFirstMismatch(), CoreMatchers.containsString("temperature"));
+    }
+
+    @Test
+    public void should_accept_differences_within_tolerance() {
+        final CompensationEquivalence.Report report = new CompensationEquivalence(OFF_BY_ONE, CALIBRATIONS, 7, STRIDE)
+            .setTolerance(CompensationEquivalence.CHANNEL_TEMPERATURE, 1)
+            .run(ForkJoinPool.commonPool());
+
+        assertThat(report.toString(), report.isEquivalent(), CoreMatchers.is(true));
+        assertThat(report.getMaxError(CompensationEquivalence.CHANNEL_TEMPERATURE), CoreMatchers.equalTo(1L));
+    }
+}
@@ -0,0 +1,74 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class DataTest {
+
+    private static void assertClose(final float actual, final float expected, final float tolerance) {
+        assertThat(actual + " ~ " + expected, Math.abs(actual - expected) <= tolerance, CoreMatchers.is(true));
+    }
+
+    private static Data reading(final float temperature, final float humidity, final float pressure) {
+        final Data data = new Data();
+        data.temperature = temperature;
+        data.humidity = humidity;
+        data.pressure = pressure;
+        return data;
+    }
+
+    @Test
+    public void should_derive_humidity_quantities() {
+        final Data data = reading(25f, 50f, Data.STANDARD_SEA_LEVEL_PRESSURE);
+
+        assertClose(data.getDewPoint(), 13.85f, 0.01f);
+        assertClose(data.getAbsoluteHumidity(), 11.48f, 0.01f);
+    }
+
+    @Test
+    public void should_derive_altitude_and_sea_level_pressure() {
+        final Data data = reading(15f, 50f, 899f);
+
+        assertClose(data.getAltitude(), 997.8f, 0.1f);
+        assertClose(data.getAltitude(899f), 0f, 0.001f);
+        assertClose(data.getSeaLevelPressure(data.getAltitude()), Data.STANDARD_SEA_LEVEL_PRESSURE, 0.01f);
+    }
+
+    @Test
+    public void should_recompute_after_fields_change() {
+        final Data data = reading(25f, 50f, Data.STANDARD_SEA_LEVEL_PRESSURE);
+        final float dewPoint = data.getDewPoint();
+
+        assertThat(data.getDewPoint(), CoreMatchers.equalTo(dewPoint));
+
+        data.humidity = 100f;
+        assertClose(data.getDewPoint(), 25f, 0.001f);
+
+        final Data copy = new Data();
+        copy.set(data);
+        assertThat(copy.getDewPoint(), CoreMatchers.equalTo(data.getDewPoint()));
+    }
+
+    @Test
+    public void should_derive_over_arrays() {
+        final Data[] readings = {reading(25f, 50f, 1000f), reading(25f, 100f, 900f)};
+        final float[] dewPoints = new float[readings.length];
+        final float[] altitudes = new float[readings.length];
+
+        Data.getDewPoints(readings, dewPoints);
+        Data.getAltitudes(readings, 1000f, altitudes);
+
+        assertThat(dewPoints[0], CoreMatchers.equalTo(readings[0].getDewPoint()));
+        assertClose(dewPoints[1], 25f, 0.001f);
+        assertClose(altitudes[0], 0f, 0.001f);
+        assertThat(altitudes[1], CoreMatchers.equalTo(readings[1].getAltitude(1000f)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_short_output() {
+        Data.getAbsoluteHumidities(new Data[]{new Data(), new Data()}, new float[1]);
+    }
+}
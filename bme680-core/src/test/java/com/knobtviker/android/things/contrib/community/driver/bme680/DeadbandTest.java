@@ -0,0 +1,64 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class DeadbandTest {
+
+    @Test
+    public void should_publish_only_past_the_absolute_band() {
+        final Deadband deadband = new Deadband(0.5f, 0f, 0);
+
+        assertThat(deadband.update(21.0f, 0), CoreMatchers.is(true));
+        assertThat(deadband.update(21.4f, 1000), CoreMatchers.is(false));
+        assertThat(deadband.update(20.6f, 2000), CoreMatchers.is(false));
+        assertThat(deadband.update(21.6f, 3000), CoreMatchers.is(true));
+        assertThat(deadband.getLastValue(), CoreMatchers.equalTo(21.6f));
+        assertThat(deadband.getPublishedCount(), CoreMatchers.equalTo(2L));
+        assertThat(deadband.getSuppressedCount(), CoreMatchers.equalTo(2L));
+    }
+
+    @Test
+    public void should_apply_the_wider_of_absolute_and_relative_bands() {
+        final Deadband deadband = new Deadband(1f, 0.01f, 0);
+
+        deadband.update(1000f, 0);
+        // 1% of 1000 hPa is wider than 1 hPa
+        assertThat(deadband.update(1009f, 1), CoreMatchers.is(false));
+        assertThat(deadband.update(1011f, 2), CoreMatchers.is(true));
+
+        deadband.reset();
+        assertThat(deadband.getLastValue(), CoreMatchers.equalTo(Float.NaN));
+        deadband.update(10f, 3);
+        assertThat(deadband.update(10.5f, 4), CoreMatchers.is(false));
+        assertThat(deadband.update(11.5f, 5), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_publish_on_heartbeat() {
+        final Deadband deadband = new Deadband(1f, 0f, 60000);
+
+        deadband.update(50f, 0);
+        assertThat(deadband.update(50f, 59999), CoreMatchers.is(false));
+        assertThat(deadband.update(50f, 60000), CoreMatchers.is(true));
+        assertThat(deadband.update(50f, 60001), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_publish_every_change_without_a_band() {
+        final Deadband deadband = new Deadband(0f, 0f, 0);
+
+        deadband.update(1f, 0);
+        assertThat(deadband.update(1f, 1), CoreMatchers.is(false));
+        assertThat(deadband.update(1.0001f, 2), CoreMatchers.is(true));
+        assertThat(deadband.update(Float.NaN, 3), CoreMatchers.is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_negative_band() {
+        new Deadband(-1f, 0f, 0);
+    }
+}
@@ -0,0 +1,71 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GasCorrectionTest {
+
+    private static final double REFERENCE_RESISTANCE = 120000.0;
+    private static final double TEMPERATURE_COEFFICIENT = -0.03;
+    private static final double HUMIDITY_COEFFICIENT = -0.012;
+
+    @Test
+    public void should_return_resistance_uncorrected_during_warm_up() {
+        final GasCorrection correction = new GasCorrection(25.0f, 40.0f, 1000, 10);
+
+        for (int i = 0; i < 9; i++) {
+            assertThat(correction.update(50000f + i, 30.0f, 60.0f), CoreMatchers.equalTo(50000f + i));
+        }
+        assertThat(correction.isWarmedUp(), CoreMatchers.is(false));
+        assertThat(correction.update(0f, 30.0f, 60.0f), CoreMatchers.equalTo(0f));
+        assertThat(correction.getSampleCount(), CoreMatchers.equalTo(9L));
+    }
+
+    @Test
+    public void should_learn_the_cross_sensitivity_online() {
+        final GasCorrection correction = new GasCorrection();
+        final Random random = new Random(7);
+
+        float worst = 0.0f;
+        for (int i = 0; i < 5000; i++) {
+            final float temperature = (float) (22.0 + 4.0 * Math.sin(i / 300.0));
+            final float humidity = (float) (45.0 + 15.0 * Math.sin(i / 170.0 + 1.0));
+            final float corrected = correction.update(resistance(temperature, humidity, random), temperature, humidity);
+            if (i > 2000) {
+                worst = Math.max(worst, (float) Math.abs(corrected / REFERENCE_RESISTANCE - 1.0));
+            }
+        }
+
+        assertThat(Math.abs(correction.getTemperatureCoefficient() - TEMPERATURE_COEFFICIENT) < 0.002, CoreMatchers.is(true));
+        assertThat(Math.abs(correction.getHumidityCoefficient() - HUMIDITY_COEFFICIENT) < 0.001, CoreMatchers.is(true));
+        assertThat(Math.abs(correction.getReferenceResistance() / REFERENCE_RESISTANCE - 1.0) < 0.01, CoreMatchers.is(true));
+        // Uncorrected, the climate swings the resistance by more than 30%
+        assertThat(worst < 0.03f, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_keep_gas_events_uncorrelated_with_the_climate() {
+        final GasCorrection correction = new GasCorrection();
+        final Random random = new Random(11);
+
+        for (int i = 0; i < 3000; i++) {
+            final float temperature = (float) (22.0 + 4.0 * Math.sin(i / 300.0));
+            final float humidity = (float) (45.0 + 15.0 * Math.sin(i / 170.0 + 1.0));
+            correction.update(resistance(temperature, humidity, random), temperature, humidity);
+        }
+
+        // Volatile compounds halve the resistance at a different climate
+        final float corrected = correction.correct(resistance(20.0f, 55.0f, random) * 0.5f, 20.0f, 55.0f);
+        assertThat(Math.abs(corrected / REFERENCE_RESISTANCE - 0.5) < 0.02, CoreMatchers.is(true));
+    }
+
+    private static float resistance(final float temperature, final float humidity, final Random random) {
+        return (float) (REFERENCE_RESISTANCE * Math.exp(TEMPERATURE_COEFFICIENT * (temperature - 25.0)
+            + HUMIDITY_COEFFICIENT * (humidity - 40.0) + 0.005 * random.nextGaussian()));
+    }
+}
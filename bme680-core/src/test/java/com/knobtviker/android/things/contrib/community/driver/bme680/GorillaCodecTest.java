@@ -0,0 +1,144 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class GorillaCodecTest {
+
+    private static byte[] encode(final long[] timestamps, final Data[] readings, final int blockSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GorillaEncoder encoder = new GorillaEncoder(out, blockSize);
+        for (int i = 0; i < readings.length; i++) {
+            encoder.write(timestamps[i], readings[i]);
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    private static void assertRoundTrip(final long[] timestamps, final Data[] readings, final int blockSize) throws IOException {
+        final GorillaDecoder decoder = new GorillaDecoder(new ByteArrayInputStream(encode(timestamps, readings, blockSize)));
+        final Data data = new Data();
+
+        for (int i = 0; i < readings.length; i++) {
+            assertThat(decoder.read(data), CoreMatchers.is(true));
+            assertThat(decoder.getTimestamp(), CoreMatchers.equalTo(timestamps[i]));
+            assertThat(Float.floatToRawIntBits(data.temperature), CoreMatchers.equalTo(Float.floatToRawIntBits(readings[i].temperature)));
+            assertThat(Float.floatToRawIntBits(data.humidity), CoreMatchers.equalTo(Float.floatToRawIntBits(readings[i].humidity)));
+            assertThat(Float.floatToRawIntBits(data.pressure), CoreMatchers.equalTo(Float.floatToRawIntBits(readings[i].pressure)));
+            assertThat(data.gasResistance, CoreMatchers.equalTo(readings[i].gasResistance));
+        }
+        assertThat(decoder.read(data), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_round_trip_readings_exactly() throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(5000, 1);
+        assertRoundTrip(trace.timestamps, trace.readings, 1000);
+        assertRoundTrip(trace.timestamps, trace.readings, 333);
+        assertRoundTrip(trace.timestamps, trace.readings, 1);
+    }
+
+    @Test
+    public void should_round_trip_gaps_and_special_values() throws IOException {
+        final long[] timestamps = {Long.MIN_VALUE / 2, 0, 1000, 2000, 2000, 1L << 40, (1L << 40) + 1000, Long.MAX_VALUE / 2};
+        final Data[] readings = new Data[timestamps.length];
+        final float[] temperatures = {20f, -40f, Float.NaN, Float.POSITIVE_INFINITY, -0f, 0f, 85f, Float.MIN_VALUE};
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = new Data();
+            readings[i].temperature = temperatures[i];
+            readings[i].humidity = i * 12.5f;
+            readings[i].pressure = 1013.25f;
+            readings[i].gasResistance = i % 2 == 0 ? Integer.MAX_VALUE : -1;
+        }
+        assertRoundTrip(timestamps, readings, 1024);
+    }
+
+    @Test
+    public void should_take_few_bytes_per_reading() throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(86400, 42);
+        final byte[] encoded = encode(trace.timestamps, trace.readings, GorillaEncoder.DEFAULT_BLOCK_SIZE);
+
+        // A timestamp and four 32 bit channels take 24 bytes uncompressed
+        assertThat(encoded.length < trace.readings.length * 12, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_compress_constant_readings_to_bits() throws IOException {
+        final int readings = 1000;
+        final long[] timestamps = new long[readings];
+        final Data[] constant = new Data[readings];
+        for (int i = 0; i < readings; i++) {
+            timestamps[i] = i * 1000L;
+            constant[i] = new Data();
+            constant[i].temperature = 21.5f;
+        }
+
+        // After the second reading, one bit for the timestamp and one per channel
+        assertThat(encode(timestamps, constant, readings).length < 8 + 16 + 2 + readings * 5 / 8 + 20, CoreMatchers.is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_corrupt_blocks() throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(100, 3);
+        final byte[] encoded = encode(trace.timestamps, trace.readings, 100);
+        encoded[encoded.length / 2] ^= 0x10;
+
+        final GorillaDecoder decoder = new GorillaDecoder(new ByteArrayInputStream(encoded));
+        while (decoder.read(new Data())) {
+            // Drain
+        }
+    }
+
+    @Test
+    public void should_skip_any_number_of_empty_blocks() throws IOException {
+        // Magic, version, no readings, no payload and the checksum of nothing
+        final byte[] empty = {GorillaEncoder.MAGIC, GorillaEncoder.VERSION, 0, 0, 0, 0, 0, 0};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100000; i++) {
+            out.write(empty);
+        }
+
+        final GorillaDecoder decoder = new GorillaDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(decoder.read(new Data()), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_reject_a_payload_longer_than_its_readings() throws IOException {
+        // One reading with a payload of 2^28 - 1 bytes, rejected before it is allocated
+        final byte[] header = {GorillaEncoder.MAGIC, GorillaEncoder.VERSION, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F};
+
+        final GorillaDecoder decoder = new GorillaDecoder(new ByteArrayInputStream(header));
+        try {
+            decoder.read(new Data());
+            throw new AssertionError("Corrupt header was accepted");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), CoreMatchers.equalTo("Corrupt block header"));
+        }
+    }
+
+    @Test
+    public void should_reject_a_block_larger_than_the_encoder_writes() throws IOException {
+        // 2^20 readings with a small payload, within the length bound but more readings than any block holds
+        final byte[] header = {GorillaEncoder.MAGIC, GorillaEncoder.VERSION, (byte) 0x80, (byte) 0x80, 0x40, (byte) 0xE8, 0x07};
+
+        final GorillaDecoder decoder = new GorillaDecoder(new ByteArrayInputStream(header));
+        try {
+            decoder.read(new Data());
+            throw new AssertionError("Corrupt header was accepted");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), CoreMatchers.equalTo("Corrupt block header"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_a_block_size_above_the_maximum() {
+        new GorillaEncoder(new ByteArrayOutputStream(), GorillaEncoder.MAX_BLOCK_SIZE + 1);
+    }
+}
@@ -0,0 +1,65 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class LatencyTraceTest {
+
+    // Record a sample starting at start whose stages each take step nanoseconds
+    private static void record(final LatencyTrace trace, final long start, final long step) {
+        trace.begin(start);
+        for (int stage = LatencyTrace.STAGE_TRIGGERED; stage < LatencyTrace.STAGE_COUNT; stage++) {
+            trace.mark(stage, start + stage * step);
+        }
+        trace.readout();
+        trace.end(false);
+    }
+
+    @Test
+    public void should_keep_the_most_recent_records() {
+        final LatencyTrace trace = new LatencyTrace(3);
+        for (int i = 0; i < 5; i++) {
+            record(trace, i * 1000L, 10);
+        }
+
+        final long[] records = new long[trace.size() * LatencyTrace.STAGE_COUNT];
+        assertThat(trace.copyTo(records), CoreMatchers.equalTo(3));
+        assertThat(trace.getCount(), CoreMatchers.equalTo(5L));
+        assertThat(records[0], CoreMatchers.equalTo(2000L));
+        assertThat(records[LatencyTrace.STAGE_COUNT], CoreMatchers.equalTo(3000L));
+        assertThat(records[2 * LatencyTrace.STAGE_COUNT + LatencyTrace.STAGE_AIR_QUALITY], CoreMatchers.equalTo(4050L));
+    }
+
+    @Test
+    public void should_aggregate_stage_durations() {
+        final LatencyTrace trace = new LatencyTrace(8);
+        record(trace, 0, 10);
+        record(trace, 1000, 30);
+
+        final RunningStatistics converted = new RunningStatistics();
+        trace.aggregate(LatencyTrace.STAGE_CONVERTED, converted);
+        assertThat(converted.getMean(), CoreMatchers.equalTo(20.0));
+        assertThat(converted.getMax(), CoreMatchers.equalTo(30.0));
+
+        final RunningStatistics total = new RunningStatistics();
+        trace.aggregate(LatencyTrace.STAGE_REQUESTED, total);
+        assertThat(total.getMin(), CoreMatchers.equalTo(50.0));
+        assertThat(total.getMax(), CoreMatchers.equalTo(150.0));
+    }
+
+    @Test
+    public void should_skip_stages_a_failed_sample_never_reached() {
+        final LatencyTrace trace = new LatencyTrace(4);
+        trace.begin(0);
+        trace.mark(LatencyTrace.STAGE_TRIGGERED, 5000);
+        trace.end(true);
+
+        final RunningStatistics readOut = new RunningStatistics();
+        trace.aggregate(LatencyTrace.STAGE_READ_OUT, readOut);
+        assertThat(readOut.getCount(), CoreMatchers.equalTo(0L));
+        assertThat(trace.toString(), CoreMatchers.equalTo("0 triggered=5.0 converted=- read out=- compensated=- air quality=- total=5.0 readouts=0 failed\n"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Encode and decode throughput and size of {@link ReadingEncoder} on a synthetic day of readings.
+ * Run from the IDE, it is not part of the unit tests.
+ */
+public class ReadingCodecBenchmark {
+
+    private static final int READINGS = 86400;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(READINGS, 42);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(READINGS * 16);
+        final Data data = new Data();
+
+        byte[] encoded = null;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+            out.reset();
+            final long encodeStart = System.nanoTime();
+            final ReadingEncoder encoder = new ReadingEncoder(out);
+            for (int i = 0; i < READINGS; i++) {
+                encoder.write(trace.timestamps[i], trace.readings[i]);
+            }
+            encoder.flush();
+            final long encodeEnd = System.nanoTime();
+            encoded = out.toByteArray();
+
+            final long decodeStart = System.nanoTime();
+            final ReadingDecoder decoder = new ReadingDecoder(new ByteArrayInputStream(encoded));
+            while (decoder.read(data)) {
+                // Drain
+            }
+            final long decodeEnd = System.nanoTime();
+
+            if (round >= WARM_UP_ROUNDS) {
+                encodeNanos += encodeEnd - encodeStart;
+                decodeNanos += decodeEnd - decodeStart;
+            }
+        }
+
+        final double readings = (double) READINGS * ROUNDS;
+        System.out.println(String.format(Locale.US, "bytes/reading: %.2f (raw floats: %d)", encoded.length / (double) READINGS, 8 + 4 * 4));
+        System.out.println(String.format(Locale.US, "encode: %.1f M readings/s", readings / encodeNanos * 1000));
+        System.out.println(String.format(Locale.US, "decode: %.1f M readings/s", readings / decodeNanos * 1000));
+    }
+}
@@ -0,0 +1,93 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class ReadingCodecTest {
+
+    private static byte[] encode(final SyntheticTrace trace, final int blockSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ReadingEncoder encoder = new ReadingEncoder(out, blockSize);
+        for (int i = 0; i < trace.readings.length; i++) {
+            encoder.write(trace.timestamps[i], trace.readings[i]);
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void should_round_trip_readings() throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(1000, 1);
+        final ReadingDecoder decoder = new ReadingDecoder(new ByteArrayInputStream(encode(trace, 64)));
+        final Data data = new Data();
+
+        for (int i = 0; i < trace.readings.length; i++) {
+            assertThat(decoder.read(data), CoreMatchers.is(true));
+            assertThat(decoder.getTimestamp(), CoreMatchers.equalTo(trace.timestamps[i]));
+            assertThat(decoder.getTemperature(), CoreMatchers.equalTo(ReadingEncoder.toTemperature(trace.readings[i].temperature)));
+            assertThat(decoder.getHumidity(), CoreMatchers.equalTo(ReadingEncoder.toHumidity(trace.readings[i].humidity)));
+            assertThat(decoder.getPressure(), CoreMatchers.equalTo(ReadingEncoder.toPressure(trace.readings[i].pressure)));
+            assertThat(data.gasResistance, CoreMatchers.equalTo(trace.readings[i].gasResistance));
+        }
+        assertThat(decoder.read(data), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_fit_a_reading_in_a_few_bytes() throws IOException {
+        final SyntheticTrace trace = new SyntheticTrace(10000, 2);
+
+        final double bytesPerReading = encode(trace, ReadingEncoder.DEFAULT_BLOCK_SIZE).length / (double) trace.readings.length;
+
+        assertThat("bytes per reading " + bytesPerReading, bytesPerReading < 10.0, CoreMatchers.is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_corrupt_block() throws IOException {
+        final byte[] encoded = encode(new SyntheticTrace(10, 3), 10);
+        encoded[encoded.length / 2] ^= 0x01;
+
+        final ReadingDecoder decoder = new ReadingDecoder(new ByteArrayInputStream(encoded));
+        decoder.next();
+    }
+
+    @Test
+    public void should_skip_any_number_of_empty_blocks() throws IOException {
+        // Magic, version, no readings, no payload and the checksum of nothing
+        final byte[] empty = {ReadingEncoder.MAGIC, ReadingEncoder.VERSION, 0, 0, 0, 0, 0, 0};
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100000; i++) {
+            out.write(empty);
+        }
+
+        final ReadingDecoder decoder = new ReadingDecoder(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(decoder.read(new Data()), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_reject_a_block_larger_than_the_encoder_writes() throws IOException {
+        // 10^8 readings and a payload of 7 * 10^8 bytes, which passes the length bound if the product overflows an int
+        final byte[] header = {ReadingEncoder.MAGIC, ReadingEncoder.VERSION,
+            (byte) 0x80, (byte) 0xC2, (byte) 0xD7, 0x2F,
+            (byte) 0x80, (byte) 0xCE, (byte) 0xE4, (byte) 0xCD, 0x02};
+
+        final ReadingDecoder decoder = new ReadingDecoder(new ByteArrayInputStream(header));
+        try {
+            decoder.read(new Data());
+            throw new AssertionError("Corrupt header was accepted");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), CoreMatchers.equalTo("Corrupt block header"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_a_block_size_above_the_maximum() {
+        new ReadingEncoder(new ByteArrayOutputStream(), ReadingEncoder.MAX_BLOCK_SIZE + 1);
+    }
+}
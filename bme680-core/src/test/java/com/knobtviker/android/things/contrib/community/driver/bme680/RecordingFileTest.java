@@ -0,0 +1,109 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class RecordingFileTest {
+
+    private static final int BLOCK_SIZE = 100;
+    private static final int READINGS = 1050;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // One reading per second, temperature rising by a hundredth of a degree per reading
+    private File record() throws IOException {
+        final File file = folder.newFile("recording.bin");
+        try (RecordingWriter writer = new RecordingWriter(file, BLOCK_SIZE)) {
+            for (int i = 0; i < READINGS; i++) {
+                writer.write(i * 1000L, 2000 + i, 50000, 101325, 100000 + i);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void should_index_every_block() throws IOException {
+        try (RecordingFile recording = new RecordingFile(record())) {
+            assertThat(recording.getBlockCount(), CoreMatchers.equalTo(11));
+            assertThat(recording.getReadingCount(), CoreMatchers.equalTo((long) READINGS));
+            assertThat(recording.getFirstTimestamp(), CoreMatchers.equalTo(0L));
+            assertThat(recording.getLastTimestamp(), CoreMatchers.equalTo((READINGS - 1) * 1000L));
+        }
+    }
+
+    @Test
+    public void should_read_a_time_range() throws IOException {
+        try (RecordingFile recording = new RecordingFile(record())) {
+            final long[] timestamps = new long[READINGS];
+            final float[] temperature = new float[READINGS];
+            final float[] gas = new float[READINGS];
+            final int count = recording.read(250500, 420000, timestamps, temperature, new float[READINGS], new float[READINGS], gas);
+
+            assertThat(count, CoreMatchers.equalTo(169));
+            assertThat(timestamps[0], CoreMatchers.equalTo(251000L));
+            assertThat(temperature[0], CoreMatchers.equalTo(22.51f));
+            assertThat(gas[count - 1], CoreMatchers.equalTo(100419f));
+        }
+    }
+
+    @Test
+    public void should_scan_for_values_within_bounds() throws IOException {
+        try (RecordingFile recording = new RecordingFile(record())) {
+            final long[] timestamps = new long[READINGS];
+            final int count = recording.scan(RollupStore.CHANNEL_TEMPERATURE, 25.0f, 25.05f, 0, Long.MAX_VALUE,
+                timestamps, new float[READINGS], new float[READINGS], new float[READINGS], new float[READINGS]);
+
+            assertThat(count, CoreMatchers.equalTo(6));
+            assertThat(timestamps[0], CoreMatchers.equalTo(500000L));
+        }
+    }
+
+    @Test
+    public void should_aggregate_from_summaries_and_partial_blocks() throws IOException {
+        try (RecordingFile recording = new RecordingFile(record())) {
+            final RollupStore.Aggregate aggregate = recording.query(RollupStore.CHANNEL_GAS_RESISTANCE, 50000, 1000000, new RollupStore.Aggregate());
+
+            assertThat(aggregate.getCount(), CoreMatchers.equalTo(950L));
+            assertThat(aggregate.getMin(), CoreMatchers.equalTo(100050f));
+            assertThat(aggregate.getMax(), CoreMatchers.equalTo(100999f));
+            assertThat(aggregate.getMean(), CoreMatchers.equalTo(100524.5f));
+        }
+    }
+
+    @Test
+    public void should_keep_summary_sums_exact() throws IOException {
+        final File file = folder.newFile("large.bin");
+        try (RecordingWriter writer = new RecordingWriter(file, 3)) {
+            for (int i = 0; i < 3; i++) {
+                writer.write(i * 1000L, 2000, 50000, 101325, (1 << 24) + 1);
+            }
+        }
+
+        try (RecordingFile recording = new RecordingFile(file)) {
+            final RollupStore.Aggregate aggregate = recording.query(RollupStore.CHANNEL_GAS_RESISTANCE, 0, Long.MAX_VALUE, new RollupStore.Aggregate());
+
+            // Three times 2^24 + 1 is not representable as a float
+            assertThat(aggregate.getCount(), CoreMatchers.equalTo(3L));
+            assertThat(aggregate.sum, CoreMatchers.equalTo(3.0 * ((1 << 24) + 1)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_a_truncated_recording() throws IOException {
+        final File file = record();
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 1);
+        }
+        new RecordingFile(file).close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class RollupStoreTest {
+
+    private static Data reading(final float temperature) {
+        final Data data = new Data();
+        data.temperature = temperature;
+        data.humidity = 40.0f;
+        data.pressure = 1013.25f;
+        return data;
+    }
+
+    @Test
+    public void should_roll_up_seconds_into_minutes() {
+        final RollupStore store = new RollupStore(60, 60, 24);
+        final RollupStore.Aggregate aggregate = new RollupStore.Aggregate();
+
+        // Two readings per second for two minutes, temperature equals the minute
+        for (long t = 0; t < 120000; t += 500) {
+            store.add(t, reading(t / 60000));
+        }
+
+        store.query(RollupStore.LEVEL_MINUTE, RollupStore.CHANNEL_TEMPERATURE, 60000, 120000, aggregate);
+        assertThat(aggregate.getCount(), CoreMatchers.equalTo(120L));
+        assertThat(aggregate.getMean(), CoreMatchers.equalTo(1.0f));
+
+        store.query(RollupStore.LEVEL_HOUR, RollupStore.CHANNEL_TEMPERATURE, 0, 3600000, aggregate);
+        assertThat(aggregate.getCount(), CoreMatchers.equalTo(240L));
+        assertThat(aggregate.getMin(), CoreMatchers.equalTo(0.0f));
+        assertThat(aggregate.getMax(), CoreMatchers.equalTo(1.0f));
+    }
+
+    @Test
+    public void should_keep_only_capacity_buckets() {
+        final RollupStore store = new RollupStore(10, 10, 10);
+        final long[] timestamps = new long[20];
+        final float[] min = new float[20];
+        final float[] max = new float[20];
+        final float[] mean = new float[20];
+        final int[] count = new int[20];
+
+        for (int second = 0; second < 100; second++) {
+            store.add(second * 1000L, reading(second));
+        }
+
+        final int written = store.read(RollupStore.LEVEL_SECOND, RollupStore.CHANNEL_TEMPERATURE, 0, Long.MAX_VALUE, timestamps, min, max, mean, count);
+        assertThat(written, CoreMatchers.equalTo(10));
+        assertThat(timestamps[0], CoreMatchers.equalTo(90000L));
+        assertThat(mean[9], CoreMatchers.equalTo(99.0f));
+    }
+
+    @Test
+    public void should_exclude_the_end_of_a_range_before_zero() {
+        final RollupStore store = new RollupStore(10, 10, 10);
+        store.add(0, reading(21.0f));
+
+        final RollupStore.Aggregate aggregate = store.query(RollupStore.LEVEL_SECOND, RollupStore.CHANNEL_TEMPERATURE, -5000, 0, new RollupStore.Aggregate());
+        assertThat(aggregate.getCount(), CoreMatchers.equalTo(0L));
+        assertThat(store.read(RollupStore.LEVEL_SECOND, RollupStore.CHANNEL_TEMPERATURE, -5000, 0,
+            new long[1], new float[1], new float[1], new float[1], new int[1]), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_skip_missing_gas_readings() {
+        final RollupStore store = new RollupStore();
+        final RollupStore.Aggregate aggregate = new RollupStore.Aggregate();
+
+        store.add(0, reading(20.0f));
+
+        store.query(RollupStore.LEVEL_SECOND, RollupStore.CHANNEL_GAS_RESISTANCE, 0, 1000, aggregate);
+        assertThat(aggregate.getCount(), CoreMatchers.equalTo(0L));
+    }
+}
@@ -0,0 +1,54 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class SampleFifoTest {
+
+    @Test
+    public void should_return_samples_oldest_first_with_their_timestamps() {
+        final SampleFifo fifo = new SampleFifo(4, 2);
+        final float[] sample = new float[2];
+
+        fifo.offer(100, new float[]{1f, 10f});
+        fifo.offer(200, new float[]{2f, 20f});
+        assertThat(fifo.size(), CoreMatchers.equalTo(2));
+        assertThat(fifo.getOldestTimestamp(), CoreMatchers.equalTo(100L));
+
+        assertThat(fifo.poll(sample), CoreMatchers.equalTo(100L));
+        assertThat(sample[0], CoreMatchers.equalTo(1f));
+        assertThat(sample[1], CoreMatchers.equalTo(10f));
+        assertThat(fifo.poll(sample), CoreMatchers.equalTo(200L));
+        assertThat(sample[1], CoreMatchers.equalTo(20f));
+        assertThat(fifo.isEmpty(), CoreMatchers.is(true));
+        assertThat(fifo.getOldestTimestamp(), CoreMatchers.equalTo(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void should_drop_the_oldest_sample_when_full() {
+        final SampleFifo fifo = new SampleFifo(3, 1);
+        final float[] sample = new float[1];
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(fifo.offer(i, new float[]{i}), CoreMatchers.is(true));
+        }
+        assertThat(fifo.isFull(), CoreMatchers.is(true));
+        assertThat(fifo.offer(3, new float[]{3f}), CoreMatchers.is(false));
+        assertThat(fifo.offer(4, new float[]{4f}), CoreMatchers.is(false));
+
+        assertThat(fifo.getDroppedCount(), CoreMatchers.equalTo(2L));
+        assertThat(fifo.size(), CoreMatchers.equalTo(3));
+        for (int i = 2; i < 5; i++) {
+            assertThat(fifo.poll(sample), CoreMatchers.equalTo((long) i));
+            assertThat(sample[0], CoreMatchers.equalTo((float) i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_reject_polling_an_empty_fifo() {
+        new SampleFifo(1, 1).poll(new float[1]);
+    }
+}
@@ -0,0 +1,54 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+public class SelfHeatingModelTest {
+
+    @Test
+    public void should_settle_at_the_steady_rise_of_the_duty_cycle() {
+        final SelfHeatingModel model = new SelfHeatingModel(0.05f, 60000);
+
+        float corrected = 0.0f;
+        for (int i = 0; i <= 200; i++) {
+            // Sensor reads 22.7 degrees of which 0.7 is self-heating: 0.05 x 150 / 3000 x (320 - 22)
+            corrected = model.update(i * 3000L, 22.745f, 320, 150);
+        }
+
+        assertThat(Math.abs(model.getRise() - 0.745f) < 0.01f, CoreMatchers.is(true));
+        assertThat(Math.abs(corrected - 22.0f) < 0.01f, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_follow_a_faster_sampling_rate_and_cool_down_without_gas() {
+        final SelfHeatingModel model = new SelfHeatingModel(0.05f, 60000);
+
+        long timestamp = 0;
+        for (int i = 0; i < 200; i++) {
+            model.update(timestamp += 3000, 22.0f, 320, 150);
+        }
+        final float slow = model.getRise();
+        for (int i = 0; i < 600; i++) {
+            model.update(timestamp += 1000, 22.0f, 320, 150);
+        }
+        assertThat(model.getRise() > 2.5f * slow, CoreMatchers.is(true));
+
+        for (int i = 0; i < 200; i++) {
+            model.update(timestamp += 3000, 22.0f, 320, 0);
+        }
+        assertThat(model.getRise() < 0.01f, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_raise_humidity_when_lowering_temperature() {
+        // Same vapour pressure, 1 degree cooler gives about 6% more relative humidity
+        final float humidity = SelfHeatingModel.correctHumidity(40.0f, 23.0f, 22.0f);
+
+        assertThat(Math.abs(humidity / 40.0f - 1.064f) < 0.005f, CoreMatchers.is(true));
+        assertThat(SelfHeatingModel.correctHumidity(98.0f, 25.0f, 20.0f), CoreMatchers.equalTo(100.0f));
+        assertThat(SelfHeatingModel.correctHumidity(40.0f, 23.0f, 23.0f), CoreMatchers.equalTo(40.0f));
+    }
+}
@@ -0,0 +1,34 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import java.util.Random;
+
+/**
+ * Indoor BME680 readings at one sample per second with the sensor's output resolution:
+ * slow daily temperature and humidity swings, weather driven pressure and a noisy gas resistance.
+ */
+class SyntheticTrace {
+
+    final long[] timestamps;
+    final Data[] readings;
+
+    SyntheticTrace(final int length, final long seed) {
+        final Random random = new Random(seed);
+        timestamps = new long[length];
+        readings = new Data[length];
+
+        long timestamp = 1500000000000L;
+        for (int i = 0; i < length; i++) {
+            final double day = i / 86400.0 * 2 * Math.PI;
+            final Data data = new Data();
+            data.temperature = Math.round((22.0 + 1.5 * Math.sin(day) + random.nextGaussian() * 0.02) * 100) / 100.0f;
+            data.humidity = Math.round((45.0 - 5.0 * Math.sin(day) + random.nextGaussian() * 0.05) * 1000) / 1000.0f;
+            data.pressure = Math.round((1013.0 + 3.0 * Math.sin(day / 3) + random.nextGaussian() * 0.01) * 100) / 100.0f;
+            data.gasResistance = (int) (120000 + 20000 * Math.sin(day * 4) + random.nextGaussian() * 500);
+            readings[i] = data;
+
+            // Sampling jitter of a few milliseconds
+            timestamps[i] = timestamp;
+            timestamp += 1000 + random.nextInt(5) - 2;
+        }
+    }
+}
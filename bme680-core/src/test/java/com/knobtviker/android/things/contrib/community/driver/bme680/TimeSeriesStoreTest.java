@@ -0,0 +1,138 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TimeSeriesStoreTest {
+
+    private static final int CHUNK_SIZE = 16;
+
+    // Reading at second i with every channel equal to i
+    private static void appendSeconds(final TimeSeries series, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            series.append(i * 1000L, i, i, i, i);
+        }
+    }
+
+    @Test
+    public void should_read_a_time_range_across_chunks() {
+        final TimeSeries series = new TimeSeries(CHUNK_SIZE, 3600 * 1000L);
+        appendSeconds(series, 0, 100);
+
+        final long[] timestamps = new long[100];
+        final float[] temperature = new float[100];
+        final float[] humidity = new float[100];
+        final float[] pressure = new float[100];
+        final float[] gas = new float[100];
+        final int count = series.read(10500, 40000, timestamps, temperature, humidity, pressure, gas);
+
+        assertThat(count, CoreMatchers.equalTo(29));
+        assertThat(timestamps[0], CoreMatchers.equalTo(11000L));
+        assertThat(timestamps[count - 1], CoreMatchers.equalTo(39000L));
+        assertThat(gas[count - 1], CoreMatchers.equalTo(39f));
+        assertThat(series.getChunkCount(), CoreMatchers.equalTo(7));
+
+        // Limited by the arrays
+        assertThat(series.read(0, Long.MAX_VALUE, new long[5], new float[5], new float[5], new float[5], new float[5]), CoreMatchers.equalTo(5));
+    }
+
+    @Test
+    public void should_aggregate_a_channel() {
+        final TimeSeries series = new TimeSeries(CHUNK_SIZE, 3600 * 1000L);
+        appendSeconds(series, 0, 50);
+
+        final RollupStore.Aggregate aggregate = series.query(RollupStore.CHANNEL_PRESSURE, 20000, 30000, new RollupStore.Aggregate());
+
+        assertThat(aggregate.getCount(), CoreMatchers.equalTo(10L));
+        assertThat(aggregate.getMin(), CoreMatchers.equalTo(20f));
+        assertThat(aggregate.getMax(), CoreMatchers.equalTo(29f));
+        assertThat(aggregate.getMean(), CoreMatchers.equalTo(24.5f));
+    }
+
+    @Test
+    public void should_find_equal_timestamps_across_a_chunk_boundary() {
+        final TimeSeries series = new TimeSeries(2, 3600 * 1000L);
+        series.append(1, 1f, 1f, 1f, 1f);
+        series.append(5, 2f, 2f, 2f, 2f);
+        series.append(5, 3f, 3f, 3f, 3f);
+        series.append(6, 4f, 4f, 4f, 4f);
+
+        final long[] timestamps = new long[4];
+        final float[] temperature = new float[4];
+        final int count = series.read(5, 7, timestamps, temperature, new float[4], new float[4], new float[4]);
+
+        assertThat(count, CoreMatchers.equalTo(3));
+        assertThat(timestamps[0], CoreMatchers.equalTo(5L));
+        assertThat(temperature[0], CoreMatchers.equalTo(2f));
+        assertThat(series.query(RollupStore.CHANNEL_TEMPERATURE, 5, 7, new RollupStore.Aggregate()).getCount(), CoreMatchers.equalTo(3L));
+    }
+
+    @Test
+    public void should_evict_by_age() {
+        final TimeSeries series = new TimeSeries(CHUNK_SIZE, 60 * 1000L);
+        appendSeconds(series, 0, 10000);
+
+        // One minute of retention plus at most two partial chunks
+        assertThat(series.size() <= 60 + 2 * CHUNK_SIZE, CoreMatchers.is(true));
+        // Expired readings linger for at most a chunk since the last eviction plus the rest of the oldest chunk
+        assertThat(series.query(RollupStore.CHANNEL_TEMPERATURE, 0, 10000 * 1000L - 60 * 1000L, new RollupStore.Aggregate()).getCount() <= 2 * CHUNK_SIZE, CoreMatchers.is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_readings_out_of_order() {
+        final TimeSeries series = new TimeSeries(CHUNK_SIZE, 1000);
+        series.append(2000, 0, 0, 0, 0);
+        series.append(1000, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void should_keep_a_series_per_sensor() {
+        final TimeSeriesStore store = new TimeSeriesStore(CHUNK_SIZE, 60 * 1000L);
+        final Data data = new Data();
+        data.temperature = 21f;
+        store.append("kitchen", 0, data);
+        store.append("kitchen", 1000, data);
+        store.append("garage", 0, data);
+
+        assertThat(store.getNames().size(), CoreMatchers.equalTo(2));
+        assertThat(store.getSeries("kitchen").size(), CoreMatchers.equalTo(2));
+        assertThat(store.findSeries("attic"), CoreMatchers.nullValue());
+        assertThat(store.size(), CoreMatchers.equalTo(3L));
+
+        // Stopped sensors are evicted by the store, keeping their newest chunk
+        assertThat(store.evict(10 * 60 * 1000L), CoreMatchers.equalTo(0));
+        assertThat(store.size(), CoreMatchers.equalTo(3L));
+    }
+
+    @Test
+    public void should_read_consistently_while_writing() throws InterruptedException {
+        final TimeSeries series = new TimeSeries(CHUNK_SIZE, 10 * 1000L);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                appendSeconds(series, 0, 200000);
+            }
+        });
+
+        writer.start();
+        final long[] timestamps = new long[64];
+        final float[] values = new float[64];
+        while (writer.isAlive() && failure.get() == null) {
+            final int count = series.read(0, Long.MAX_VALUE, timestamps, values, new float[64], new float[64], new float[64]);
+            for (int i = 0; i < count; i++) {
+                if (values[i] * 1000L != timestamps[i] || (i > 0 && timestamps[i] <= timestamps[i - 1])) {
+                    failure.set("Inconsistent reading at " + timestamps[i]);
+                }
+            }
+        }
+        writer.join();
+
+        assertThat(failure.get(), CoreMatchers.nullValue());
+    }
+}
@@ -0,0 +1,121 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class WindowedStatisticsTest {
+
+    private static void assertClose(final double actual, final double expected, final double tolerance) {
+        assertThat(actual + " ~ " + expected, Math.abs(actual - expected) <= tolerance, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_match_two_pass_mean_and_variance() {
+        final RunningStatistics statistics = new RunningStatistics();
+        final double[] values = {21.5, 22.0, 21.75, 23.25, 22.5};
+        for (final double value : values) {
+            statistics.add(value);
+        }
+
+        assertClose(statistics.getMean(), 22.2, 1e-12);
+        assertClose(statistics.getVariance(), 0.48125, 1e-12);
+        assertClose(statistics.getMin(), 21.5, 0);
+        assertClose(statistics.getMax(), 23.25, 0);
+    }
+
+    @Test
+    public void should_merge_like_a_single_stream() {
+        final RunningStatistics left = new RunningStatistics();
+        final RunningStatistics right = new RunningStatistics();
+        final RunningStatistics all = new RunningStatistics();
+        final Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            final double value = random.nextGaussian() * 3 + 1013;
+            (i % 3 == 0 ? left : right).add(value);
+            all.add(value);
+        }
+
+        left.merge(right);
+
+        assertThat(left.getCount(), CoreMatchers.equalTo(all.getCount()));
+        assertClose(left.getMean(), all.getMean(), 1e-9);
+        assertClose(left.getVariance(), all.getVariance(), 1e-9);
+    }
+
+    @Test
+    public void should_estimate_quantiles() {
+        final QuantileSketch sketch = new QuantileSketch(0.5, 0.95);
+        final Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(random.nextDouble() * 100);
+        }
+
+        assertClose(sketch.getQuantile(0.5), 50, 1);
+        assertClose(sketch.getQuantile(0.95), 95, 1);
+    }
+
+    @Test
+    public void should_be_exact_for_few_values() {
+        final QuantileSketch sketch = new QuantileSketch(0.5);
+        sketch.add(3);
+        sketch.add(1);
+        sketch.add(2);
+
+        assertClose(sketch.getQuantile(0.5), 2, 0);
+        assertClose(sketch.getMin(), 1, 0);
+        assertClose(sketch.getMax(), 3, 0);
+    }
+
+    @Test
+    public void should_reset_tumbling_window() {
+        final WindowedStatistics window = new WindowedStatistics(1000, 1, 0.5);
+        final WindowedStatistics.Summary summary = window.newSummary();
+
+        for (int i = 0; i < 10; i++) {
+            window.add(i * 100, 1.0);
+        }
+        window.add(1000, 5.0);
+
+        window.getSummary(summary);
+        assertThat(summary.getCount(), CoreMatchers.equalTo(1L));
+        assertClose(summary.getMean(), 5.0, 0);
+    }
+
+    @Test
+    public void should_slide_window_by_pane() {
+        final WindowedStatistics window = new WindowedStatistics(10000, 10, 0.5, 0.95);
+        final WindowedStatistics.Summary summary = window.newSummary();
+        final Random random = new Random(3);
+
+        // Values ramp up by one every second, 100 values per second
+        for (int t = 0; t < 30000; t += 10) {
+            window.add(t, t / 1000 + random.nextDouble());
+        }
+
+        window.getSummary(summary);
+        // Last ten seconds hold values from 20 to 30
+        assertThat(summary.getCount(), CoreMatchers.equalTo(1000L));
+        assertClose(summary.getMin(), 20, 0.01);
+        assertClose(summary.getMax(), 30, 0.01);
+        assertClose(summary.getQuantile(0.5), 25, 0.2);
+        assertClose(summary.getQuantile(0.95), 29.5, 0.2);
+    }
+
+    @Test
+    public void should_expire_panes_after_gap() {
+        final WindowedStatistics window = new WindowedStatistics(10000, 10, 0.5);
+        final WindowedStatistics.Summary summary = window.newSummary();
+
+        window.add(0, 1.0);
+        window.advance(60000);
+
+        window.getSummary(summary);
+        assertThat(summary.getCount(), CoreMatchers.equalTo(0L));
+        assertThat(Double.isNaN(summary.getQuantile(0)), CoreMatchers.is(true));
+    }
+}
@@ -1,6 +1,7 @@
 package com.knobtviker.android.things.contrib.community.driver.bme680;
 
 import android.hardware.Sensor;
+import android.support.annotation.Nullable;
 
 import com.google.android.things.userdriver.UserDriverManager;
 import com.google.android.things.userdriver.sensor.UserSensor;
@@ -8,6 +9,7 @@ import com.google.android.things.userdriver.sensor.UserSensorDriver;
 import com.google.android.things.userdriver.sensor.UserSensorReading;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.UUID;
 
 /**
@@ -35,6 +37,15 @@ public class Bme680SensorDriver implements AutoCloseable {
     private HumidityUserDriver mHumidityUserDriver;
     private GasUserDriver mGasUserDriver;
 
+    private MetricsExporter mMetricsExporter;
+
+    private Deadband mTemperatureDeadband;
+    private Deadband mPressureDeadband;
+    private Deadband mHumidityDeadband;
+    private Deadband mGasDeadband;
+
+    private SensorBatcher mBatcher;
+
     /**
      * Create a new framework sensor driver connected on the given bus.
      * The driver emits {@link Sensor} with pressure and temperature data when
@@ -71,6 +82,7 @@ public class Bme680SensorDriver implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
+        disableBatching();
         unregisterTemperatureSensor();
         unregisterPressureSensor();
         unregisterHumiditySensor();
@@ -197,6 +209,150 @@ public class Bme680SensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Publish every reading and the driver counters to the given exporter.
+     * Scrapes are served from the published snapshot and never trigger a conversion.
+     *
+     * @param exporter Exporter to publish to, or null to stop publishing.
+     */
+    public void setMetricsExporter(@Nullable final MetricsExporter exporter) {
+        mMetricsExporter = exporter;
+    }
+
+    /**
+     * Only publish temperature readings that leave the deadband or are due for a heartbeat.
+     * Suppressed polls return the last published reading again, which the framework drops for on-change sensors
+     * like temperature, humidity and gas. Pressure is a continuous sensor type, so its listeners see the held value.
+     *
+     * @param deadband Filter in degrees celsius, or null to publish every reading.
+     */
+    public void setTemperatureDeadband(@Nullable final Deadband deadband) {
+        mTemperatureDeadband = deadband;
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.setDeadband(SensorBatcher.TEMPERATURE, deadband);
+        }
+    }
+
+    /**
+     * Only publish pressure readings that leave the deadband or are due for a heartbeat.
+     *
+     * @param deadband Filter in hPa, or null to publish every reading.
+     * @see #setTemperatureDeadband(Deadband)
+     */
+    public void setPressureDeadband(@Nullable final Deadband deadband) {
+        mPressureDeadband = deadband;
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.setDeadband(SensorBatcher.PRESSURE, deadband);
+        }
+    }
+
+    /**
+     * Only publish humidity readings that leave the deadband or are due for a heartbeat.
+     *
+     * @param deadband Filter in % relative humidity, or null to publish every reading.
+     * @see #setTemperatureDeadband(Deadband)
+     */
+    public void setHumidityDeadband(@Nullable final Deadband deadband) {
+        mHumidityDeadband = deadband;
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.setDeadband(SensorBatcher.HUMIDITY, deadband);
+        }
+    }
+
+    /**
+     * Only publish indoor air quality readings whose gas resistance leaves the deadband or are due for a heartbeat.
+     *
+     * @param deadband Filter in Ohms, or null to publish every reading.
+     * @see #setTemperatureDeadband(Deadband)
+     */
+    public void setGasDeadband(@Nullable final Deadband deadband) {
+        mGasDeadband = deadband;
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.setDeadband(SensorBatcher.GAS, deadband);
+        }
+    }
+
+    /**
+     * Buffer readings in a FIFO per sensor and deliver them in bursts.
+     * The sensor is sampled at the given period on a dedicated thread and every reading keeps the time it was measured.
+     * Reads of a registered sensor block until its FIFO is full or its oldest reading is older than the
+     * maximum report latency, then return the queued readings oldest first until the FIFO is empty.
+     * When a FIFO overflows the oldest readings are dropped. Deadbands filter readings before they are queued.
+     *
+     * @param samplingPeriodUs   Interval between samples in microseconds.
+     * @param maxReportLatencyUs Longest time a reading is held before it is delivered, in microseconds.
+     * @param fifoSize           Number of readings held per sensor.
+     * @see #disableBatching()
+     */
+    public void enableBatching(final int samplingPeriodUs, final int maxReportLatencyUs, final int fifoSize) {
+        if (mDevice == null) {
+            throw new IllegalStateException("cannot batch on closed driver");
+        }
+        if (samplingPeriodUs < DRIVER_MIN_DELAY_US) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(), "Sampling period should be at least %d us", DRIVER_MIN_DELAY_US));
+        }
+
+        disableBatching();
+        final SensorBatcher batcher = new SensorBatcher(mDevice, samplingPeriodUs, maxReportLatencyUs, fifoSize);
+        batcher.setEnabled(SensorBatcher.TEMPERATURE, mTemperatureUserDriver != null && mTemperatureUserDriver.isEnabled());
+        batcher.setEnabled(SensorBatcher.PRESSURE, mPressureUserDriver != null && mPressureUserDriver.isEnabled());
+        batcher.setEnabled(SensorBatcher.HUMIDITY, mHumidityUserDriver != null && mHumidityUserDriver.isEnabled());
+        batcher.setEnabled(SensorBatcher.GAS, mGasUserDriver != null && mGasUserDriver.isEnabled());
+        batcher.setDeadband(SensorBatcher.TEMPERATURE, mTemperatureDeadband);
+        batcher.setDeadband(SensorBatcher.PRESSURE, mPressureDeadband);
+        batcher.setDeadband(SensorBatcher.HUMIDITY, mHumidityDeadband);
+        batcher.setDeadband(SensorBatcher.GAS, mGasDeadband);
+        batcher.start();
+        mBatcher = batcher;
+    }
+
+    /**
+     * Stop batching and go back to reading the sensor on every poll. Pending readings are discarded
+     * and reads blocked on a batch fail with an {@link IOException}.
+     */
+    public void disableBatching() {
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            mBatcher = null;
+            batcher.close();
+        }
+    }
+
+    public boolean isBatching() {
+        return mBatcher != null;
+    }
+
+    // Take the next batched reading of a sensor, or null when not batching
+    @Nullable
+    private UserSensorReading takeBatched(final int sensor) throws IOException {
+        final SensorBatcher batcher = mBatcher;
+        return batcher == null ? null : batcher.take(sensor);
+    }
+
+    // Tell the batcher whether readings of a sensor are wanted
+    private void setBatchEnabled(final int sensor, final boolean enabled) {
+        final SensorBatcher batcher = mBatcher;
+        if (batcher != null) {
+            batcher.setEnabled(sensor, enabled);
+        }
+    }
+
+    // Whether a value should be published, always without a deadband
+    private boolean changed(@Nullable final Deadband deadband, final float value) {
+        return deadband == null || deadband.update(value, mDevice.getClock().elapsedRealtime());
+    }
+
+    private void publish() {
+        final MetricsExporter exporter = mMetricsExporter;
+        if (exporter != null && mDevice != null) {
+            exporter.publish(mDevice);
+        }
+    }
+
     private class PressureUserDriver implements UserSensorDriver {
         // DRIVER parameters
         // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
@@ -207,6 +363,7 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         private boolean mEnabled;
         private UserSensor mUserSensor;
+        private UserSensorReading mReading;
 
         private UserSensor getUserSensor() {
             if (mUserSensor == null) {
@@ -229,12 +386,25 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readPressure()});
+            final UserSensorReading batched = takeBatched(SensorBatcher.PRESSURE);
+            if (batched != null) {
+                return batched;
+            }
+            try {
+                final float value = mDevice.readPressure();
+                if (changed(mPressureDeadband, value) || mReading == null) {
+                    mReading = new UserSensorReading(new float[]{value});
+                }
+                return mReading;
+            } finally {
+                publish();
+            }
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
             mEnabled = enabled;
+            setBatchEnabled(SensorBatcher.PRESSURE, enabled);
             mDevice.setPressureOversample(enabled ? Bme680.OVERSAMPLING_1X : Bme680.OVERSAMPLING_SKIPPED);
             maybeSleep();
         }
@@ -254,6 +424,7 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         private boolean mEnabled;
         private UserSensor mUserSensor;
+        private UserSensorReading mReading;
 
         private UserSensor getUserSensor() {
             if (mUserSensor == null) {
@@ -276,12 +447,25 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readTemperature()});
+            final UserSensorReading batched = takeBatched(SensorBatcher.TEMPERATURE);
+            if (batched != null) {
+                return batched;
+            }
+            try {
+                final float value = mDevice.readTemperature();
+                if (changed(mTemperatureDeadband, value) || mReading == null) {
+                    mReading = new UserSensorReading(new float[]{value});
+                }
+                return mReading;
+            } finally {
+                publish();
+            }
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
             mEnabled = enabled;
+            setBatchEnabled(SensorBatcher.TEMPERATURE, enabled);
             mDevice.setTemperatureOversample(enabled ? Bme680.OVERSAMPLING_1X : Bme680.OVERSAMPLING_SKIPPED);
             maybeSleep();
         }
@@ -305,6 +489,7 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         private boolean mEnabled;
         private UserSensor mUserSensor;
+        private UserSensorReading mReading;
 
         private UserSensor getUserSensor() {
             if (mUserSensor == null) {
@@ -327,12 +512,25 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readHumidity()});
+            final UserSensorReading batched = takeBatched(SensorBatcher.HUMIDITY);
+            if (batched != null) {
+                return batched;
+            }
+            try {
+                final float value = mDevice.readHumidity();
+                if (changed(mHumidityDeadband, value) || mReading == null) {
+                    mReading = new UserSensorReading(new float[]{value});
+                }
+                return mReading;
+            } finally {
+                publish();
+            }
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
             mEnabled = enabled;
+            setBatchEnabled(SensorBatcher.HUMIDITY, enabled);
             mDevice.setHumidityOversample(enabled ? Bme680.OVERSAMPLING_1X : Bme680.OVERSAMPLING_SKIPPED);
             maybeSleep();
         }
@@ -352,6 +550,7 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         private boolean mEnabled;
         private UserSensor mUserSensor;
+        private UserSensorReading mReading;
 
         private UserSensor getUserSensor() {
             if (mUserSensor == null) {
@@ -374,13 +573,26 @@ public class Bme680SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            final float airQuality = mDevice.readAirQuality();
-            return new UserSensorReading(new float[]{mDevice.readGasResistance(), airQuality, Math.round(((100.0f - airQuality) / 100.0f) * 500)});
+            final UserSensorReading batched = takeBatched(SensorBatcher.GAS);
+            if (batched != null) {
+                return batched;
+            }
+            try {
+                final float airQuality = mDevice.readAirQuality();
+                final float gasResistance = mDevice.readGasResistance();
+                if (changed(mGasDeadband, gasResistance) || mReading == null) {
+                    mReading = new UserSensorReading(new float[]{gasResistance, airQuality, Math.round(((100.0f - airQuality) / 100.0f) * 500)});
+                }
+                return mReading;
+            } finally {
+                publish();
+            }
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
             mEnabled = enabled;
+            setBatchEnabled(SensorBatcher.GAS, enabled);
             mDevice.setGasStatus(enabled ? Bme680.ENABLE_GAS : Bme680.DISABLE_GAS);
             if (enabled) {
                 mDevice.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
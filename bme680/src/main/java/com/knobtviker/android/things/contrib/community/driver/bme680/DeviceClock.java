@@ -0,0 +1,29 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.os.SystemClock;
+
+/**
+ * {@link Clock} backed by {@link SystemClock}, used by the driver unless another clock is given.
+ */
+public final class DeviceClock implements Clock {
+
+    public static final DeviceClock INSTANCE = new DeviceClock();
+
+    private DeviceClock() {
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long elapsedRealtimeNanos() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public void sleep(final long milliseconds) {
+        SystemClock.sleep(milliseconds);
+    }
+}
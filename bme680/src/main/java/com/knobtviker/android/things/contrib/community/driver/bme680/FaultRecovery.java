@@ -0,0 +1,199 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads a {@link Bme680} and recovers it from bus errors and chip resets.
+ * <p>
+ * Every few reads, and after any error, the chip ID and configuration registers are checked against the
+ * driver's cached settings. A mismatch means the chip was reset, eg. by a brown-out, and the cached
+ * settings and heater profiles are written back. A failed read is retried once after the check, and
+ * if that fails too, recovery is retried on a background thread with exponential backoff up to a
+ * maximum delay.
+ * <p>
+ * While the sensor is recovering, {@link #read()} returns the last good reading flagged as
+ * {@link Data#stale} without touching the bus. Other threads should not access the sensor directly
+ * while it is managed by this class.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FaultRecovery implements AutoCloseable {
+    private static final String TAG = FaultRecovery.class.getSimpleName();
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLISECONDS = 10;
+    public static final long DEFAULT_MAX_BACKOFF_MILLISECONDS = 30 * 1000;
+    public static final int DEFAULT_VERIFY_INTERVAL = 10;
+
+    private final Bme680 device;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int verifyInterval;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            final Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile boolean closed = false;
+    private volatile boolean recovering = false;
+    private volatile Data lastGood;
+    private volatile long recoveryCount;
+    private int attempts;
+    private long reads;
+
+    public FaultRecovery(@NonNull final Bme680 device) {
+        this(device, DEFAULT_INITIAL_BACKOFF_MILLISECONDS, DEFAULT_MAX_BACKOFF_MILLISECONDS, DEFAULT_VERIFY_INTERVAL);
+    }
+
+    /**
+     * Create a new recovery layer.
+     *
+     * @param device         Sensor to read and recover.
+     * @param initialBackoff Delay before the first retry in milliseconds.
+     * @param maxBackoff     Maximum delay between retries in milliseconds.
+     * @param verifyInterval Number of reads between configuration checks.
+     */
+    public FaultRecovery(@NonNull final Bme680 device, final long initialBackoff, final long maxBackoff, final int verifyInterval) {
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Backoff should be positive and not exceed its maximum");
+        }
+        if (verifyInterval < 1) {
+            throw new IllegalArgumentException("Verify interval should be positive");
+        }
+        this.device = device;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.verifyInterval = verifyInterval;
+    }
+
+    /**
+     * Read all channels, or the last good reading flagged as stale while the sensor is recovering.
+     *
+     * @return A new reading.
+     * @throws IOException           if the read failed and there is no previous reading to fall back on.
+     * @throws IllegalStateException if this recovery layer was closed.
+     */
+    @NonNull
+    public Data read() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Fault recovery closed");
+        }
+        if (recovering || !lock.tryLock()) {
+            return stale(null);
+        }
+
+        try {
+            if (++reads % verifyInterval == 0) {
+                restoreIfLost();
+            }
+            return readGood();
+        } catch (IOException e) {
+            Log.w(TAG, e.getMessage(), e);
+            try {
+                // Retry once on a chip that is verified or restored, before falling back to background recovery
+                restoreIfLost();
+                return readGood();
+            } catch (IOException retry) {
+                Log.w(TAG, retry.getMessage(), retry);
+                startRecovery();
+                return stale(retry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether a recovery is in progress
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    // Number of times the configuration was restored
+    public long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    private Data readGood() throws IOException {
+        final Data data = device.readData();
+        data.stale = false;
+        lastGood = data;
+
+        final Data result = new Data();
+        result.set(data);
+        return result;
+    }
+
+    private void restoreIfLost() throws IOException {
+        if (!device.verifyConfiguration()) {
+            Log.w(TAG, "Configuration lost, restoring");
+            device.restoreConfiguration();
+            recoveryCount++;
+        }
+    }
+
+    private Data stale(final IOException cause) throws IOException {
+        final Data last = lastGood;
+        if (last == null) {
+            throw cause != null ? cause : new IOException("Sensor is recovering and has no previous reading");
+        }
+
+        final Data result = new Data();
+        result.set(last);
+        result.stale = true;
+        return result;
+    }
+
+    private void startRecovery() {
+        if (recovering) {
+            return;
+        }
+        recovering = true;
+        attempts = 0;
+        try {
+            executor.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            recovering = false;
+        }
+    }
+
+    private final Runnable attempt = new Runnable() {
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                restoreIfLost();
+                recovering = false;
+            } catch (IOException e) {
+                final long backoff = Math.min(initialBackoff << Math.min(attempts, 30), maxBackoff);
+                attempts++;
+                Log.w(TAG, "Recovery attempt " + attempts + " failed, retrying in " + backoff + " ms", e);
+                executor.schedule(this, backoff, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                // Closed driver, nothing left to recover
+                Log.e(TAG, e.getMessage(), e);
+                recovering = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+}
@@ -20,4 +20,16 @@ class GasSettings {
 
     // Store duration profile
     int heaterDuration;
+
+    // Heater resistance register values written per profile
+    final byte[] heaterResistances = new byte[Bme680.PROFILE_9 + 1];
+
+    // Gas wait register values written per profile
+    final byte[] heaterDurations = new byte[Bme680.PROFILE_9 + 1];
+
+    // Bit set of profiles with heater registers written
+    int heaterProfiles;
+
+    // gas_wait_shared register value of the parallel heater profile, -1 when none was set
+    int sharedHeaterDuration = -1;
 }
@@ -0,0 +1,39 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link Transport} over an I2C device.
+ */
+class I2cTransport implements Transport {
+
+    private final I2cDevice device;
+
+    I2cTransport(@NonNull final I2cDevice device) {
+        this.device = device;
+    }
+
+    @Override
+    public byte readRegByte(final int reg) throws IOException {
+        return device.readRegByte(reg);
+    }
+
+    @Override
+    public void readRegBuffer(final int reg, final byte[] buffer, final int length) throws IOException {
+        device.readRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public void writeRegByte(final int reg, final byte data) throws IOException {
+        device.writeRegByte(reg, data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        device.close();
+    }
+}
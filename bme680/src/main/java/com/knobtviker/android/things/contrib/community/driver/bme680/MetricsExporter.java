@@ -0,0 +1,329 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Serves the latest published readings and driver counters in the Prometheus text format.
+ * <p>
+ * A single thread runs a non-blocking NIO selector on a local port and answers {@code GET /metrics}.
+ * Responses are rendered from the last snapshot handed to {@link #publish(Bme680)}, so a scrape never
+ * touches the bus and never waits for the acquisition path.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class MetricsExporter implements AutoCloseable {
+    private static final String TAG = MetricsExporter.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 9680;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int MAX_REQUEST_LENGTH = 4096;
+
+    private final InetSocketAddress address;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile Snapshot snapshot = new Snapshot(null, 0, 0, 0);
+    private long scrapeCount;
+
+    /**
+     * Create a new exporter on the loopback interface.
+     *
+     * @param port Local port to listen on, 0 for any free port.
+     */
+    public MetricsExporter(final int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Create a new exporter.
+     *
+     * @param address Local address and port to listen on.
+     */
+    public MetricsExporter(@NonNull final InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Bind the port and start serving on a dedicated thread.
+     *
+     * @throws IOException if the port could not be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("exporter already started");
+        }
+
+        selector = Selector.open();
+        try {
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        running = true;
+        thread = new Thread(loop, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Port the exporter listens on, -1 when not started
+    public int getPort() {
+        final ServerSocketChannel channel = server;
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * Publish the latest reading and counters of a sensor. Does not access the bus.
+     *
+     * @param device Sensor whose last reading is published.
+     */
+    public void publish(@NonNull final Bme680 device) {
+        final Data data = new Data();
+        final long conversionCount;
+        final long errorCount;
+        // Conversions rewrite the reading in place while holding the sensor lock
+        synchronized (device) {
+            data.set(device.getData());
+            conversionCount = device.getConversionCount();
+            errorCount = device.getErrorCount();
+        }
+        snapshot = new Snapshot(data, conversionCount, errorCount, System.currentTimeMillis());
+    }
+
+    @Override
+    public void close() throws IOException {
+        final Thread worker;
+        synchronized (this) {
+            running = false;
+            worker = thread;
+            thread = null;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+        if (worker != null) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Runnable loop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else if (key.isReadable()) {
+                                read(key);
+                            } else if (key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException e) {
+                            // Only the failed connection is dropped, the server keeps listening
+                            if (key.channel() instanceof SocketChannel) {
+                                key.cancel();
+                                key.channel().close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage(), e);
+            } finally {
+                closeQuietly();
+            }
+        }
+    };
+
+    // A failed accept, eg. when out of file descriptors, is logged and the server stays open
+    private void accept() {
+        final SocketChannel channel;
+        try {
+            channel = server.accept();
+        } catch (IOException e) {
+            Log.w(TAG, "Accept failed", e);
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAX_REQUEST_LENGTH));
+        } catch (IOException e) {
+            Log.w(TAG, "Accept failed", e);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void read(@NonNull final SelectionKey key) throws IOException {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final ByteBuffer request = (ByteBuffer) key.attachment();
+        if (channel.read(request) == -1) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+
+        final int end = headerEnd(request);
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                respond(key, "431 Request Header Fields Too Large", "");
+            }
+            return;
+        }
+
+        final String head = new String(request.array(), 0, end, UTF_8);
+        final String line = head.substring(0, Math.max(head.indexOf('\r'), 0));
+        if (line.startsWith("GET /metrics ") || line.startsWith("GET /metrics?")) {
+            scrapeCount++;
+            respond(key, "200 OK", render(snapshot));
+        } else if (line.startsWith("GET ")) {
+            respond(key, "404 Not Found", "");
+        } else {
+            respond(key, "405 Method Not Allowed", "");
+        }
+    }
+
+    private void write(@NonNull final SelectionKey key) throws IOException {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final ByteBuffer response = (ByteBuffer) key.attachment();
+        channel.write(response);
+        if (!response.hasRemaining()) {
+            key.cancel();
+            channel.close();
+        }
+    }
+
+    private void respond(@NonNull final SelectionKey key, @NonNull final String status, @NonNull final String body) {
+        final byte[] content = body.getBytes(UTF_8);
+        final String header = "HTTP/1.1 " + status + "\r\n"
+            + "Content-Type: " + CONTENT_TYPE + "\r\n"
+            + "Content-Length: " + content.length + "\r\n"
+            + "Connection: close\r\n\r\n";
+        final byte[] head = header.getBytes(UTF_8);
+
+        final ByteBuffer response = ByteBuffer.allocate(head.length + content.length);
+        response.put(head).put(content).flip();
+        key.attach(response);
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    // Index just past the blank line ending the request header, -1 if not received yet
+    private static int headerEnd(@NonNull final ByteBuffer request) {
+        final byte[] bytes = request.array();
+        for (int i = 3; i < request.position(); i++) {
+            if (bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    @NonNull
+    String render(@NonNull final Snapshot snapshot) {
+        final StringBuilder builder = new StringBuilder(1024);
+        final Data data = snapshot.data;
+        if (data != null) {
+            gauge(builder, "bme680_temperature_celsius", "Compensated temperature.", String.valueOf(data.temperature));
+            gauge(builder, "bme680_humidity_percent", "Compensated relative humidity.", String.valueOf(data.humidity));
+            gauge(builder, "bme680_pressure_pascals", "Compensated pressure.", String.valueOf(data.pressure * 100.0f));
+            gauge(builder, "bme680_gas_resistance_ohms", "Compensated gas resistance.", String.valueOf(data.gasResistance));
+            gauge(builder, "bme680_corrected_gas_resistance_ohms", "Gas resistance corrected for temperature and humidity.", String.valueOf(data.correctedGasResistance));
+            gauge(builder, "bme680_air_quality_score", "Indoor air quality score, higher is better.", String.valueOf(data.airQualityScore));
+            gauge(builder, "bme680_heater_stable", "Whether the gas heater reached its target temperature.", data.heaterStable ? "1" : "0");
+            gauge(builder, "bme680_last_reading_timestamp_seconds", "Time the last reading was published.", String.valueOf(snapshot.timestamp / 1000.0));
+        }
+        counter(builder, "bme680_conversions_total", "Completed forced conversions.", snapshot.conversionCount);
+        counter(builder, "bme680_errors_total", "Reads failed with an I/O error.", snapshot.errorCount);
+        counter(builder, "bme680_scrapes_total", "Metrics requests served.", scrapeCount);
+        return builder.toString();
+    }
+
+    private static void gauge(@NonNull final StringBuilder builder, @NonNull final String name, @NonNull final String help, @NonNull final String value) {
+        metric(builder, name, help, "gauge").append(value).append('\n');
+    }
+
+    private static void counter(@NonNull final StringBuilder builder, @NonNull final String name, @NonNull final String help, final long value) {
+        metric(builder, name, help, "counter").append(value).append('\n');
+    }
+
+    private static StringBuilder metric(@NonNull final StringBuilder builder, @NonNull final String name, @NonNull final String help, @NonNull final String type) {
+        return builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+            .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+            .append(name).append(' ');
+    }
+
+    private synchronized void closeQuietly() {
+        running = false;
+        try {
+            if (selector != null) {
+                for (final SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e.getMessage(), e);
+        } finally {
+            selector = null;
+            server = null;
+        }
+    }
+
+    /**
+     * Immutable view of a reading and the driver counters at the time it was published.
+     */
+    static final class Snapshot {
+        final Data data;
+        final long conversionCount;
+        final long errorCount;
+        final long timestamp;
+
+        Snapshot(final Data data, final long conversionCount, final long errorCount, final long timestamp) {
+            this.data = data;
+            this.conversionCount = conversionCount;
+            this.errorCount = errorCount;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MODE_PARALLEL;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MODE_SLEEP;
+
+/**
+ * Runs a BME688 in {@link Bme680#MODE_PARALLEL} and drains its data fields at a fixed poll period.
+ * <p>
+ * The chip steps through the heater profile set with {@link Bme680#setParallelHeaterProfile(int[], int[], int)}
+ * without being triggered, and keeps the last three readings in its data fields. Every poll reads all
+ * fields in a single burst and hands new readings to the callback oldest first. The poll period should
+ * be shorter than three measurement cycles, or readings are overwritten before they are drained.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ParallelAcquisition implements AutoCloseable {
+    private static final String TAG = ParallelAcquisition.class.getSimpleName();
+
+    public static final long DEFAULT_POLL_PERIOD_MILLISECONDS = 100;
+
+    /**
+     * Receives every drained reading.
+     */
+    public interface Callback {
+        void onReading(@NonNull final Data data);
+
+        void onError(@NonNull final IOException e);
+    }
+
+    private final Bme680 device;
+    private final Clock clock;
+    private final long pollPeriod;
+    private final Data[] readings = {new Data(), new Data(), new Data()};
+
+    private ScheduledExecutorService executor;
+    private Callback callback;
+
+    private volatile long readingCount;
+
+    public ParallelAcquisition(@NonNull final Bme680 device) {
+        this(device, DEFAULT_POLL_PERIOD_MILLISECONDS);
+    }
+
+    /**
+     * Create a new parallel mode acquisition for the given sensor.
+     *
+     * @param device     BME688 sensor with a parallel heater profile set.
+     * @param pollPeriod Interval between drains of the data fields in milliseconds.
+     */
+    public ParallelAcquisition(@NonNull final Bme680 device, final long pollPeriod) {
+        if (device.getVariant() != CompensationEngine.VARIANT_BME688) {
+            throw new IllegalArgumentException(String.format("Parallel mode needs a %s %s", Bme680.CHIP_VENDOR, Bme680.CHIP_NAME_BME688));
+        }
+        if (pollPeriod <= 0) {
+            throw new IllegalArgumentException("Poll period should be positive");
+        }
+        this.device = device;
+        this.clock = device.getClock();
+        this.pollPeriod = pollPeriod;
+    }
+
+    /**
+     * Switch the sensor to parallel mode and start draining on a dedicated thread.
+     *
+     * @param callback Receiver of readings and errors.
+     * @throws IOException if the sensor could not be switched to parallel mode.
+     */
+    public synchronized void start(@NonNull final Callback callback) throws IOException {
+        if (executor != null) {
+            throw new IllegalStateException("acquisition already started");
+        }
+        device.setPowerMode(MODE_PARALLEL);
+        this.callback = callback;
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.executor.scheduleAtFixedRate(tick, pollPeriod, pollPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop draining and put the sensor back to sleep.
+     *
+     * @throws IOException if the sensor could not be put to sleep.
+     */
+    public synchronized void stop() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            sleep();
+        }
+    }
+
+    /**
+     * Drain on the calling thread until the given time has passed on the sensor's {@link Clock},
+     * then put the sensor back to sleep.
+     *
+     * @param duration Time to acquire for in milliseconds.
+     * @param callback Receiver of readings and errors.
+     * @throws IOException if the sensor could not be switched to parallel mode or back to sleep.
+     */
+    public void run(final long duration, @NonNull final Callback callback) throws IOException {
+        synchronized (this) {
+            if (executor != null) {
+                throw new IllegalStateException("acquisition already started");
+            }
+        }
+        device.setPowerMode(MODE_PARALLEL);
+        try {
+            final long end = clock.elapsedRealtimeNanos() + TimeUnit.MILLISECONDS.toNanos(duration);
+            while (clock.elapsedRealtimeNanos() < end) {
+                clock.sleep(pollPeriod);
+                if (!drain(callback)) {
+                    return;
+                }
+            }
+        } finally {
+            sleep();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    // Interval between drains in milliseconds
+    public long getPollPeriod() {
+        return pollPeriod;
+    }
+
+    // Number of readings drained since start
+    public long getReadingCount() {
+        return readingCount;
+    }
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!drain(callback)) {
+                synchronized (ParallelAcquisition.this) {
+                    if (executor != null) {
+                        executor.shutdown();
+                        executor = null;
+                    }
+                }
+            }
+        }
+    };
+
+    // Hand all new readings to the callback, false if the sensor was closed
+    private boolean drain(@NonNull final Callback callback) {
+        final int count;
+        try {
+            count = device.readParallelData(readings);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            deliverError(callback, e);
+            return true;
+        } catch (IllegalStateException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+
+        // A throwing callback must not cancel the schedule or drop the other readings
+        for (int i = 0; i < count; i++) {
+            final Data data = new Data();
+            data.set(readings[i]);
+            readingCount++;
+            try {
+                callback.onReading(data);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Callback failed", e);
+            }
+        }
+        return true;
+    }
+
+    private void deliverError(@NonNull final Callback callback, @NonNull final IOException error) {
+        try {
+            callback.onError(error);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Callback failed", e);
+        }
+    }
+
+    private void sleep() throws IOException {
+        try {
+            device.setPowerMode(MODE_SLEEP);
+        } catch (IllegalStateException e) {
+            // Closed driver, already asleep
+            Log.w(TAG, e.getMessage(), e);
+        }
+    }
+}
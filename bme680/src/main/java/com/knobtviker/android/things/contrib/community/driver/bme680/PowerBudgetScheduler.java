@@ -0,0 +1,270 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.ENABLE_GAS;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MAX_POWER_CONSUMPTION_GAS_UA;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MAX_POWER_CONSUMPTION_HUMIDITY_UA;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MAX_POWER_CONSUMPTION_PRESSURE_UA;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MAX_POWER_CONSUMPTION_SLEEP_UA;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.MAX_POWER_CONSUMPTION_TEMP_UA;
+import static com.knobtviker.android.things.contrib.community.driver.bme680.Bme680.OVERSAMPLING_SKIPPED;
+
+/**
+ * Samples a {@link Bme680} at the highest rate an average current budget can sustain.
+ * Each reading is a single forced conversion followed by {@link Bme680#MODE_SLEEP} until the next one.
+ * Charge is estimated from the datasheet currents and the active oversampling and heater settings.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PowerBudgetScheduler implements AutoCloseable {
+    private static final String TAG = PowerBudgetScheduler.class.getSimpleName();
+
+    // Heater target temperature range in degrees Celsius
+    private static final float HEATER_AMBIENT_C = 25f;
+    private static final float HEATER_MAX_C = 400f;
+
+    /**
+     * Receives every scheduled reading.
+     */
+    public interface Callback {
+        void onReading(@NonNull final Data data);
+
+        void onError(@NonNull final IOException e);
+    }
+
+    private final Bme680 device;
+    private final Clock clock;
+    private final float budget;
+
+    private ScheduledExecutorService executor;
+    private Callback callback;
+
+    private volatile float chargePerReading;
+    private volatile long periodMicros;
+    private volatile long readingCount;
+    private volatile double consumedCharge;
+
+    /**
+     * Create a new scheduler for the given sensor.
+     *
+     * @param device BME680 sensor to sample.
+     * @param budget Average current budget in micro-amperes.
+     */
+    public PowerBudgetScheduler(@NonNull final Bme680 device, final float budget) {
+        if (budget <= MAX_POWER_CONSUMPTION_SLEEP_UA) {
+            throw new IllegalArgumentException(String.format(Locale.getDefault(), "Budget %.2f uA must exceed sleep current of %.2f uA", budget, MAX_POWER_CONSUMPTION_SLEEP_UA));
+        }
+        this.device = device;
+        this.clock = device.getClock();
+        this.budget = budget;
+        update();
+    }
+
+    /**
+     * Start sampling on a dedicated thread.
+     *
+     * @param callback Receiver of readings and errors.
+     */
+    public synchronized void start(@NonNull final Callback callback) {
+        if (executor != null) {
+            throw new IllegalStateException("scheduler already started");
+        }
+        this.callback = callback;
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.executor.execute(tick);
+    }
+
+    /**
+     * Stop sampling. Readings already in progress are allowed to finish.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Sample on the calling thread until the given time has passed on the sensor's {@link Clock}.
+     * Waits between readings go through the clock, so with a {@link VirtualClock} a long schedule
+     * returns as soon as its readings are taken.
+     *
+     * @param duration Time to sample for in milliseconds.
+     * @param callback Receiver of readings and errors.
+     */
+    public void run(final long duration, @NonNull final Callback callback) {
+        synchronized (this) {
+            if (executor != null) {
+                throw new IllegalStateException("scheduler already started");
+            }
+        }
+        final long end = clock.elapsedRealtimeNanos() + TimeUnit.MILLISECONDS.toNanos(duration);
+        while (clock.elapsedRealtimeNanos() < end) {
+            final long started = clock.elapsedRealtimeNanos();
+            if (!sample(callback)) {
+                return;
+            }
+            final long remaining = Math.min(periodMicros - elapsedMicros(started), TimeUnit.NANOSECONDS.toMicros(end - clock.elapsedRealtimeNanos()));
+            if (remaining > 0) {
+                clock.sleep(TimeUnit.MICROSECONDS.toMillis(remaining + 999));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    // Average current budget in micro-amperes
+    public float getBudget() {
+        return budget;
+    }
+
+    // Estimated charge of one reading in micro-coulombs, including sleep until the next reading
+    public float getChargePerReading() {
+        return chargePerReading;
+    }
+
+    // Interval between readings in milliseconds
+    public long getSamplePeriod() {
+        return TimeUnit.MICROSECONDS.toMillis(periodMicros);
+    }
+
+    // Highest sample rate in Hz sustainable within the budget
+    public float getSampleRate() {
+        return 1000000f / periodMicros;
+    }
+
+    // Number of readings taken since start
+    public long getReadingCount() {
+        return readingCount;
+    }
+
+    // Estimated charge consumed since start in micro-coulombs
+    public double getConsumedCharge() {
+        return consumedCharge;
+    }
+
+    // Recalculate the schedule from the sensor's current settings
+    public void update() {
+        final SensorSettings sensorSettings = device.getSensorSettings();
+        final GasSettings gasSettings = device.getGasSettings();
+        if (sensorSettings == null || gasSettings == null) {
+            throw new IllegalStateException("I2C device not open");
+        }
+
+        final long activeMicros = activeDuration(sensorSettings, gasSettings);
+        final double activeCharge = activeCharge(sensorSettings, gasSettings);
+        final long period = samplePeriod(activeMicros, activeCharge, budget);
+
+        this.periodMicros = period;
+        this.chargePerReading = (float) (activeCharge + MAX_POWER_CONSUMPTION_SLEEP_UA * (period - activeMicros) / 1e6);
+    }
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            final long started = clock.elapsedRealtimeNanos();
+            if (!sample(callback)) {
+                stop();
+                return;
+            }
+
+            synchronized (PowerBudgetScheduler.this) {
+                if (executor != null) {
+                    executor.schedule(this, Math.max(0, periodMicros - elapsedMicros(started)), TimeUnit.MICROSECONDS);
+                }
+            }
+        }
+    };
+
+    // Take one reading, false if the sensor was closed
+    private boolean sample(@NonNull final Callback callback) {
+        final Data data;
+        try {
+            update();
+            // The chip returns to sleep by itself once the forced conversion completes
+            data = device.readData();
+            readingCount++;
+            consumedCharge += chargePerReading;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            deliverError(callback, e);
+            return true;
+        } catch (IllegalStateException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+
+        // A throwing callback must not cancel the schedule
+        try {
+            callback.onReading(data);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Callback failed", e);
+        }
+        return true;
+    }
+
+    private void deliverError(@NonNull final Callback callback, @NonNull final IOException error) {
+        try {
+            callback.onError(error);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Callback failed", e);
+        }
+    }
+
+    private long elapsedMicros(final long started) {
+        return TimeUnit.NANOSECONDS.toMicros(clock.elapsedRealtimeNanos() - started);
+    }
+
+    // Duration of one forced conversion in microseconds
+    static long activeDuration(@NonNull final SensorSettings sensorSettings, @NonNull final GasSettings gasSettings) {
+        long duration = measurementMicros(sensorSettings.oversamplingTemperature, sensorSettings.oversamplingPressure, sensorSettings.oversamplingHumidity);
+        if (gasSettings.runGas == ENABLE_GAS) {
+            duration += gasSettings.heaterDuration * 1000L;
+        }
+        return duration;
+    }
+
+    // Charge of one forced conversion in micro-coulombs
+    static double activeCharge(@NonNull final SensorSettings sensorSettings, @NonNull final GasSettings gasSettings) {
+        // Temperature current over the whole measurement, corrected by the pressure and humidity currents over their own cycles
+        final long idle = measurementMicros(OVERSAMPLING_SKIPPED, OVERSAMPLING_SKIPPED, OVERSAMPLING_SKIPPED);
+        double charge = MAX_POWER_CONSUMPTION_TEMP_UA
+            * measurementMicros(sensorSettings.oversamplingTemperature, sensorSettings.oversamplingPressure, sensorSettings.oversamplingHumidity);
+        charge += (MAX_POWER_CONSUMPTION_PRESSURE_UA - MAX_POWER_CONSUMPTION_TEMP_UA)
+            * (measurementMicros(OVERSAMPLING_SKIPPED, sensorSettings.oversamplingPressure, OVERSAMPLING_SKIPPED) - idle);
+        charge += (MAX_POWER_CONSUMPTION_HUMIDITY_UA - MAX_POWER_CONSUMPTION_TEMP_UA)
+            * (measurementMicros(OVERSAMPLING_SKIPPED, OVERSAMPLING_SKIPPED, sensorSettings.oversamplingHumidity) - idle);
+        if (gasSettings.runGas == ENABLE_GAS) {
+            charge += heaterCurrent(gasSettings.heaterTemperature) * gasSettings.heaterDuration * 1000.0;
+        }
+        return charge / 1e6;
+    }
+
+    // Heater current in micro-amperes, scaled linearly with the temperature rise above ambient
+    static float heaterCurrent(final int temperature) {
+        final float rise = Math.min(Math.max(temperature - HEATER_AMBIENT_C, 0f), HEATER_MAX_C - HEATER_AMBIENT_C);
+        return MAX_POWER_CONSUMPTION_GAS_UA * rise / (HEATER_MAX_C - HEATER_AMBIENT_C);
+    }
+
+    // Shortest interval in microseconds between readings that keeps the average current within budget
+    static long samplePeriod(final long activeMicros, final double activeCharge, final float budget) {
+        // budget * period >= activeCharge + sleep * (period - active)
+        final double period = (activeCharge * 1e6 - MAX_POWER_CONSUMPTION_SLEEP_UA * activeMicros) / (budget - MAX_POWER_CONSUMPTION_SLEEP_UA);
+        return Math.max(activeMicros, (long) Math.ceil(period));
+    }
+
+    // Measurement duration in microseconds, from the driver's timing model
+    private static long measurementMicros(final int oversamplingTemperature, final int oversamplingPressure, final int oversamplingHumidity) {
+        return CompensationEngine.measurementDuration(oversamplingTemperature, oversamplingPressure, oversamplingHumidity) * 1000L;
+    }
+}
@@ -0,0 +1,223 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.hardware.SensorManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.things.userdriver.sensor.UserSensorReading;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the sensor at a fixed period into one {@link SampleFifo} per user sensor and releases the
+ * samples in bursts.
+ * <p>
+ * A batch is due once a FIFO is full or its oldest sample is older than the maximum report latency.
+ * {@link #take(int)} blocks until the sensor's batch is due and then returns its samples one per call,
+ * oldest first and with the time they were measured, until the FIFO is empty. The framework polling a
+ * user sensor therefore wakes its consumers once per batch instead of once per sample.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+class SensorBatcher implements AutoCloseable {
+    private static final String TAG = SensorBatcher.class.getSimpleName();
+
+    static final int TEMPERATURE = 0;
+    static final int PRESSURE = 1;
+    static final int HUMIDITY = 2;
+    static final int GAS = 3;
+
+    private static final int SENSOR_COUNT = 4;
+    // Gas resistance, air quality score and index
+    private static final int GAS_WIDTH = 3;
+
+    private final Bme680 device;
+    private final Clock clock;
+    private final long samplingPeriod;
+    private final long maxReportLatency;
+
+    private final SampleFifo[] fifos = new SampleFifo[SENSOR_COUNT];
+    private final boolean[] enabled = new boolean[SENSOR_COUNT];
+    private final boolean[] draining = new boolean[SENSOR_COUNT];
+    private final Deadband[] deadbands = new Deadband[SENSOR_COUNT];
+    private final float[] sample = new float[GAS_WIDTH];
+
+    private ScheduledExecutorService executor;
+    private boolean closed = false;
+
+    /**
+     * Create a new batcher for the given sensor.
+     *
+     * @param device           Sensor to sample.
+     * @param samplingPeriod   Interval between samples in microseconds.
+     * @param maxReportLatency Longest time a sample is held before its batch is due, in microseconds.
+     * @param fifoSize         Number of samples held per user sensor, the oldest are dropped when full.
+     */
+    SensorBatcher(@NonNull final Bme680 device, final long samplingPeriod, final long maxReportLatency, final int fifoSize) {
+        if (samplingPeriod <= 0 || maxReportLatency < 0) {
+            throw new IllegalArgumentException("Sampling period should be positive and report latency should not be negative");
+        }
+        this.device = device;
+        this.clock = device.getClock();
+        this.samplingPeriod = samplingPeriod;
+        this.maxReportLatency = maxReportLatency;
+        for (int sensor = 0; sensor < SENSOR_COUNT; sensor++) {
+            fifos[sensor] = new SampleFifo(fifoSize, sensor == GAS ? GAS_WIDTH : 1);
+        }
+    }
+
+    // Start sampling on a dedicated thread
+    synchronized void start() {
+        if (closed) {
+            throw new IllegalStateException("batcher closed");
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor();
+            executor.scheduleAtFixedRate(tick, samplingPeriod, samplingPeriod, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    // Stop sampling and release any blocked reader
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        notifyAll();
+    }
+
+    // Queue samples for the given sensor, or stop and discard its pending samples
+    synchronized void setEnabled(final int sensor, final boolean enabled) {
+        this.enabled[sensor] = enabled;
+        if (!enabled) {
+            fifos[sensor].clear();
+            draining[sensor] = false;
+        }
+    }
+
+    // Filter samples of the given sensor before they are queued, or null to queue every sample
+    synchronized void setDeadband(final int sensor, @Nullable final Deadband deadband) {
+        deadbands[sensor] = deadband;
+    }
+
+    /**
+     * Take one reading from the sensor's current batch, waiting until a batch is due if none is being delivered.
+     *
+     * @param sensor One of {@link #TEMPERATURE}, {@link #PRESSURE}, {@link #HUMIDITY} or {@link #GAS}.
+     * @return Oldest queued reading, stamped with the time it was measured.
+     * @throws IOException if the batcher was closed or the wait was interrupted.
+     */
+    @NonNull
+    synchronized UserSensorReading take(final int sensor) throws IOException {
+        final SampleFifo fifo = fifos[sensor];
+        try {
+            while (!draining[sensor]) {
+                if (closed) {
+                    throw new IOException("Batching stopped");
+                }
+                final long wait = untilDue(sensor);
+                if (wait == 0) {
+                    draining[sensor] = true;
+                } else {
+                    // Samples arriving wake the wait early, a timeout catches the latency expiring
+                    wait(wait == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a batch", e);
+        }
+
+        final float[] values = new float[fifo.getWidth()];
+        final long timestamp = fifo.poll(values);
+        if (fifo.isEmpty()) {
+            draining[sensor] = false;
+        }
+        return new UserSensorReading(values, SensorManager.SENSOR_STATUS_ACCURACY_HIGH, timestamp);
+    }
+
+    /**
+     * Read the sensor once and queue the values for every enabled user sensor.
+     * Called by the sampling thread, exposed for tests.
+     *
+     * @throws IOException if the sensor could not be read.
+     */
+    void sample() throws IOException {
+        final Data data = device.readData();
+        final long timestamp = clock.elapsedRealtimeNanos();
+        final long milliseconds = TimeUnit.NANOSECONDS.toMillis(timestamp);
+
+        synchronized (this) {
+            offer(TEMPERATURE, timestamp, milliseconds, data.temperature);
+            offer(PRESSURE, timestamp, milliseconds, data.pressure);
+            offer(HUMIDITY, timestamp, milliseconds, data.humidity);
+            sample[1] = data.airQualityScore;
+            sample[2] = Math.round(((100.0f - data.airQualityScore) / 100.0f) * 500);
+            offer(GAS, timestamp, milliseconds, data.gasResistance);
+            notifyAll();
+        }
+    }
+
+    // Number of samples queued for the given sensor
+    synchronized int size(final int sensor) {
+        return fifos[sensor].size();
+    }
+
+    // Number of samples of the given sensor dropped because its FIFO was full
+    synchronized long getDroppedCount(final int sensor) {
+        return fifos[sensor].getDroppedCount();
+    }
+
+    long getSamplingPeriod() {
+        return samplingPeriod;
+    }
+
+    long getMaxReportLatency() {
+        return maxReportLatency;
+    }
+
+    private void offer(final int sensor, final long timestamp, final long milliseconds, final float value) {
+        if (!enabled[sensor]) {
+            return;
+        }
+        final Deadband deadband = deadbands[sensor];
+        if (deadband != null && !deadband.update(value, milliseconds)) {
+            return;
+        }
+        sample[0] = value;
+        fifos[sensor].offer(timestamp, sample);
+    }
+
+    // Nanoseconds until the sensor's batch is due, 0 if due now, Long.MAX_VALUE if nothing is queued
+    private long untilDue(final int sensor) {
+        final SampleFifo fifo = fifos[sensor];
+        if (fifo.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        if (fifo.isFull()) {
+            return 0;
+        }
+        final long age = clock.elapsedRealtimeNanos() - fifo.getOldestTimestamp();
+        return Math.max(0, TimeUnit.MICROSECONDS.toNanos(maxReportLatency) - age);
+    }
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sample();
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage(), e);
+            } catch (IllegalStateException e) {
+                // Closed device, stop sampling
+                Log.e(TAG, e.getMessage(), e);
+                close();
+            }
+        }
+    };
+}
@@ -0,0 +1,127 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link Transport} over a 4-wire SPI device.
+ * <p>
+ * SPI addresses are 7 bits wide, so the register map is split into two memory pages selected by the
+ * spi_mem_page bit of the status register: page 0 holds 0x80 to 0xFF and page 1 holds 0x00 to 0x7F.
+ * The selected page is tracked and only written when an access targets the other page, so steady
+ * state readouts, which all live on page 1, never switch pages.
+ */
+class SpiTransport implements Transport {
+
+    // Up to 10 MHz on SPI against 400 kHz on I2C
+    static final int DEFAULT_FREQUENCY_HZ = 10000000;
+
+    // Status register holding the memory page bit, at the same address on both pages
+    static final int BME680_MEM_PAGE_ADDRESS = 0xf3;
+    static final int BME680_MEM_PAGE_MASK = 0x10;
+    static final int BME680_SPI_RD_MASK = 0x80;
+    static final int BME680_SPI_WR_MASK = 0x7f;
+
+    private static final int BME680_REGISTER_SOFT_RESET = 0xe0;
+    private static final int PAGE_UNKNOWN = -1;
+    // Longest burst read, the three BME688 field registers of a parallel readout
+    private static final int MAX_BURST_LENGTH = 3 * CompensationEngine.FIELD_LENGTH_BME688;
+
+    private final SpiDevice device;
+    private final byte[] tx = new byte[2];
+    private final byte[] rx = new byte[2];
+    private final byte[] burstTx = new byte[MAX_BURST_LENGTH + 1];
+    private final byte[] burstRx = new byte[MAX_BURST_LENGTH + 1];
+
+    // Last status register value written or read, and the page it selects
+    private int status;
+    private int page = PAGE_UNKNOWN;
+
+    SpiTransport(@NonNull final SpiDevice device) throws IOException {
+        this(device, DEFAULT_FREQUENCY_HZ);
+    }
+
+    SpiTransport(@NonNull final SpiDevice device, final int frequency) throws IOException {
+        this.device = device;
+        device.setMode(SpiDevice.MODE0);
+        device.setFrequency(frequency);
+        device.setBitsPerWord(8);
+        device.setBitJustification(SpiDevice.BIT_JUSTIFICATION_MSB_FIRST);
+    }
+
+    @Override
+    public synchronized byte readRegByte(final int reg) throws IOException {
+        selectPage(reg);
+        return read(reg);
+    }
+
+    @Override
+    public synchronized void readRegBuffer(final int reg, final byte[] buffer, final int length) throws IOException {
+        if (length > MAX_BURST_LENGTH) {
+            throw new IllegalArgumentException(String.format("Burst read of %d bytes is longer than %d", length, MAX_BURST_LENGTH));
+        }
+        if (length > 0 && pageOf(reg) != pageOf(reg + length - 1)) {
+            throw new IllegalArgumentException(String.format("Burst read from 0x%02X crosses a memory page", reg));
+        }
+        selectPage(reg);
+
+        burstTx[0] = (byte) (reg | BME680_SPI_RD_MASK);
+        device.transfer(burstTx, burstRx, length + 1);
+        System.arraycopy(burstRx, 1, buffer, 0, length);
+    }
+
+    @Override
+    public synchronized void writeRegByte(final int reg, final byte data) throws IOException {
+        selectPage(reg);
+        write(reg, data);
+
+        // A soft reset selects page 0 again
+        if (reg == BME680_REGISTER_SOFT_RESET) {
+            page = PAGE_UNKNOWN;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        device.close();
+    }
+
+    // Page holding a register, as the value of the page bit
+    private static int pageOf(final int reg) {
+        return reg > BME680_SPI_WR_MASK ? 0 : BME680_MEM_PAGE_MASK;
+    }
+
+    private void selectPage(final int reg) throws IOException {
+        final int target = pageOf(reg);
+        if (page == target) {
+            return;
+        }
+        if (page == PAGE_UNKNOWN) {
+            status = read(BME680_MEM_PAGE_ADDRESS);
+            page = status & BME680_MEM_PAGE_MASK;
+            if (page == target) {
+                return;
+            }
+        }
+
+        status = (status & ~BME680_MEM_PAGE_MASK) | target;
+        write(BME680_MEM_PAGE_ADDRESS, (byte) status);
+        page = target;
+    }
+
+    private byte read(final int reg) throws IOException {
+        tx[0] = (byte) (reg | BME680_SPI_RD_MASK);
+        tx[1] = 0;
+        device.transfer(tx, rx, 2);
+        return rx[1];
+    }
+
+    private void write(final int reg, final byte data) throws IOException {
+        tx[0] = (byte) (reg & BME680_SPI_WR_MASK);
+        tx[1] = data;
+        device.write(tx, 2);
+    }
+}
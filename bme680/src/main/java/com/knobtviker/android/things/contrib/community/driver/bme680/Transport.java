@@ -0,0 +1,22 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import java.io.IOException;
+
+/**
+ * Register access to the sensor over a serial bus.
+ * Register addresses are those of the I2C register map, whatever the bus.
+ *
+ * @see I2cTransport
+ * @see SpiTransport
+ */
+interface Transport extends AutoCloseable {
+
+    byte readRegByte(int reg) throws IOException;
+
+    void readRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+
+    void writeRegByte(int reg, byte data) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
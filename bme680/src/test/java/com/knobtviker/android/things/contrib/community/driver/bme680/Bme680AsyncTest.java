@@ -0,0 +1,93 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class Bme680AsyncTest {
+
+    @Test
+    public void should_join_concurrent_requests_onto_one_conversion() throws Exception {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        bus.latency = 5;
+
+        final CompletableFuture<Data> first = device.readAsync();
+        final CompletableFuture<Data> second = device.readAsync();
+
+        final Data a = first.get(5, TimeUnit.SECONDS);
+        final Data b = second.get(5, TimeUnit.SECONDS);
+
+        assertThat(device.getConversionCount(), CoreMatchers.equalTo(1L));
+        assertThat(a == b, CoreMatchers.is(false));
+        assertThat(a.temperature, CoreMatchers.equalTo(b.temperature));
+        device.close();
+    }
+
+    @Test
+    public void should_time_out_slow_conversion() throws Exception {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        bus.latency = 50;
+
+        final CompletableFuture<Data> read = device.readAsync(10, TimeUnit.MILLISECONDS);
+        try {
+            read.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected timeout");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof TimeoutException, CoreMatchers.is(true));
+        }
+        device.close();
+    }
+
+    @Test
+    public void should_keep_conversion_for_other_callers_when_cancelled() throws Exception {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        bus.latency = 5;
+
+        final CompletableFuture<Data> cancelled = device.readAsync();
+        final CompletableFuture<Data> kept = device.readAsync();
+        cancelled.cancel(true);
+
+        assertThat(kept.get(5, TimeUnit.SECONDS).stale, CoreMatchers.is(false));
+        assertThat(cancelled.isCancelled(), CoreMatchers.is(true));
+        device.close();
+    }
+
+    @Test
+    public void should_report_bus_errors() throws Exception {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        bus.fail(1);
+
+        try {
+            device.readAsync().get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof IOException, CoreMatchers.is(true));
+        }
+        device.close();
+    }
+
+    @Test
+    public void should_fail_reads_after_close() throws Exception {
+        final Bme680 device = new Bme680(new FakeI2cDevice());
+        device.close();
+
+        try {
+            device.readAsync(1, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof IllegalStateException, CoreMatchers.is(true));
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Bme680ParallelTest {
+
+    @Test
+    public void should_detect_the_chip_variant() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        assertThat(new Bme680(bus, new VirtualClock()).getVariant(), CoreMatchers.equalTo(CompensationEngine.VARIANT_BME680));
+
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        assertThat(new Bme680(bus, new VirtualClock()).getVariant(), CoreMatchers.equalTo(CompensationEngine.VARIANT_BME688));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_reject_parallel_profile_on_bme680() throws IOException {
+        final Bme680 device = new Bme680(new FakeI2cDevice(), new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{320}, new int[]{5}, 100);
+    }
+
+    @Test
+    public void should_drain_all_ready_fields_in_one_burst() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        final Data[] readings = {new Data(), new Data(), new Data()};
+
+        bus.completeParallelConversion(512, 4);
+        bus.completeParallelConversion(512, 5);
+        bus.completeParallelConversion(512, 6);
+        final int before = bus.transactions;
+
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(3));
+        assertThat(bus.transactions - before, CoreMatchers.equalTo(1));
+        for (int i = 0; i < 3; i++) {
+            assertThat(readings[i].gasIndex, CoreMatchers.equalTo(i));
+            assertThat((int) readings[i].measureIndex, CoreMatchers.equalTo(i));
+            assertThat(readings[i].gasResistance, CoreMatchers.equalTo(4000000 >> i));
+            assertThat(readings[i].temperature, CoreMatchers.equalTo(23.16f));
+        }
+        assertThat(device.getConversionCount(), CoreMatchers.equalTo(3L));
+        assertThat(bus.registers[0x6E], CoreMatchers.equalTo((byte) CompensationEngine.encodeSharedHeaterDuration(100)));
+    }
+
+    @Test
+    public void should_skip_fields_already_drained() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{200, 300}, new int[]{2, 4}, 100);
+        final Data[] readings = {new Data(), new Data(), new Data()};
+
+        bus.completeParallelConversion(512, 4);
+        bus.completeParallelConversion(512, 4);
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(2));
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(0));
+
+        // The fourth conversion overwrites the first field and is newer than the other two
+        bus.completeParallelConversion(512, 4);
+        bus.completeParallelConversion(512, 4);
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(2));
+        assertThat((int) readings[0].measureIndex, CoreMatchers.equalTo(2));
+        assertThat((int) readings[1].measureIndex, CoreMatchers.equalTo(3));
+        assertThat(readings[1].gasIndex, CoreMatchers.equalTo(1));
+    }
+
+    @Test
+    public void should_acquire_in_parallel_mode_until_done() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{320}, new int[]{1}, 50);
+        bus.completeParallelConversion(512, 4);
+        final List<Data> received = new ArrayList<>();
+
+        new ParallelAcquisition(device, 100).run(1000, new ParallelAcquisition.Callback() {
+            @Override
+            public void onReading(final Data data) {
+                received.add(data);
+            }
+
+            @Override
+            public void onError(final IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        assertThat(received.size(), CoreMatchers.equalTo(1));
+        assertThat(device.getPowerMode(), CoreMatchers.equalTo(Bme680.MODE_SLEEP));
+    }
+
+    @Test
+    public void should_score_air_quality_on_one_profile_step() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(bus, clock);
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        final Data[] readings = {new Data(), new Data(), new Data()};
+
+        float lowest = Float.MAX_VALUE;
+        float highest = -Float.MAX_VALUE;
+        for (int drain = 0; drain < 300; drain++) {
+            clock.advance(3000);
+            bus.completeParallelConversion(512, 4);
+            bus.completeParallelConversion(512, 5);
+            bus.completeParallelConversion(512, 6);
+            assertThat(device.readParallelData(readings), CoreMatchers.equalTo(3));
+
+            if (device.getAirQualityState() == AirQualityEngine.STATE_READY) {
+                for (final Data reading : readings) {
+                    lowest = Math.min(lowest, reading.airQualityScore);
+                    highest = Math.max(highest, reading.airQualityScore);
+                }
+            }
+        }
+
+        assertThat(device.getAirQualityState(), CoreMatchers.equalTo(AirQualityEngine.STATE_READY));
+        assertThat(highest - lowest < 0.01f, CoreMatchers.is(true));
+        assertThat(readings[1].correctedGasResistance, CoreMatchers.equalTo(readings[1].gasResistance));
+    }
+
+    @Test
+    public void should_not_flag_anomalies_across_profile_steps() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(bus, clock);
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        final List<Integer> anomalies = new ArrayList<>();
+        device.setAnomalyDetector(new AnomalyDetector(new AnomalyDetector.Callback() {
+            @Override
+            public void onAnomaly(final int channel, final int flags, final long timestamp, final float value) {
+                anomalies.add(channel);
+            }
+        }));
+        final Data[] readings = {new Data(), new Data(), new Data()};
+
+        // Steady air, stopping before a channel has repeated the same value long enough to count as stuck
+        for (int drain = 0; drain < 60; drain++) {
+            clock.advance(3000);
+            bus.completeParallelConversion(512, 4);
+            bus.completeParallelConversion(512, 5);
+            bus.completeParallelConversion(512, 6);
+            assertThat(device.readParallelData(readings), CoreMatchers.equalTo(3));
+        }
+
+        assertThat(anomalies.isEmpty(), CoreMatchers.is(true));
+        assertThat(device.getAnomalyDetector().getMonitor(RollupStore.CHANNEL_GAS_RESISTANCE).getSampleCount(), CoreMatchers.equalTo(60L));
+    }
+
+    @Test
+    public void should_keep_every_reading_when_the_anomaly_callback_throws() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(bus, clock);
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        final int[] calls = new int[1];
+        device.setAnomalyDetector(new AnomalyDetector(new AnomalyDetector.Callback() {
+            @Override
+            public void onAnomaly(final int channel, final int flags, final long timestamp, final float value) {
+                calls[0]++;
+                throw new IllegalStateException("Callback failed");
+            }
+        }));
+        final Data[] readings = {new Data(), new Data(), new Data()};
+
+        // Constant readings, long enough for the channels to be flagged as stuck
+        for (int drain = 0; drain < 70; drain++) {
+            clock.advance(3000);
+            bus.completeParallelConversion(512, 4);
+            bus.completeParallelConversion(512, 5);
+            bus.completeParallelConversion(512, 6);
+            assertThat(device.readParallelData(readings), CoreMatchers.equalTo(3));
+        }
+
+        assertThat(calls[0] > 0, CoreMatchers.is(true));
+        assertThat(device.getConversionCount(), CoreMatchers.equalTo(210L));
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_resume_parallel_mode_after_a_reset() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        device.setPowerMode(Bme680.MODE_PARALLEL);
+        final Data[] readings = {new Data(), new Data(), new Data()};
+        bus.completeParallelConversion(512, 4);
+        bus.completeParallelConversion(512, 5);
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(2));
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+
+        bus.brownOut();
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(false));
+        device.restoreConfiguration();
+
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+        assertThat(device.getPowerMode(), CoreMatchers.equalTo(Bme680.MODE_PARALLEL));
+        assertThat(device.getGasStatus(), CoreMatchers.equalTo(Bme680.ENABLE_GAS));
+        assertThat(bus.registers[FakeI2cDevice.REGISTER_CTRL_GAS_1], CoreMatchers.equalTo((byte) 0x23));
+        assertThat(bus.registers[0x6E], CoreMatchers.equalTo((byte) CompensationEngine.encodeSharedHeaterDuration(100)));
+
+        bus.completeParallelConversion(512, 6);
+        assertThat(device.readParallelData(readings), CoreMatchers.equalTo(1));
+    }
+
+    @Test
+    public void should_detect_a_lost_parallel_mode() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{320}, new int[]{5}, 100);
+        device.setPowerMode(Bme680.MODE_PARALLEL);
+
+        bus.registers[FakeI2cDevice.REGISTER_CTRL_MEAS] &= ~FakeI2cDevice.MODE_MASK;
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(false));
+
+        bus.registers[FakeI2cDevice.REGISTER_CTRL_MEAS] |= Bme680.MODE_PARALLEL;
+        bus.registers[0x6E] = 0;
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void should_keep_draining_when_the_callback_throws() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setParallelHeaterProfile(new int[]{200, 300, 400}, new int[]{2, 4, 8}, 100);
+        bus.completeParallelConversion(512, 4);
+        bus.completeParallelConversion(512, 5);
+        bus.completeParallelConversion(512, 6);
+        final List<Data> received = new ArrayList<>();
+
+        final ParallelAcquisition acquisition = new ParallelAcquisition(device, 100);
+        acquisition.run(1000, new ParallelAcquisition.Callback() {
+            @Override
+            public void onReading(final Data data) {
+                received.add(data);
+                throw new IllegalStateException("Consumer failed");
+            }
+
+            @Override
+            public void onError(final IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        assertThat(received.size(), CoreMatchers.equalTo(3));
+        assertThat(acquisition.getReadingCount(), CoreMatchers.equalTo(3L));
+        assertThat(device.getPowerMode(), CoreMatchers.equalTo(Bme680.MODE_SLEEP));
+    }
+}
@@ -0,0 +1,198 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class Bme680ReadoutTest {
+
+    @Test
+    public void should_take_two_transactions_per_reading() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+
+        final int before = bus.transactions;
+        final Data data = device.readData();
+
+        assertThat(bus.transactions - before, CoreMatchers.equalTo(2));
+        assertThat(data.temperature, CoreMatchers.equalTo(23.16f));
+    }
+
+    @Test
+    public void should_wait_for_the_conversion_before_reading() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(new FakeI2cDevice(), clock);
+        device.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
+        device.setGasStatus(Bme680.ENABLE_GAS);
+
+        final long before = clock.elapsedRealtime();
+        device.readData();
+
+        assertThat(clock.elapsedRealtime() - before, CoreMatchers.equalTo((long) device.getProfileDuration()));
+    }
+
+    @Test
+    public void should_run_gas_conversions_on_a_bme688() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        bus.setVariant(CompensationEngine.VARIANT_BME688);
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
+        device.setGasStatus(Bme680.ENABLE_GAS);
+
+        final Data data = device.readData();
+
+        assertThat(bus.registers[FakeI2cDevice.REGISTER_CTRL_GAS_1] & 0x30, CoreMatchers.equalTo(0x20));
+        assertThat(device.getGasStatus(), CoreMatchers.equalTo(Bme680.ENABLE_GAS));
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+        assertThat(data.status & 0x20, CoreMatchers.equalTo(0x20));
+        assertThat(data.heaterStable, CoreMatchers.is(true));
+        // High range conversion of ADC value 300 in range 4
+        assertThat(data.gasResistance, CoreMatchers.equalTo(4735200));
+    }
+
+    @Test
+    public void should_trigger_from_cached_settings_after_a_reset() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        device.setTemperatureOversample(Bme680.OVERSAMPLING_2X);
+        device.setPressureOversample(Bme680.OVERSAMPLING_4X);
+
+        bus.brownOut();
+        device.readData();
+
+        assertThat(bus.registers[FakeI2cDevice.REGISTER_CTRL_MEAS], CoreMatchers.equalTo((byte) ((Bme680.OVERSAMPLING_2X << 5) | (Bme680.OVERSAMPLING_4X << 2))));
+    }
+
+    @Test
+    public void should_fail_when_no_new_data_arrives() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        bus.stalled = true;
+
+        try {
+            device.readData();
+            throw new AssertionError("Expected IOException");
+        } catch (IOException expected) {
+            assertThat(device.getErrorCount(), CoreMatchers.equalTo(1L));
+            assertThat(device.getConversionCount(), CoreMatchers.equalTo(0L));
+        }
+    }
+
+    @Test
+    public void should_trace_every_stage_of_a_reading() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus, clock);
+        final LatencyTrace trace = new LatencyTrace(4);
+        device.setLatencyTrace(trace);
+
+        device.readData();
+        bus.stalled = true;
+        try {
+            device.readData();
+            throw new AssertionError("Expected IOException");
+        } catch (IOException expected) {
+            // Recorded as failed
+        }
+
+        final long[] records = new long[2 * LatencyTrace.STAGE_COUNT];
+        assertThat(trace.copyTo(records), CoreMatchers.equalTo(2));
+        assertThat(records[LatencyTrace.STAGE_CONVERTED] - records[LatencyTrace.STAGE_TRIGGERED], CoreMatchers.equalTo(device.getProfileDuration() * 1000000L));
+        assertThat(records[LatencyTrace.STAGE_AIR_QUALITY] == LatencyTrace.MISSING, CoreMatchers.is(false));
+        assertThat(records[LatencyTrace.STAGE_COUNT + LatencyTrace.STAGE_CONVERTED] == LatencyTrace.MISSING, CoreMatchers.is(false));
+        assertThat(records[LatencyTrace.STAGE_COUNT + LatencyTrace.STAGE_READ_OUT], CoreMatchers.equalTo(LatencyTrace.MISSING));
+        assertThat(trace.toString(), CoreMatchers.containsString("readouts=11 failed"));
+    }
+
+    @Test
+    public void should_correct_gas_resistance_once_a_correction_is_set() throws IOException {
+        final Bme680 device = new Bme680(new FakeI2cDevice(), new VirtualClock());
+        device.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
+        device.setGasStatus(Bme680.ENABLE_GAS);
+
+        final Data raw = device.readData();
+        assertThat(raw.correctedGasResistance, CoreMatchers.equalTo(raw.gasResistance));
+
+        final GasCorrection correction = new GasCorrection(25.0f, 40.0f, 1000, 0);
+        device.setGasCorrection(correction);
+        final Data corrected = device.readData();
+        assertThat(correction.getSampleCount(), CoreMatchers.equalTo(1L));
+        assertThat(corrected.correctedGasResistance, CoreMatchers.equalTo(Math.round(correction.correct(corrected.gasResistance, corrected.temperature, corrected.humidity))));
+    }
+
+    @Test
+    public void should_pass_invalid_gas_readings_through_uncorrected() throws IOException {
+        final Bme680 device = new Bme680(new FakeI2cDevice(), new VirtualClock());
+        final GasCorrection correction = new GasCorrection(25.0f, 40.0f, 1000, 0);
+        device.setGasCorrection(correction);
+
+        final Data data = device.readData();
+
+        assertThat(data.isGasValid(), CoreMatchers.is(false));
+        assertThat(correction.getSampleCount(), CoreMatchers.equalTo(0L));
+        assertThat(data.correctedGasResistance, CoreMatchers.equalTo(data.gasResistance));
+    }
+
+    @Test
+    public void should_read_when_the_anomaly_callback_throws() throws IOException {
+        final Bme680 device = new Bme680(new FakeI2cDevice(), new VirtualClock());
+        final int[] calls = new int[1];
+        device.setAnomalyDetector(new AnomalyDetector(new AnomalyDetector.Callback() {
+            @Override
+            public void onAnomaly(final int channel, final int flags, final long timestamp, final float value) {
+                calls[0]++;
+                throw new IllegalStateException("Callback failed");
+            }
+        }));
+
+        // Constant readings with gas disabled, long enough for the other channels to be flagged as stuck
+        for (int i = 0; i < AnomalyDetector.DEFAULT_STUCK_RUN + 10; i++) {
+            device.readData();
+        }
+
+        assertThat(calls[0] > 0, CoreMatchers.is(true));
+        assertThat(device.getAnomalyDetector().getMonitor(RollupStore.CHANNEL_GAS_RESISTANCE).getSampleCount(), CoreMatchers.equalTo(0L));
+        assertThat(device.getAnomalyDetector().getCount(RollupStore.CHANNEL_GAS_RESISTANCE, ChannelMonitor.STUCK), CoreMatchers.equalTo(0L));
+    }
+
+    @Test
+    public void should_subtract_self_heating_of_the_gas_heater() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(new FakeI2cDevice(), clock);
+        final SelfHeatingModel model = new SelfHeatingModel();
+        device.setSelfHeatingModel(model);
+        device.setGasStatus(Bme680.ENABLE_GAS);
+        device.setGasHeaterTemperature(Bme680.PROFILE_0, 320);
+        device.setGasHeaterDuration(Bme680.PROFILE_0, 150);
+
+        device.readData();
+        clock.advance(1000);
+        final Data heated = device.readData();
+
+        assertThat(model.getRise() > 0.0f, CoreMatchers.is(true));
+        assertThat(heated.temperature, CoreMatchers.equalTo(23.16f - model.getRise()));
+        assertThat(heated.humidity > 0.0f, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_read_fixed_point_values_from_one_conversion() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus, new VirtualClock());
+        final Data data = device.readData();
+        final FixedPointData fixedPoint = new FixedPointData();
+        final int before = bus.transactions;
+
+        device.readFixedPointData(fixedPoint);
+
+        assertThat(bus.transactions - before, CoreMatchers.equalTo(2));
+        assertThat(fixedPoint.temperature, CoreMatchers.equalTo(Math.round(data.temperature * 100)));
+        assertThat(fixedPoint.pressure, CoreMatchers.equalTo(Math.round(data.pressure * 100)));
+        assertThat(fixedPoint.humidity, CoreMatchers.equalTo(Math.round(data.humidity * 1000)));
+        assertThat(fixedPoint.gasResistance, CoreMatchers.equalTo(data.gasResistance));
+        assertThat(device.getConversionCount(), CoreMatchers.equalTo(2L));
+    }
+}
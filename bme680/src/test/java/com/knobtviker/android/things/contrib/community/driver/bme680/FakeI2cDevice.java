@@ -0,0 +1,211 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+
+/**
+ * Register level BME680 simulation on a fake I2C bus.
+ * Holds the chip ID, the example calibration data from the Bosch C driver and one data field,
+ * completes forced conversions instantly, measuring gas only when the variant's run_gas bit is set, resets its configuration on a brown-out and can fail the
+ * next transactions. As a BME688 it also fills the three data fields in turn on parallel conversions.
+ */
+class FakeI2cDevice implements I2cDevice {
+
+    static final int REGISTER_ID = 0xD0;
+    static final int REGISTER_SOFT_RESET = 0xE0;
+    static final int FIELD0_ADDRESS = 0x1D;
+    static final int REGISTER_CTRL_MEAS = 0x74;
+    static final int REGISTER_CTRL_GAS_1 = 0x71;
+    static final int REGISTER_VARIANT_ID = 0xF0;
+    static final int FIELD_LENGTH = 17;
+    static final int FIELD_COUNT = 3;
+    static final int MODE_MASK = 0x03;
+    static final int NEW_DATA = 0x80;
+    // gasm_valid and heat_stab of the gas resistance LSB
+    static final int GAS_FLAGS = 0x30;
+
+    // Calibration bytes at 0x89 and 0xE1 matching the example in Bme680Test
+    private static final int[] CALIBRATION_1 = {
+        0x00, 0x95, 0x66, 0x03, 0x00, 0x8C, 0x8D, 0x4F, 0xD7, 0x58, 0x00, 0x68, 0x18, 0xE4, 0xFF,
+        0x2D, 0x1E, 0x00, 0x00, 0x0C, 0xF4, 0x85, 0xF6, 0x1E, 0x00
+    };
+    private static final int[] CALIBRATION_2 = {
+        0x3E, 0x5E, 0x34, 0x00, 0x2D, 0x14, 0x78, 0x9C, 0xF1, 0x66, 0x77, 0xCC, 0xE1, 0x12, 0x00, 0x00
+    };
+
+    final byte[] registers = new byte[256];
+
+    int transactions = 0;
+    // Delay of every transaction in milliseconds
+    volatile int latency = 0;
+    // Whether forced conversions never complete
+    boolean stalled = false;
+    private int failures = 0;
+    private int parallelConversions = 0;
+
+    FakeI2cDevice() {
+        registers[REGISTER_ID] = (byte) Bme680.CHIP_ID_BME680;
+        registers[0x00] = 49;
+        registers[0x02] = 0x10;
+        for (int i = 0; i < CALIBRATION_1.length; i++) {
+            registers[0x89 + i] = (byte) CALIBRATION_1[i];
+        }
+        for (int i = 0; i < CALIBRATION_2.length; i++) {
+            registers[0xE1 + i] = (byte) CALIBRATION_2[i];
+        }
+        setRawData(0x4F000, 0x79000, 0x6000, 300, 4);
+    }
+
+    // Raw 20 bit pressure and temperature, 16 bit humidity, 10 bit gas resistance and its range
+    void setRawData(final int pressure, final int temperature, final int humidity, final int gasResistance, final int gasRange) {
+        registers[FIELD0_ADDRESS] = 0;
+        registers[FIELD0_ADDRESS + 2] = (byte) (pressure >> 12);
+        registers[FIELD0_ADDRESS + 3] = (byte) (pressure >> 4);
+        registers[FIELD0_ADDRESS + 4] = (byte) (pressure << 4);
+        registers[FIELD0_ADDRESS + 5] = (byte) (temperature >> 12);
+        registers[FIELD0_ADDRESS + 6] = (byte) (temperature >> 4);
+        registers[FIELD0_ADDRESS + 7] = (byte) (temperature << 4);
+        registers[FIELD0_ADDRESS + 8] = (byte) (humidity >> 8);
+        registers[FIELD0_ADDRESS + 9] = (byte) humidity;
+        registers[FIELD0_ADDRESS + 13] = (byte) (gasResistance >> 2);
+        registers[FIELD0_ADDRESS + 14] = (byte) (((gasResistance & 0x03) << 6) | 0x30 | gasRange);
+    }
+
+    // Report the variant ID of a BME680 (0) or a BME688 (1)
+    void setVariant(final int variant) {
+        registers[REGISTER_VARIANT_ID] = (byte) variant;
+    }
+
+    // Complete one parallel mode conversion into the next data field with a 10 bit high range gas
+    // resistance and its range, returns the sub-measurement index of the new reading
+    int completeParallelConversion(final int gasResistance, final int gasRange) {
+        final int steps = Math.max(registers[REGISTER_CTRL_GAS_1] & 0x0F, 1);
+        final int measureIndex = parallelConversions & 0xFF;
+        final int field = FIELD0_ADDRESS + (parallelConversions % FIELD_COUNT) * FIELD_LENGTH;
+        if (field != FIELD0_ADDRESS) {
+            System.arraycopy(registers, FIELD0_ADDRESS + 2, registers, field + 2, 8);
+        }
+        registers[field] = (byte) (NEW_DATA | (parallelConversions % steps));
+        registers[field + 1] = (byte) measureIndex;
+        registers[field + 15] = (byte) (gasResistance >> 2);
+        registers[field + 16] = (byte) (((gasResistance & 0x03) << 6) | 0x30 | gasRange);
+        parallelConversions++;
+        return measureIndex;
+    }
+
+    // Reset the configuration registers and the data field flags as a supply brown-out would
+    void brownOut() {
+        for (int address = 0x50; address <= 0x75; address++) {
+            registers[address] = 0;
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            registers[FIELD0_ADDRESS + field * FIELD_LENGTH] &= ~NEW_DATA;
+        }
+        parallelConversions = 0;
+    }
+
+    // Measure gas into the variant's gas registers if run_gas is set, otherwise leave stale values flagged invalid
+    private void completeGasConversion() {
+        final boolean bme688 = registers[REGISTER_VARIANT_ID] == CompensationEngine.VARIANT_BME688;
+        final boolean runGas = (registers[REGISTER_CTRL_GAS_1] & (bme688 ? 0x20 : 0x10)) != 0;
+        final int lsb = FIELD0_ADDRESS + (bme688 ? 16 : 14);
+        if (runGas && bme688) {
+            registers[FIELD0_ADDRESS + 15] = registers[FIELD0_ADDRESS + 13];
+            registers[lsb] = registers[FIELD0_ADDRESS + 14];
+        }
+        registers[lsb] = (byte) (runGas ? registers[lsb] | GAS_FLAGS : registers[lsb] & ~GAS_FLAGS);
+    }
+
+    // Fail the next transactions with an IOException
+    void fail(final int count) {
+        failures = count;
+    }
+
+    private void transaction() throws IOException {
+        transactions++;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if (failures > 0) {
+            failures--;
+            throw new IOException("Simulated bus error");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getName() {
+        return "I2C1";
+    }
+
+    @Override
+    public void read(final byte[] buffer, final int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte readRegByte(final int reg) throws IOException {
+        transaction();
+        return registers[reg];
+    }
+
+    @Override
+    public short readRegWord(final int reg) throws IOException {
+        transaction();
+        return (short) ((registers[reg] & 0xFF) | (registers[reg + 1] << 8));
+    }
+
+    @Override
+    public void readRegBuffer(final int reg, final byte[] buffer, final int length) throws IOException {
+        transaction();
+        System.arraycopy(registers, reg, buffer, 0, length);
+    }
+
+    @Override
+    public void write(final byte[] buffer, final int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void writeRegByte(final int reg, final byte data) throws IOException {
+        transaction();
+        if (reg == REGISTER_SOFT_RESET) {
+            brownOut();
+            return;
+        }
+        if (reg == REGISTER_CTRL_MEAS && (data & MODE_MASK) == Bme680.MODE_FORCED) {
+            // A new conversion clears the previous one's new data flag
+            registers[FIELD0_ADDRESS] &= ~NEW_DATA;
+        }
+        if (reg == REGISTER_CTRL_MEAS && (data & MODE_MASK) == Bme680.MODE_FORCED && !stalled) {
+            // Conversions complete instantly, flag new data and fall back to sleep
+            completeGasConversion();
+            registers[FIELD0_ADDRESS] |= NEW_DATA;
+            registers[reg] = (byte) (data & ~MODE_MASK);
+            return;
+        }
+        registers[reg] = data;
+    }
+
+    @Override
+    public void writeRegWord(final int reg, final short data) throws IOException {
+        transaction();
+        registers[reg] = (byte) data;
+        registers[reg + 1] = (byte) (data >> 8);
+    }
+
+    @Override
+    public void writeRegBuffer(final int reg, final byte[] buffer, final int length) throws IOException {
+        transaction();
+        System.arraycopy(buffer, 0, registers, reg, length);
+    }
+}
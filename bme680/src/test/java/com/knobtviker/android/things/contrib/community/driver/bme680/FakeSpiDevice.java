@@ -0,0 +1,104 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * SPI front end of a {@link FakeI2cDevice} chip.
+ * Decodes 7 bit SPI addresses through the memory page selected in the status register and counts
+ * transfers and page switches.
+ */
+class FakeSpiDevice implements SpiDevice {
+
+    private static final int STATUS = 0x73;
+    private static final int PAGE_MASK = 0x10;
+
+    final FakeI2cDevice chip;
+
+    int transfers = 0;
+    int pageWrites = 0;
+    private int page = 0;
+
+    FakeSpiDevice(final FakeI2cDevice chip) {
+        this.chip = chip;
+    }
+
+    // Map an SPI address to the register map through the selected page
+    private int register(final int address) {
+        return page == 0 ? address | 0x80 : address;
+    }
+
+    @Override
+    public void transfer(final byte[] txBuffer, final byte[] rxBuffer, final int length) throws IOException {
+        transfers++;
+        final int address = txBuffer[0] & 0x7F;
+        if ((txBuffer[0] & 0x80) == 0) {
+            write(txBuffer, length);
+            return;
+        }
+        if (address == STATUS) {
+            rxBuffer[1] = (byte) page;
+            return;
+        }
+        final byte[] data = new byte[length - 1];
+        chip.readRegBuffer(register(address), data, length - 1);
+        System.arraycopy(data, 0, rxBuffer, 1, length - 1);
+    }
+
+    @Override
+    public void write(final byte[] buffer, final int length) throws IOException {
+        transfers++;
+        for (int i = 0; i + 1 < length; i += 2) {
+            final int address = buffer[i] & 0x7F;
+            if (address == STATUS) {
+                pageWrites++;
+                page = buffer[i + 1] & PAGE_MASK;
+                continue;
+            }
+            final int reg = register(address);
+            chip.writeRegByte(reg, buffer[i + 1]);
+            if (reg == FakeI2cDevice.REGISTER_SOFT_RESET) {
+                page = 0;
+            }
+        }
+    }
+
+    @Override
+    public void read(final byte[] buffer, final int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getName() {
+        return "SPI0.0";
+    }
+
+    @Override
+    public void setMode(final int mode) {
+    }
+
+    @Override
+    public void setFrequency(final int frequencyHz) {
+    }
+
+    @Override
+    public void setBitsPerWord(final int bitsPerWord) {
+    }
+
+    @Override
+    public void setBitJustification(final int justification) {
+    }
+
+    @Override
+    public void setCsChange(final boolean change) {
+    }
+
+    @Override
+    public void setDelay(final int delayUs) {
+    }
+}
@@ -0,0 +1,100 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class FaultRecoveryTest {
+
+    private static void awaitRecovery(final FaultRecovery recovery) throws InterruptedException {
+        for (int i = 0; i < 500 && recovery.isRecovering(); i++) {
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    public void should_detect_and_restore_lost_configuration() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        device.setTemperatureOversample(Bme680.OVERSAMPLING_4X);
+        device.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
+
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+
+        bus.brownOut();
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(false));
+
+        device.restoreConfiguration();
+        assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+        assertThat(device.getTemperatureOversample(), CoreMatchers.equalTo(Bme680.OVERSAMPLING_4X));
+    }
+
+    @Test
+    public void should_return_stale_reading_while_recovering() throws IOException, InterruptedException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        final FaultRecovery recovery = new FaultRecovery(device, 1, 4, 10);
+        try {
+            final Data good = recovery.read();
+            assertThat(good.stale, CoreMatchers.is(false));
+
+            bus.brownOut();
+            bus.fail(3);
+            final Data stale = recovery.read();
+            assertThat(stale.stale, CoreMatchers.is(true));
+            assertThat(stale.temperature, CoreMatchers.equalTo(good.temperature));
+
+            awaitRecovery(recovery);
+            assertThat(recovery.isRecovering(), CoreMatchers.is(false));
+            assertThat(recovery.getRecoveryCount(), CoreMatchers.equalTo(1L));
+            assertThat(device.verifyConfiguration(), CoreMatchers.is(true));
+            assertThat(recovery.read().stale, CoreMatchers.is(false));
+        } finally {
+            recovery.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void should_fail_without_previous_reading() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final FaultRecovery recovery = new FaultRecovery(new Bme680(bus));
+        try {
+            bus.fail(100);
+            recovery.read();
+        } finally {
+            recovery.close();
+        }
+    }
+
+    @Test
+    public void should_retry_the_read_after_restoring() throws IOException {
+        final FakeI2cDevice bus = new FakeI2cDevice();
+        final Bme680 device = new Bme680(bus);
+        final FaultRecovery recovery = new FaultRecovery(device, 1, 4, 10);
+        try {
+            recovery.read();
+
+            bus.brownOut();
+            bus.fail(1);
+            final Data data = recovery.read();
+
+            assertThat(data.stale, CoreMatchers.is(false));
+            assertThat(recovery.isRecovering(), CoreMatchers.is(false));
+            assertThat(recovery.getRecoveryCount(), CoreMatchers.equalTo(1L));
+        } finally {
+            recovery.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_reject_reads_after_close() throws IOException {
+        final FaultRecovery recovery = new FaultRecovery(new Bme680(new FakeI2cDevice()));
+        recovery.read();
+        recovery.close();
+        recovery.read();
+    }
+}
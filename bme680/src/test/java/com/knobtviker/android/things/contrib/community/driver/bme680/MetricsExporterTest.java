@@ -0,0 +1,67 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+public class MetricsExporterTest {
+
+    private static String get(final int port, final String path) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("UTF-8"));
+            out.flush();
+
+            final InputStream in = socket.getInputStream();
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                response.write(buffer, 0, n);
+            }
+            return response.toString("UTF-8");
+        }
+    }
+
+    @Test
+    public void should_render_prometheus_text() {
+        final MetricsExporter exporter = new MetricsExporter(0);
+        final Data data = new Data();
+        data.temperature = 21.5f;
+        data.pressure = 1013.25f;
+        data.gasResistance = 120000;
+
+        final String text = exporter.render(new MetricsExporter.Snapshot(data, 42, 1, 0));
+
+        assertThat(text.contains("# TYPE bme680_temperature_celsius gauge\nbme680_temperature_celsius 21.5\n"), CoreMatchers.is(true));
+        assertThat(text.contains("bme680_pressure_pascals 101325.0\n"), CoreMatchers.is(true));
+        assertThat(text.contains("bme680_gas_resistance_ohms 120000\n"), CoreMatchers.is(true));
+        assertThat(text.contains("bme680_conversions_total 42\n"), CoreMatchers.is(true));
+        assertThat(text.contains("bme680_errors_total 1\n"), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_serve_metrics_over_http() throws IOException {
+        final MetricsExporter exporter = new MetricsExporter(0);
+        exporter.start();
+        try {
+            final String metrics = get(exporter.getPort(), "/metrics");
+            assertThat(metrics.startsWith("HTTP/1.1 200 OK\r\n"), CoreMatchers.is(true));
+            assertThat(metrics.contains("bme680_scrapes_total 1\n"), CoreMatchers.is(true));
+
+            final String missing = get(exporter.getPort(), "/");
+            assertThat(missing.startsWith("HTTP/1.1 404 Not Found\r\n"), CoreMatchers.is(true));
+        } finally {
+            exporter.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import android.support.annotation.NonNull;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class PowerBudgetSchedulerTest {
+
+    private static SensorSettings sensorSettings(final int oversampling) {
+        final SensorSettings settings = new SensorSettings();
+        settings.oversamplingTemperature = oversampling;
+        settings.oversamplingPressure = oversampling;
+        settings.oversamplingHumidity = oversampling;
+        return settings;
+    }
+
+    private static GasSettings gasSettings(final int temperature, final int duration) {
+        final GasSettings settings = new GasSettings();
+        settings.runGas = Bme680.ENABLE_GAS;
+        settings.heaterTemperature = temperature;
+        settings.heaterDuration = duration;
+        return settings;
+    }
+
+    @Test
+    public void should_include_heater_time_only_when_gas_is_enabled() {
+        final SensorSettings sensor = sensorSettings(Bme680.OVERSAMPLING_1X);
+        final GasSettings gas = gasSettings(320, 150);
+
+        final long withGas = PowerBudgetScheduler.activeDuration(sensor, gas);
+        gas.runGas = Bme680.DISABLE_GAS;
+        final long withoutGas = PowerBudgetScheduler.activeDuration(sensor, gas);
+
+        assertThat(withGas - withoutGas, CoreMatchers.equalTo(150000L));
+    }
+
+    @Test
+    public void should_scale_heater_current_with_temperature() {
+        assertThat(PowerBudgetScheduler.heaterCurrent(25), CoreMatchers.equalTo(0f));
+        assertThat(PowerBudgetScheduler.heaterCurrent(400), CoreMatchers.equalTo(Bme680.MAX_POWER_CONSUMPTION_GAS_UA));
+        assertThat(PowerBudgetScheduler.heaterCurrent(500), CoreMatchers.equalTo(Bme680.MAX_POWER_CONSUMPTION_GAS_UA));
+    }
+
+    @Test
+    public void should_keep_average_current_within_budget() {
+        final SensorSettings sensor = sensorSettings(Bme680.OVERSAMPLING_2X);
+        final GasSettings gas = gasSettings(320, 150);
+        final float budget = 50f;
+
+        final long active = PowerBudgetScheduler.activeDuration(sensor, gas);
+        final double charge = PowerBudgetScheduler.activeCharge(sensor, gas);
+        final long period = PowerBudgetScheduler.samplePeriod(active, charge, budget);
+
+        final double total = charge + Bme680.MAX_POWER_CONSUMPTION_SLEEP_UA * (period - active) / 1e6;
+        final double average = total / (period / 1e6);
+
+        assertThat(average <= budget, CoreMatchers.is(true));
+        assertThat(average > budget * 0.99, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void should_not_schedule_faster_than_a_conversion() {
+        final SensorSettings sensor = sensorSettings(Bme680.OVERSAMPLING_1X);
+        final GasSettings gas = gasSettings(320, 150);
+        gas.runGas = Bme680.DISABLE_GAS;
+
+        final long active = PowerBudgetScheduler.activeDuration(sensor, gas);
+        final double charge = PowerBudgetScheduler.activeCharge(sensor, gas);
+
+        assertThat(PowerBudgetScheduler.samplePeriod(active, charge, 100000f), CoreMatchers.equalTo(active));
+    }
+
+    @Test
+    public void should_keep_sampling_when_the_callback_throws() throws IOException {
+        final PowerBudgetScheduler scheduler = new PowerBudgetScheduler(new Bme680(new FakeI2cDevice(), new VirtualClock()), 1000f);
+        final int[] readings = new int[1];
+
+        scheduler.run(60 * 1000L, new PowerBudgetScheduler.Callback() {
+            @Override
+            public void onReading(@NonNull final Data data) {
+                readings[0]++;
+                throw new IllegalStateException("Consumer failed");
+            }
+
+            @Override
+            public void onError(@NonNull final IOException e) {
+            }
+        });
+
+        assertThat(readings[0] > 1, CoreMatchers.is(true));
+        assertThat(scheduler.getReadingCount(), CoreMatchers.equalTo((long) readings[0]));
+    }
+}
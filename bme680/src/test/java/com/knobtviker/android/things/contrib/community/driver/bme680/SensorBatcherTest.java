@@ -0,0 +1,73 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import com.google.android.things.userdriver.sensor.UserSensorReading;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class SensorBatcherTest {
+
+    @Test
+    public void should_deliver_a_full_fifo_in_a_burst_with_original_timestamps() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final SensorBatcher batcher = new SensorBatcher(new Bme680(new FakeI2cDevice(), clock), 10000, 60000000, 4);
+        batcher.setEnabled(SensorBatcher.TEMPERATURE, true);
+
+        final long[] timestamps = new long[4];
+        for (int i = 0; i < 4; i++) {
+            clock.advance(10);
+            batcher.sample();
+            timestamps[i] = clock.elapsedRealtimeNanos();
+        }
+        assertThat(batcher.size(SensorBatcher.TEMPERATURE), CoreMatchers.equalTo(4));
+        assertThat(batcher.size(SensorBatcher.PRESSURE), CoreMatchers.equalTo(0));
+
+        for (int i = 0; i < 4; i++) {
+            final UserSensorReading reading = batcher.take(SensorBatcher.TEMPERATURE);
+            assertThat(reading.timestampNs, CoreMatchers.equalTo(timestamps[i]));
+            assertThat(reading.values[0], CoreMatchers.equalTo(23.16f));
+        }
+        assertThat(batcher.size(SensorBatcher.TEMPERATURE), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_deliver_a_partial_batch_once_the_report_latency_expires() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final SensorBatcher batcher = new SensorBatcher(new Bme680(new FakeI2cDevice(), clock), 10000, 1000000, 64);
+        batcher.setEnabled(SensorBatcher.GAS, true);
+
+        batcher.sample();
+        batcher.sample();
+        clock.advance(1000);
+
+        assertThat(batcher.take(SensorBatcher.GAS).values.length, CoreMatchers.equalTo(3));
+        // The batch drains without waiting for the latency again
+        batcher.take(SensorBatcher.GAS);
+        assertThat(batcher.size(SensorBatcher.GAS), CoreMatchers.equalTo(0));
+    }
+
+    @Test
+    public void should_queue_only_readings_outside_the_deadband() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final SensorBatcher batcher = new SensorBatcher(new Bme680(new FakeI2cDevice(), clock), 10000, 60000000, 4);
+        batcher.setEnabled(SensorBatcher.TEMPERATURE, true);
+        batcher.setDeadband(SensorBatcher.TEMPERATURE, new Deadband(0.5f, 0f, 0));
+
+        for (int i = 0; i < 3; i++) {
+            batcher.sample();
+        }
+        assertThat(batcher.size(SensorBatcher.TEMPERATURE), CoreMatchers.equalTo(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void should_fail_reads_once_closed() throws IOException {
+        final SensorBatcher batcher = new SensorBatcher(new Bme680(new FakeI2cDevice(), new VirtualClock()), 10000, 60000000, 4);
+        batcher.close();
+        batcher.take(SensorBatcher.TEMPERATURE);
+    }
+}
@@ -0,0 +1,94 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class SpiTransportTest {
+
+    @Test
+    public void should_read_the_same_values_as_i2c() throws IOException {
+        final Bme680 spi = new Bme680(new SpiTransport(new FakeSpiDevice(new FakeI2cDevice())), new VirtualClock());
+        final Bme680 i2c = new Bme680(new FakeI2cDevice(), new VirtualClock());
+
+        final Data expected = i2c.readData();
+        final Data actual = spi.readData();
+
+        assertThat(actual.temperature, CoreMatchers.equalTo(expected.temperature));
+        assertThat(actual.pressure, CoreMatchers.equalTo(expected.pressure));
+        assertThat(actual.humidity, CoreMatchers.equalTo(expected.humidity));
+        assertThat(actual.gasResistance, CoreMatchers.equalTo(expected.gasResistance));
+    }
+
+    @Test
+    public void should_not_switch_pages_while_reading() throws IOException {
+        final FakeSpiDevice bus = new FakeSpiDevice(new FakeI2cDevice());
+        final Bme680 device = new Bme680(new SpiTransport(bus), new VirtualClock());
+
+        final int pageWrites = bus.pageWrites;
+        for (int i = 0; i < 10; i++) {
+            device.readData();
+        }
+
+        assertThat(bus.pageWrites, CoreMatchers.equalTo(pageWrites));
+    }
+
+    @Test
+    public void should_switch_pages_only_when_crossing() throws IOException {
+        final FakeSpiDevice bus = new FakeSpiDevice(new FakeI2cDevice());
+        final SpiTransport transport = new SpiTransport(bus);
+
+        // Page 0 is selected after power on, the first access only reads the status register
+        assertThat(transport.readRegByte(FakeI2cDevice.REGISTER_ID), CoreMatchers.equalTo((byte) Bme680.CHIP_ID_BME680));
+        assertThat(bus.pageWrites, CoreMatchers.equalTo(0));
+
+        transport.readRegByte(FakeI2cDevice.FIELD0_ADDRESS);
+        transport.readRegByte(FakeI2cDevice.FIELD0_ADDRESS + 1);
+        assertThat(bus.pageWrites, CoreMatchers.equalTo(1));
+
+        transport.readRegByte(FakeI2cDevice.REGISTER_ID);
+        assertThat(bus.pageWrites, CoreMatchers.equalTo(2));
+    }
+
+    @Test
+    public void should_reselect_page_after_soft_reset() throws IOException {
+        final FakeSpiDevice bus = new FakeSpiDevice(new FakeI2cDevice());
+        final SpiTransport transport = new SpiTransport(bus);
+
+        transport.readRegByte(FakeI2cDevice.FIELD0_ADDRESS);
+        transport.writeRegByte(FakeI2cDevice.REGISTER_SOFT_RESET, (byte) 0xB6);
+        final int pageWrites = bus.pageWrites;
+        transport.readRegByte(FakeI2cDevice.FIELD0_ADDRESS);
+
+        assertThat(bus.pageWrites, CoreMatchers.equalTo(pageWrites + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_burst_across_pages() throws IOException {
+        new SpiTransport(new FakeSpiDevice(new FakeI2cDevice())).readRegBuffer(0x7E, new byte[4], 4);
+    }
+
+    @Test
+    public void should_reuse_the_burst_buffers() throws IOException {
+        final SpiTransport transport = new SpiTransport(new FakeSpiDevice(new FakeI2cDevice()));
+        final byte[] expected = new byte[4];
+        final byte[] actual = new byte[8];
+
+        transport.readRegBuffer(FakeI2cDevice.FIELD0_ADDRESS, actual, actual.length);
+        transport.readRegBuffer(FakeI2cDevice.FIELD0_ADDRESS, expected, expected.length);
+        transport.readRegBuffer(FakeI2cDevice.FIELD0_ADDRESS, actual, expected.length);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(actual[i], CoreMatchers.equalTo(expected[i]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_burst_longer_than_the_buffers() throws IOException {
+        new SpiTransport(new FakeSpiDevice(new FakeI2cDevice())).readRegBuffer(FakeI2cDevice.FIELD0_ADDRESS, new byte[64], 64);
+    }
+}
@@ -0,0 +1,67 @@
+package com.knobtviker.android.things.contrib.community.driver.bme680;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class VirtualClockTest {
+
+    private static final long DAY_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void should_advance_only_when_slept_on() {
+        final VirtualClock clock = new VirtualClock(1000);
+
+        assertThat(clock.elapsedRealtime(), CoreMatchers.equalTo(1000L));
+        clock.sleep(250);
+        clock.advance(750);
+
+        assertThat(clock.elapsedRealtime(), CoreMatchers.equalTo(2000L));
+        assertThat(clock.elapsedRealtimeNanos(), CoreMatchers.equalTo(2000000000L));
+    }
+
+    @Test
+    public void should_wait_for_reset_on_the_given_clock() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(new FakeI2cDevice(), clock);
+
+        assertThat(clock.elapsedRealtime() > 0, CoreMatchers.is(true));
+        device.close();
+    }
+
+    @Test
+    public void should_run_a_day_of_burn_in_in_virtual_time() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bme680 device = new Bme680(new FakeI2cDevice(), clock);
+        device.setGasHeaterProfile(Bme680.PROFILE_0, 320, 150);
+        device.selectGasHeaterProfile(Bme680.PROFILE_0);
+        device.setGasStatus(Bme680.ENABLE_GAS);
+
+        final PowerBudgetScheduler scheduler = new PowerBudgetScheduler(device, 100f);
+        final long period = scheduler.getSamplePeriod();
+        final long start = clock.elapsedRealtime();
+        final long wallStart = System.nanoTime();
+
+        scheduler.run(DAY_MILLISECONDS, new PowerBudgetScheduler.Callback() {
+            @Override
+            public void onReading(final Data data) {
+            }
+
+            @Override
+            public void onError(final IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+
+        final long elapsed = clock.elapsedRealtime() - start;
+        assertThat(elapsed >= DAY_MILLISECONDS, CoreMatchers.is(true));
+        assertThat(Math.abs(scheduler.getReadingCount() - DAY_MILLISECONDS / period) <= 1, CoreMatchers.is(true));
+        assertThat(device.getAirQualityState(), CoreMatchers.equalTo(AirQualityEngine.STATE_READY));
+        assertThat(System.nanoTime() - wallStart < 60 * 1000000000L, CoreMatchers.is(true));
+        device.close();
+    }
+}